@@ -0,0 +1,292 @@
+package jenkins.plugins.logstash;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.remoting.Channel;
+import jenkins.model.Jenkins;
+import jenkins.plugins.logstash.configuration.LogstashIndexer;
+import jenkins.plugins.logstash.persistence.BuildData;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+import jenkins.plugins.logstash.persistence.Timestamps;
+
+/**
+ * Everything an agent needs to send the console output of a build to the indexer itself: the build data taken
+ * when the step started, with the host and label of the node that runs the step, the configuration of the indexer
+ * and the settings of the writer.
+ *
+ * The snapshot is serialized together with the {@link LogstashConsoleLogFilter} when the console output of a step
+ * is decorated on the agent, so the controller neither decodes nor forwards these lines. The configuration of the
+ * indexer, including its credentials, is only written when the snapshot is sent to an agent, it is taken from the
+ * {@link LogstashConfiguration} at that time. It is left out when the snapshot is saved with the state of the
+ * Pipeline, so the credentials are not stored in the build. On the agent all snapshots with an equal configuration
+ * share one indexer, so the connections to the indexer are reused by all steps. On the controller the indexer of
+ * the configuration is used.
+ */
+final class AgentSnapshot implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  // the indexer of this agent, replaced when a snapshot brings a different configuration
+  private static LogstashIndexer<?> agentIndexer;
+  // more builds than run on one agent at the same time, the limiters of the least recently used builds are dropped
+  private static final int MAX_RATE_LIMITERS = 64;
+  // the rate limiters of the builds on this agent, shared by all snapshots of a build, by the id of the build
+  private static final Map<String, RateLimiter> RATE_LIMITERS = new LinkedHashMap<String, RateLimiter>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, RateLimiter> eldest)
+    {
+      return size() > MAX_RATE_LIMITERS;
+    }
+  };
+
+  private final BuildData buildData;
+  private final BuildProgress progress;
+  private final String jenkinsUrl;
+  private final String charset;
+  private final FastDateFormat dateFormatter;
+  private final WriterSettings settings;
+  private final int senderThreads;
+  private final int queueCapacity;
+  private final boolean concurrentPushes;
+  // only set on an agent, written by writeObject, as some indexer configurations hold fields that are not serializable
+  private transient LogstashIndexer<?> indexer;
+
+  /**
+   * Takes a snapshot of a build.
+   *
+   * @param run the build
+   * @param configuration the global configuration
+   * @param node the node that runs the step or null if it is not known
+   */
+  AgentSnapshot(Run<?, ?> run, LogstashConfiguration configuration, @CheckForNull Node node)
+  {
+    // the cached data describes the node of the build, which need not be the node of the step
+    this.buildData = BuildDataCache.get(run, null).forNode(node);
+    this.progress = BuildDataCache.getProgress(run).forAgent();
+    this.jenkinsUrl = Jenkins.getInstance().getRootUrl();
+    this.charset = run.getCharset().name();
+    this.dateFormatter = configuration.getDateFormatter();
+    this.settings = WriterSettings.forAgent(configuration, run.getParent().getProperty(LogstashJobProperty.class));
+    this.senderThreads = configuration.getSenderThreads();
+    this.queueCapacity = configuration.getQueueCapacity();
+    this.concurrentPushes = configuration.isConcurrentPushes();
+  }
+
+  BuildData getBuildData()
+  {
+    return buildData;
+  }
+
+  BuildProgress getProgress()
+  {
+    return progress;
+  }
+
+  String getJenkinsUrl()
+  {
+    return jenkinsUrl;
+  }
+
+  Charset getCharset()
+  {
+    return Charset.forName(charset);
+  }
+
+  WriterSettings getSettings()
+  {
+    return settings;
+  }
+
+  /**
+   * Returns the rate limiter of the build, shared by the writers of all snapshots of the build in this JVM.
+   * The lines of the build are limited on the controller and on each agent separately.
+   *
+   * @return the limiter or null if nothing is limited
+   */
+  @CheckForNull
+  RateLimiter getBuildRateLimiter()
+  {
+    synchronized (RATE_LIMITERS)
+    {
+      RateLimiter limiter = RATE_LIMITERS.get(buildData.getBuildId());
+      if (limiter == null || !limiter.hasLimits(settings.buildRateLimitEvents, settings.buildRateLimitBytes))
+      {
+        limiter = RateLimiter.create(settings.buildRateLimitEvents, settings.buildRateLimitBytes);
+        if (limiter == null)
+        {
+          RATE_LIMITERS.remove(buildData.getBuildId());
+        }
+        else
+        {
+          RATE_LIMITERS.put(buildData.getBuildId(), limiter);
+        }
+      }
+      return limiter;
+    }
+  }
+
+  /**
+   * Creates a writer that sends the lines of the build.
+   *
+   * @param error the stream for error messages
+   * @return the writer
+   */
+  LogstashWriter createWriter(OutputStream error)
+  {
+    if (Jenkins.getInstanceOrNull() == null)
+    {
+      // there is no configuration on an agent
+      Timestamps.setFormatter(dateFormatter);
+      if (settings.asynchronous)
+      {
+        LogstashDispatcher.reconfigure(senderThreads, queueCapacity, concurrentPushes);
+      }
+    }
+    return new LogstashWriter(this, error, getCharset());
+  }
+
+  /**
+   * @return the DAO of the indexer or null if no indexer is configured
+   */
+  @CheckForNull
+  LogstashIndexerDao getIndexerDao()
+  {
+    if (Jenkins.getInstanceOrNull() != null)
+    {
+      return LogstashConfiguration.getInstance().getIndexerInstance();
+    }
+    if (indexer == null)
+    {
+      return null;
+    }
+    synchronized (AgentSnapshot.class)
+    {
+      if (!indexer.equals(agentIndexer))
+      {
+        if (agentIndexer != null)
+        {
+          agentIndexer.close();
+        }
+        agentIndexer = indexer;
+      }
+      return agentIndexer.getInstance();
+    }
+  }
+
+  /**
+   * Returns the indexer to send to an agent. Outside of a remote call the snapshot is saved, e.g. with the program
+   * of a Pipeline, and the indexer with its credentials is left out.
+   */
+  @CheckForNull
+  private LogstashIndexer<?> getIndexerToSend()
+  {
+    if (Channel.current() == null)
+    {
+      return null;
+    }
+    if (Jenkins.getInstanceOrNull() != null)
+    {
+      return LogstashConfiguration.getInstance().getLogstashIndexer();
+    }
+    return indexer;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException
+  {
+    out.defaultWriteObject();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (IndexerOutputStream indexerOut = new IndexerOutputStream(bytes))
+    {
+      indexerOut.writeObject(getIndexerToSend());
+    }
+    out.writeObject(bytes.toByteArray());
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+  {
+    in.defaultReadObject();
+    try (IndexerInputStream indexerIn = new IndexerInputStream(new ByteArrayInputStream((byte[]) in.readObject())))
+    {
+      indexer = (LogstashIndexer<?>) indexerIn.readObject();
+    }
+  }
+
+  /**
+   * Writes a charset by its name, as {@link Charset} is not serializable.
+   */
+  private static final class CharsetName implements Serializable
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    CharsetName(Charset charset)
+    {
+      this.name = charset.name();
+    }
+  }
+
+  private static final class IndexerOutputStream extends ObjectOutputStream
+  {
+    IndexerOutputStream(OutputStream out) throws IOException
+    {
+      super(out);
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj)
+    {
+      return obj instanceof Charset ? new CharsetName((Charset) obj) : obj;
+    }
+  }
+
+  private static final class IndexerInputStream extends ObjectInputStream
+  {
+    IndexerInputStream(InputStream in) throws IOException
+    {
+      super(in);
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException
+    {
+      // the plugin classes are not visible to the class loader of the stream
+      try
+      {
+        return Class.forName(desc.getName(), false, AgentSnapshot.class.getClassLoader());
+      }
+      catch (ClassNotFoundException e)
+      {
+        return super.resolveClass(desc);
+      }
+    }
+
+    @Override
+    protected Object resolveObject(Object obj)
+    {
+      return obj instanceof CharsetName ? Charset.forName(((CharsetName) obj).name) : obj;
+    }
+  }
+}
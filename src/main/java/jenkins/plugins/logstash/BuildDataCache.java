@@ -0,0 +1,203 @@
+package jenkins.plugins.logstash;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.plugins.logstash.persistence.BuildData;
+
+/**
+ * The build data of running builds, shared by all writers of a build.
+ *
+ * Creating the build data collects the environment and the build variables of the build, which is expensive.
+ * So the data is created once, by the first writer of a build, and reused by the console log filter, every
+ * logstash step and the notifier of the same build. The shared data still picks up the result, the test
+ * results and the duration, see {@link BuildData#updateResult()}. A step on an agent gets a copy with the host of
+ * its node instead, see {@link BuildData#forNode(hudson.model.Node)}.
+ *
+ * The data is dropped when it no longer describes the build:
+ * <ul>
+ * <li>before the notifier sends the log, so it reports the data at the end of the build</li>
+ * <li>when the build is finalized or deleted, see {@link LogstashRunListener}</li>
+ * </ul>
+ * The {@link BuildProgress} and the {@link RateLimiter} of the build are kept apart from the data, they are only
+ * dropped when the build is finalized or deleted.
+ * A build that never gets there, like one that is aborted while it is loaded after a restart, is no longer running,
+ * so its entries are dropped the next time an entry of another build is added.
+ * Only running builds are cached, the data of a build that was already completed is created every time.
+ */
+final class BuildDataCache
+{
+  // the data refers to its build, so the entries are removed explicitly instead of using weak keys
+  private static final Map<Run<?, ?>, BuildData> CACHE = new HashMap<>();
+  private static final Map<Run<?, ?>, BuildProgress> PROGRESS = new HashMap<>();
+  private static final Map<Run<?, ?>, RateLimiter> RATE_LIMITERS = new HashMap<>();
+
+  private BuildDataCache()
+  {
+  }
+
+  /**
+   * Returns the build data of a build, creating it if there is none.
+   *
+   * @param run the build
+   * @param listener the listener used to collect the environment of the build
+   * @return the build data
+   */
+  static BuildData get(Run<?, ?> run, TaskListener listener)
+  {
+    return getOrCreate(run, () -> create(run, listener));
+  }
+
+  static BuildData getOrCreate(Run<?, ?> run, Supplier<BuildData> factory)
+  {
+    synchronized (CACHE)
+    {
+      BuildData data = CACHE.get(run);
+      if (data != null)
+      {
+        return data;
+      }
+    }
+    // created without holding the lock, if two writers race the data of the first one is kept
+    BuildData data = factory.get();
+    if (!run.isLogUpdated())
+    {
+      // nothing would remove the data of a completed build
+      return data;
+    }
+    synchronized (CACHE)
+    {
+      BuildData cached = CACHE.get(run);
+      if (cached != null)
+      {
+        return cached;
+      }
+      expunge();
+      CACHE.put(run, data);
+      return data;
+    }
+  }
+
+  /**
+   * Returns what the writers of a build have sent so far, creating it if there is none.
+   *
+   * @param run the build
+   * @return the progress shared by all writers of the build
+   */
+  static BuildProgress getProgress(Run<?, ?> run)
+  {
+    if (!run.isLogUpdated())
+    {
+      return new BuildProgress();
+    }
+    synchronized (CACHE)
+    {
+      BuildProgress progress = PROGRESS.get(run);
+      if (progress == null)
+      {
+        expunge();
+        progress = new BuildProgress();
+        PROGRESS.put(run, progress);
+      }
+      return progress;
+    }
+  }
+
+  /**
+   * Returns the rate limiter of a build, shared by all writers of the build, so the limits apply to the build and
+   * not to each writer. A new limiter is created when the limits change.
+   *
+   * @param run the build
+   * @param eventsPerSecond maximum events per second of the build, not limited if not positive
+   * @param bytesPerSecond maximum bytes per second of the build, not limited if not positive
+   * @return the limiter or null if nothing is limited
+   */
+  @CheckForNull
+  static RateLimiter getRateLimiter(Run<?, ?> run, int eventsPerSecond, int bytesPerSecond)
+  {
+    if ((eventsPerSecond <= 0 && bytesPerSecond <= 0) || !run.isLogUpdated())
+    {
+      return RateLimiter.create(eventsPerSecond, bytesPerSecond);
+    }
+    synchronized (CACHE)
+    {
+      RateLimiter limiter = RATE_LIMITERS.get(run);
+      if (limiter == null || !limiter.hasLimits(eventsPerSecond, bytesPerSecond))
+      {
+        if (limiter == null)
+        {
+          expunge();
+        }
+        limiter = RateLimiter.create(eventsPerSecond, bytesPerSecond);
+        RATE_LIMITERS.put(run, limiter);
+      }
+      return limiter;
+    }
+  }
+
+  /**
+   * Drops the build data of a build, so the next writer creates it again.
+   *
+   * @param run the build
+   */
+  static void invalidate(Run<?, ?> run)
+  {
+    synchronized (CACHE)
+    {
+      CACHE.remove(run);
+    }
+  }
+
+  /**
+   * Drops the build data, the progress and the rate limiter of a build that is finalized or deleted.
+   * Writers that are still sending keep the progress and the limiter they already have.
+   *
+   * @param run the build
+   */
+  static void remove(Run<?, ?> run)
+  {
+    synchronized (CACHE)
+    {
+      CACHE.remove(run);
+      PROGRESS.remove(run);
+      RATE_LIMITERS.remove(run);
+    }
+  }
+
+  /**
+   * Drops the entries of builds that are no longer running. Called with the lock held before an entry is added.
+   */
+  private static void expunge()
+  {
+    CACHE.keySet().removeIf(run -> !run.isLogUpdated());
+    PROGRESS.keySet().removeIf(run -> !run.isLogUpdated());
+    RATE_LIMITERS.keySet().removeIf(run -> !run.isLogUpdated());
+  }
+
+  static int size()
+  {
+    synchronized (CACHE)
+    {
+      return CACHE.size() + PROGRESS.size() + RATE_LIMITERS.size();
+    }
+  }
+
+  private static BuildData create(Run<?, ?> run, TaskListener listener)
+  {
+    if (run instanceof AbstractBuild)
+    {
+      return new BuildData((AbstractBuild<?, ?>) run, new Date(), listener);
+    }
+    else
+    {
+      return new BuildData(run, new Date(), listener);
+    }
+  }
+}
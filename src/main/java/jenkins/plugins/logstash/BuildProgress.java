@@ -0,0 +1,103 @@
+package jenkins.plugins.logstash;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the writers of a build have sent so far: the header events, see {@link EventSchema#HEADER}, the line with
+ * the result of the build and the sequence numbers of the line events.
+ *
+ * All writers of a build share one instance, see {@link BuildDataCache}. Unlike the build data it is kept when the
+ * notifier creates the data again, so that the header is not sent twice and the sequence numbers stay unique for the
+ * id of the build. A snapshot for an agent takes a slice of it, see {@link #forAgent()}.
+ */
+final class BuildProgress implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  // sequence numbers reserved for the writers of one agent snapshot, more lines than a step can write
+  static final long AGENT_SEQUENCES = 1L << 32;
+
+  private final AtomicLong sequence;
+  private boolean startHeaderClaimed;
+  private boolean finalHeaderClaimed;
+  private boolean resultLineClaimed;
+
+  BuildProgress()
+  {
+    this(0, false, false);
+  }
+
+  private BuildProgress(long sequence, boolean startHeaderClaimed, boolean endClaimed)
+  {
+    this.sequence = new AtomicLong(sequence);
+    this.startHeaderClaimed = startHeaderClaimed;
+    this.finalHeaderClaimed = endClaimed;
+    this.resultLineClaimed = endClaimed;
+  }
+
+  /**
+   * @return the sequence number of the next line event of the build
+   */
+  long nextSequence()
+  {
+    return sequence.incrementAndGet();
+  }
+
+  /**
+   * Claims sending the header event at the start of the build. Only the first caller gets it.
+   *
+   * @return true if the caller has to send the header
+   */
+  synchronized boolean claimStartHeader()
+  {
+    if (startHeaderClaimed)
+    {
+      return false;
+    }
+    startHeaderClaimed = true;
+    return true;
+  }
+
+  /**
+   * Claims sending the header event at the end of the build. Only the first caller gets it.
+   *
+   * @return true if the caller has to send the header
+   */
+  synchronized boolean claimFinalHeader()
+  {
+    if (finalHeaderClaimed)
+    {
+      return false;
+    }
+    finalHeaderClaimed = true;
+    return true;
+  }
+
+  /**
+   * Claims sending the line with the result of the build. Only the first caller gets it.
+   *
+   * @return true if the caller has to send the line
+   */
+  synchronized boolean claimResultLine()
+  {
+    if (resultLineClaimed)
+    {
+      return false;
+    }
+    resultLineClaimed = true;
+    return true;
+  }
+
+  /**
+   * Takes the progress for the writers of an agent. They get a range of sequence numbers of their own and send the
+   * start header if no other writer has claimed it yet. The end of the build is sent by the controller.
+   *
+   * @return the progress of the agent
+   */
+  BuildProgress forAgent()
+  {
+    long first = sequence.getAndAdd(AGENT_SEQUENCES);
+    return new BuildProgress(first, !claimStartHeader(), true);
+  }
+}
@@ -0,0 +1,661 @@
+package jenkins.plugins.logstash;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.plugins.logstash.persistence.EventBuffer;
+import jenkins.plugins.logstash.persistence.LogEvent;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+import jenkins.plugins.logstash.persistence.RejectedEventsException;
+import jenkins.util.Timer;
+
+/**
+ * Guards the pushes to one indexer. There is one circuit breaker per DAO, so all builds
+ * that send to the same indexer share it.
+ *
+ * A failed push is retried with an exponential backoff and jitter. When the indexer only rejected some events
+ * of a push, see {@link RejectedEventsException}, only those are retried. After a number of consecutive
+ * failures the circuit opens and pushes fail immediately, so that builds do not wait for an indexer
+ * that is down. Once the open delay has passed one push is let through as a trial. If it succeeds the circuit
+ * closes again, otherwise it stays open for twice as long, up to a maximum.
+ * A writer that sends on the thread of a build limits the backoff of its pushes, see {@link #SYNCHRONOUS_MAX_PAUSE},
+ * so that an indexer that fails now and then does not stall the console output of the build.
+ *
+ * While the circuit is open events are dropped, buffered in memory or spilled to disk, depending on the {@link OutagePolicy}.
+ * Buffered events are sent in order on a timer thread once the indexer is available again. New events
+ * are appended to the buffer until it is empty, so that they are not sent before older ones.
+ *
+ * All builds that send to the same indexer push through one breaker, so while the indexer is healthy
+ * a push only reads a volatile flag and does not take the lock of the breaker. The lock is not a monitor,
+ * since the spill queue writes to disk while it is held and pushes may run on virtual threads.
+ */
+final class CircuitBreaker
+{
+  private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+  static final int MAX_ATTEMPTS = 3;
+  static final long RETRY_DELAY = 100;
+  // the time in milliseconds a push on the thread of a build may pause between its attempts in total
+  static final long SYNCHRONOUS_MAX_PAUSE = 100;
+  static final int FAILURE_THRESHOLD = 3;
+  static final long OPEN_DELAY = 1000;
+  static final long MAX_OPEN_DELAY = 60000;
+  static final int DEFAULT_BUFFER_CAPACITY = 10000;
+  private static final int REPLAY_BATCH = 500;
+
+  // weak keys, so the breaker goes away together with a DAO that was replaced by a new configuration
+  private static final Map<LogstashIndexerDao, CircuitBreaker> BREAKERS = new WeakHashMap<>();
+
+  private enum State
+  {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  // the map value must not keep the key alive
+  private final WeakReference<LogstashIndexerDao> dao;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final MemoryOutageBuffer memory = new MemoryOutageBuffer(DEFAULT_BUFFER_CAPACITY);
+  private SpillQueue spill;
+  private volatile OutagePolicy policy = OutagePolicy.DROP;
+  private volatile long openUntil;
+  private volatile int outages;
+  private State state = State.CLOSED;
+  private int failures;
+  private long openDelay = OPEN_DELAY;
+  private long droppedEvents;
+  private boolean replayScheduled;
+  // true while the circuit is closed, the last push succeeded and no events are buffered
+  private volatile boolean healthy = true;
+
+  private CircuitBreaker(LogstashIndexerDao dao)
+  {
+    this.dao = new WeakReference<>(dao);
+  }
+
+  /**
+   * Returns the circuit breaker of an indexer.
+   *
+   * @param dao the DAO of the indexer
+   * @return the circuit breaker shared by all users of the DAO
+   */
+  static synchronized CircuitBreaker of(LogstashIndexerDao dao)
+  {
+    CircuitBreaker breaker = BREAKERS.get(dao);
+    if (breaker == null)
+    {
+      breaker = new CircuitBreaker(dao);
+      BREAKERS.put(dao, breaker);
+    }
+    return breaker;
+  }
+
+  /**
+   * Applies the outage settings of the global configuration.
+   * The spill queue is opened when it is needed for the first time, events it recovered from disk are sent right away.
+   *
+   * @param policy what to do with events while the indexer is unavailable, null means {@link OutagePolicy#DROP}
+   * @param bufferCapacity maximum number of events buffered in memory, the default is used if not positive
+   * @param spillMaxSize maximum size of the spill queue in MiB, the default is used if not positive
+   * @param spillMaxAge maximum age of spilled events in hours, the default is used if not positive
+   */
+  void configure(OutagePolicy policy, int bufferCapacity, int spillMaxSize, int spillMaxAge)
+  {
+    lock.lock();
+    try
+    {
+      this.policy = policy != null ? policy : OutagePolicy.DROP;
+      memory.setCapacity(bufferCapacity > 0 ? bufferCapacity : DEFAULT_BUFFER_CAPACITY);
+      if (this.policy == OutagePolicy.SPILL)
+      {
+        LogstashIndexerDao indexer = dao.get();
+        boolean opened = spill == null;
+        try
+        {
+          spill = indexer != null ? SpillQueue.of(indexer, spillMaxSize, spillMaxAge) : null;
+        }
+        catch (IOException e)
+        {
+          // events are buffered in memory instead
+          LOGGER.log(Level.WARNING, "Unable to open the spill queue of " + getDescription(), e);
+        }
+        if (opened && spill != null && !spill.isEmpty())
+        {
+          scheduleReplay(0);
+        }
+      }
+      updateHealth();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  OutagePolicy getPolicy()
+  {
+    return policy;
+  }
+
+  /**
+   * @return true if the circuit is open and no trial push is allowed yet
+   */
+  boolean isOpen()
+  {
+    return System.currentTimeMillis() < openUntil;
+  }
+
+  /**
+   * @return the number of times the circuit opened, identifies the current outage
+   */
+  int getOutages()
+  {
+    return outages;
+  }
+
+  long getBufferedEvents()
+  {
+    lock.lock();
+    try
+    {
+      return memory.size() + (spill != null ? spill.size() : 0);
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Pushes encoded events, retrying failed pushes.
+   *
+   * @param events the events to push
+   * @return true if the events were sent, false if they were buffered because the indexer is not available
+   * @throws CircuitOpenException if the circuit is open and the events were dropped
+   * @throws IOException if the last attempt failed, the events were buffered unless the policy is to drop them
+   */
+  boolean push(EventBuffer events) throws IOException
+  {
+    return push(new EncodedPush(events));
+  }
+
+  /**
+   * Pushes log events, retrying failed pushes. The indexer encodes the events for each attempt,
+   * here they are only encoded to bytes when they have to be buffered.
+   *
+   * @param events the events to push
+   * @return true if the events were sent, false if they were buffered because the indexer is not available
+   * @throws CircuitOpenException if the circuit is open and the events were dropped
+   * @throws IOException if the last attempt failed, the events were buffered unless the policy is to drop them
+   */
+  boolean pushEvents(List<LogEvent> events) throws IOException
+  {
+    return pushEvents(events, Long.MAX_VALUE);
+  }
+
+  /**
+   * Pushes log events like {@link #pushEvents(List)}, but limits the time the caller pauses between the attempts.
+   * Once the limit is used up the remaining attempts are made right away.
+   *
+   * @param events the events to push
+   * @param maxPause the maximum time in milliseconds the caller pauses between the attempts in total
+   * @return true if the events were sent, false if they were buffered because the indexer is not available
+   * @throws CircuitOpenException if the circuit is open and the events were dropped
+   * @throws IOException if the last attempt failed, the events were buffered unless the policy is to drop them
+   */
+  boolean pushEvents(List<LogEvent> events, long maxPause) throws IOException
+  {
+    return push(new Push()
+    {
+      @Override
+      public void to(LogstashIndexerDao indexer) throws IOException
+      {
+        indexer.pushEvents(events);
+      }
+
+      @Override
+      public EventBuffer encode(LogstashIndexerDao indexer)
+      {
+        EventBuffer buffer = EventBuffer.acquire();
+        for (LogEvent event : events)
+        {
+          event.encode(indexer, buffer);
+        }
+        return buffer;
+      }
+
+      @Override
+      public void release(EventBuffer buffer)
+      {
+        buffer.release();
+      }
+    }, maxPause);
+  }
+
+  private boolean push(Push push) throws IOException
+  {
+    return push(push, Long.MAX_VALUE);
+  }
+
+  private boolean push(Push push, long maxPause) throws IOException
+  {
+    LogstashIndexerDao indexer = dao.get();
+    if (indexer == null)
+    {
+      return true;
+    }
+    if (!healthy && bufferIfPending(indexer, push))
+    {
+      return false;
+    }
+    long pauseLeft = maxPause;
+    for (int attempt = 1; ; attempt++)
+    {
+      if (!healthy && !allowRequest())
+      {
+        if (policy != OutagePolicy.DROP)
+        {
+          buffer(indexer, push);
+          return false;
+        }
+        throw new CircuitOpenException(indexer.getDescription());
+      }
+      try
+      {
+        push.to(indexer);
+        if (!healthy)
+        {
+          recordSuccess();
+        }
+        return true;
+      }
+      catch (IOException | RuntimeException e)
+      {
+        if (e instanceof RejectedEventsException)
+        {
+          // the other events were indexed
+          push = new EncodedPush(encode((RejectedEventsException) e));
+        }
+        long pause = Math.min(jitter(RETRY_DELAY << (attempt - 1)), pauseLeft);
+        pauseLeft -= pause;
+        if (recordFailure() || attempt >= MAX_ATTEMPTS || !pause(pause))
+        {
+          if (policy != OutagePolicy.DROP)
+          {
+            buffer(indexer, push);
+          }
+          throw e;
+        }
+        LOGGER.log(Level.FINE, "Failed to send log data to " + indexer.getDescription() + ", retrying", e);
+      }
+    }
+  }
+
+  private boolean allowRequest()
+  {
+    lock.lock();
+    try
+    {
+      switch (state)
+      {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (System.currentTimeMillis() >= openUntil)
+          {
+            state = State.HALF_OPEN;
+            return true;
+          }
+          return false;
+        default:
+          // a trial is in progress
+          return false;
+      }
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void recordSuccess()
+  {
+    lock.lock();
+    try
+    {
+      if (state != State.CLOSED)
+      {
+        LOGGER.log(Level.INFO, getDescription() + " is available again");
+      }
+      state = State.CLOSED;
+      failures = 0;
+      openDelay = OPEN_DELAY;
+      openUntil = 0;
+      if (getPendingBuffer() != null)
+      {
+        scheduleReplay(0);
+      }
+      updateHealth();
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if the circuit is open
+   */
+  private boolean recordFailure()
+  {
+    lock.lock();
+    try
+    {
+      failures++;
+      if (state == State.HALF_OPEN)
+      {
+        openDelay = Math.min(openDelay * 2, MAX_OPEN_DELAY);
+        open();
+      }
+      else if (state == State.CLOSED && failures >= FAILURE_THRESHOLD)
+      {
+        outages++;
+        LOGGER.log(Level.WARNING, getDescription() + " is not available, pausing sending for " + openDelay + " ms");
+        open();
+      }
+      updateHealth();
+      return state != State.CLOSED;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void open()
+  {
+    long delay = jitter(openDelay);
+    state = State.OPEN;
+    openUntil = System.currentTimeMillis() + delay;
+    if (getPendingBuffer() != null)
+    {
+      scheduleReplay(delay);
+    }
+  }
+
+  /**
+   * @return the buffer with the oldest events that were not sent yet, null if all were sent
+   */
+  private OutageBuffer getPendingBuffer()
+  {
+    if (!memory.isEmpty())
+    {
+      return memory;
+    }
+    if (spill != null && !spill.isEmpty())
+    {
+      return spill;
+    }
+    return null;
+  }
+
+  /**
+   * Buffers the events if older events are still waiting to be sent.
+   */
+  private boolean bufferIfPending(LogstashIndexerDao indexer, Push push)
+  {
+    lock.lock();
+    try
+    {
+      if (policy != OutagePolicy.DROP && getPendingBuffer() != null)
+      {
+        buffer(indexer, push);
+        return true;
+      }
+      return false;
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void buffer(LogstashIndexerDao indexer, Push push)
+  {
+    EventBuffer events = push.encode(indexer);
+    try
+    {
+      buffer(events);
+    }
+    finally
+    {
+      push.release(events);
+    }
+  }
+
+  private void buffer(EventBuffer events)
+  {
+    lock.lock();
+    try
+    {
+      OutageBuffer buffer = policy == OutagePolicy.SPILL && spill != null ? spill : memory;
+      int dropped = buffer.add(events);
+      if (dropped > 0 && droppedEvents == 0)
+      {
+        LOGGER.log(Level.WARNING, "Outage buffer for " + getDescription() + " is full, dropping log lines");
+      }
+      droppedEvents += dropped;
+      updateHealth();
+      scheduleReplay(Math.max(openUntil - System.currentTimeMillis(), RETRY_DELAY));
+    }
+    finally
+    {
+      lock.unlock();
+    }
+  }
+
+  private void updateHealth()
+  {
+    healthy = state == State.CLOSED && failures == 0 && getPendingBuffer() == null;
+  }
+
+  private void scheduleReplay(long delay)
+  {
+    if (!replayScheduled)
+    {
+      replayScheduled = true;
+      Timer.get().schedule(this::replay, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Sends the buffered events, oldest first.
+   */
+  private void replay()
+  {
+    LogstashIndexerDao indexer = dao.get();
+    EventBuffer events = EventBuffer.acquire();
+    try
+    {
+      while (true)
+      {
+        OutageBuffer buffer;
+        long position;
+        lock.lock();
+        try
+        {
+          buffer = getPendingBuffer();
+          if (indexer == null || buffer == null)
+          {
+            replayScheduled = false;
+            droppedEvents = 0;
+            updateHealth();
+            return;
+          }
+          if (!allowRequest())
+          {
+            // either still open or a trial of another thread is running, which schedules the replay when it is done
+            replayScheduled = false;
+            if (state == State.OPEN)
+            {
+              scheduleReplay(Math.max(openUntil - System.currentTimeMillis(), RETRY_DELAY));
+            }
+            return;
+          }
+          events.reset();
+          position = buffer.peek(events, REPLAY_BATCH);
+        }
+        finally
+        {
+          lock.unlock();
+        }
+        try
+        {
+          indexer.push(events);
+        }
+        catch (IOException | RuntimeException e)
+        {
+          LOGGER.log(Level.FINE, "Failed to send buffered log data to " + indexer.getDescription(), e);
+          lock.lock();
+          try
+          {
+            if (e instanceof RejectedEventsException)
+            {
+              // only the rejected events stay buffered, they are sent after the remaining ones
+              buffer.remove(position);
+              droppedEvents += buffer.add(encode((RejectedEventsException) e));
+            }
+            replayScheduled = false;
+            recordFailure();
+            scheduleReplay(Math.max(openUntil - System.currentTimeMillis(), RETRY_DELAY));
+          }
+          finally
+          {
+            lock.unlock();
+          }
+          return;
+        }
+        lock.lock();
+        try
+        {
+          buffer.remove(position);
+          recordSuccess();
+        }
+        finally
+        {
+          lock.unlock();
+        }
+      }
+    }
+    finally
+    {
+      events.release();
+    }
+  }
+
+  private static EventBuffer encode(RejectedEventsException e)
+  {
+    EventBuffer events = new EventBuffer();
+    for (String event : e.getEvents())
+    {
+      events.writeEvent(event);
+    }
+    return events;
+  }
+
+  private String getDescription()
+  {
+    LogstashIndexerDao indexer = dao.get();
+    return indexer != null ? indexer.getDescription() : "indexer";
+  }
+
+  /**
+   * @return a random delay between half and all of the given delay
+   */
+  private static long jitter(long delay)
+  {
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+  }
+
+  /**
+   * @return false if the thread was interrupted
+   */
+  private static boolean pause(long millis)
+  {
+    try
+    {
+      Thread.sleep(millis);
+      return true;
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * One push of events, either already encoded or encoded by the indexer.
+   */
+  private interface Push
+  {
+    void to(LogstashIndexerDao indexer) throws IOException;
+
+    /**
+     * @return the encoded events, to buffer them while the indexer is not available
+     */
+    EventBuffer encode(LogstashIndexerDao indexer);
+
+    /**
+     * Called once the events returned by {@link #encode(LogstashIndexerDao)} were buffered.
+     */
+    default void release(EventBuffer events)
+    {
+    }
+  }
+
+  /**
+   * A push of events that are already encoded.
+   */
+  private static final class EncodedPush implements Push
+  {
+    private final EventBuffer events;
+
+    EncodedPush(EventBuffer events)
+    {
+      this.events = events;
+    }
+
+    @Override
+    public void to(LogstashIndexerDao indexer) throws IOException
+    {
+      indexer.push(events);
+    }
+
+    @Override
+    public EventBuffer encode(LogstashIndexerDao indexer)
+    {
+      return events;
+    }
+  }
+
+  /**
+   * Signals that events were not pushed because the circuit is open.
+   */
+  static final class CircuitOpenException extends IOException
+  {
+    private static final long serialVersionUID = 1L;
+
+    CircuitOpenException(String description)
+    {
+      super(description + " is not available");
+    }
+  }
+}
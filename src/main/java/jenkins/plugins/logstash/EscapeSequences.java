@@ -0,0 +1,147 @@
+package jenkins.plugins.logstash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Removes console notes and ANSI escape sequences from the bytes of a log line in one pass.
+ *
+ * A console note starts with the same escape character as an ANSI sequence, so lines without
+ * the escape character need no work at all. The bytes are scanned before they are decoded,
+ * which is only correct for charsets where the escape character is a single byte that does not
+ * occur inside other characters, see {@link LogTail#isAsciiCompatible(java.nio.charset.Charset)}.
+ */
+final class EscapeSequences
+{
+  static final byte ESC = 0x1B;
+  private static final byte BEL = 0x07;
+  // see hudson.console.ConsoleNote
+  private static final byte[] PREAMBLE = "\u001B[8mha:".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] POSTAMBLE = "\u001B[0m".getBytes(StandardCharsets.US_ASCII);
+
+  private EscapeSequences()
+  {
+  }
+
+  /**
+   * @return true if the line contains an escape character
+   */
+  static boolean contains(byte[] line, int length)
+  {
+    for (int i = 0; i < length; i++)
+    {
+      if (line[i] == ESC)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Copies a line without console notes and ANSI escape sequences.
+   *
+   * @param line the bytes of the line
+   * @param length the number of bytes of the line
+   * @param target the array to copy to, at least as long as the line
+   * @return the number of bytes copied
+   */
+  static int strip(byte[] line, int length, byte[] target)
+  {
+    int size = 0;
+    int i = 0;
+    while (i < length)
+    {
+      byte b = line[i];
+      if (b != ESC)
+      {
+        target[size++] = b;
+        i++;
+        continue;
+      }
+      if (startsWith(line, length, i, PREAMBLE))
+      {
+        int end = indexOf(line, length, i + PREAMBLE.length, POSTAMBLE);
+        if (end >= 0)
+        {
+          i = end + POSTAMBLE.length;
+          continue;
+        }
+      }
+      i = skipSequence(line, length, i);
+    }
+    return size;
+  }
+
+  /**
+   * @return the index after the escape sequence that starts at the given index
+   */
+  private static int skipSequence(byte[] line, int length, int start)
+  {
+    if (start + 1 >= length)
+    {
+      return length;
+    }
+    byte type = line[start + 1];
+    if (type == '[')
+    {
+      // control sequence: parameter and intermediate bytes, then one final byte
+      int i = start + 2;
+      while (i < length && line[i] >= 0x20 && line[i] <= 0x3F)
+      {
+        i++;
+      }
+      return i < length && line[i] >= 0x40 && line[i] <= 0x7E ? i + 1 : i;
+    }
+    if (type == ']')
+    {
+      // operating system command: ends with BEL or ESC \
+      for (int i = start + 2; i < length; i++)
+      {
+        if (line[i] == BEL)
+        {
+          return i + 1;
+        }
+        if (line[i] == ESC && i + 1 < length && line[i + 1] == '\\')
+        {
+          return i + 2;
+        }
+      }
+      return length;
+    }
+    if (type >= 0x30 && type <= 0x7E)
+    {
+      // two byte sequence, e.g. to save or restore the cursor
+      return start + 2;
+    }
+    // a single escape character
+    return start + 1;
+  }
+
+  private static boolean startsWith(byte[] line, int length, int start, byte[] prefix)
+  {
+    if (start + prefix.length > length)
+    {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++)
+    {
+      if (line[start + i] != prefix[i])
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(byte[] line, int length, int start, byte[] pattern)
+  {
+    for (int i = start; i + pattern.length <= length; i++)
+    {
+      if (line[i] == pattern[0] && startsWith(line, length, i, pattern))
+      {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
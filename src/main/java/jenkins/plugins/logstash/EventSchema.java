@@ -0,0 +1,30 @@
+package jenkins.plugins.logstash;
+
+/**
+ * Defines how the data of a build is sent together with its log lines.
+ */
+public enum EventSchema
+{
+  /**
+   * Every event carries the complete data of the build.
+   */
+  FULL("Build data in every event"),
+
+  /**
+   * The data of the build is sent in a header event when the build starts and when it is finished.
+   * Events with log lines only carry the id of the build, a sequence number, the time stamp and the lines.
+   */
+  HEADER("Build data in header events");
+
+  private final String displayName;
+
+  private EventSchema(String displayName)
+  {
+    this.displayName = displayName;
+  }
+
+  public String getDisplayName()
+  {
+    return displayName;
+  }
+}
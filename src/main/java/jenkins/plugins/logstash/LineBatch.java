@@ -0,0 +1,107 @@
+package jenkins.plugins.logstash;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the lines of a build until a batch is complete.
+ * A batch is complete when it reaches the maximum number of lines or bytes,
+ * or when its first line is older than the maximum delay.
+ *
+ * This class is not thread-safe, callers have to synchronize on the instance.
+ */
+final class LineBatch
+{
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final int maxLines;
+  private final int maxBytes;
+  private final long maxDelay;
+
+  private List<String> lines;
+  private int bytes;
+  private long firstLineTime;
+
+  /**
+   * @param maxLines maximum number of lines in a batch
+   * @param maxBytes maximum size of a batch in bytes, an estimate based on the length of the lines
+   * @param maxDelay maximum time in milliseconds a line waits in the batch
+   */
+  LineBatch(int maxLines, int maxBytes, long maxDelay)
+  {
+    this.maxLines = maxLines;
+    this.maxBytes = maxBytes;
+    this.maxDelay = maxDelay;
+    this.lines = new ArrayList<>(Math.min(maxLines, INITIAL_CAPACITY));
+  }
+
+  long getMaxDelay()
+  {
+    return maxDelay;
+  }
+
+  /**
+   * Returns the time the first line of the batch was added. After a batch was taken,
+   * this is the time of the batch that was taken until the next line is added.
+   *
+   * @return the time in milliseconds
+   */
+  long getFirstLineTime()
+  {
+    return firstLineTime;
+  }
+
+  /**
+   * Adds a line to the batch.
+   *
+   * @param line the line to add
+   * @param now the current time in milliseconds
+   * @return the completed batch or null if the batch is not yet complete
+   */
+  List<String> add(String line, long now)
+  {
+    if (lines.isEmpty())
+    {
+      firstLineTime = now;
+    }
+    lines.add(line);
+    bytes += line.length();
+    if (lines.size() >= maxLines || bytes >= maxBytes || now - firstLineTime >= maxDelay)
+    {
+      return take();
+    }
+    return null;
+  }
+
+  /**
+   * Takes the batch if its first line waited for the maximum delay.
+   *
+   * @param now the current time in milliseconds
+   * @return the expired batch or null
+   */
+  List<String> takeIfExpired(long now)
+  {
+    if (!lines.isEmpty() && now - firstLineTime >= maxDelay)
+    {
+      return take();
+    }
+    return null;
+  }
+
+  /**
+   * Takes the batch regardless whether it is complete.
+   *
+   * @return the lines collected so far or null if there are none
+   */
+  List<String> take()
+  {
+    if (lines.isEmpty())
+    {
+      return null;
+    }
+    List<String> batch = lines;
+    lines = new ArrayList<>(Math.min(maxLines, INITIAL_CAPACITY));
+    bytes = 0;
+    return batch;
+  }
+}
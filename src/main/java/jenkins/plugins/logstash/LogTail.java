@@ -0,0 +1,118 @@
+package jenkins.plugins.logstash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+import hudson.console.ConsoleNote;
+
+/**
+ * Reads the last lines of a build log without reading the whole file.
+ *
+ * The file is scanned backwards in blocks until enough line breaks were found, then only the
+ * bytes of the last lines are decoded. Splitting the bytes at line breaks is only safe when the
+ * line break is a single byte that never occurs inside another character, which is true for UTF-8
+ * and the other ASCII compatible charsets. For other charsets and for compressed logs
+ * {@link #read(File, Charset, int)} returns null and the log has to be read from the beginning.
+ */
+final class LogTail
+{
+  private static final int BLOCK_SIZE = 8192;
+  private static final byte[] NEWLINE = {'\n'};
+
+  private LogTail()
+  {
+  }
+
+  /**
+   * Reads the last lines of a log file, with console notes removed.
+   * Like {@link hudson.model.Run#getLog(int)}, the first line is replaced by a note
+   * if the log has more lines.
+   *
+   * @param file the log file
+   * @param charset the charset of the log
+   * @param maxLines the maximum number of lines
+   * @return the last lines or null if the file can't be read backwards
+   * @throws IOException if the file can't be read
+   */
+  @CheckForNull
+  static List<String> read(File file, Charset charset, int maxLines) throws IOException
+  {
+    if (file == null || charset == null || !file.isFile() || file.getName().endsWith(".gz") || !isAsciiCompatible(charset))
+    {
+      return null;
+    }
+    List<String> lines = new ArrayList<>();
+    if (maxLines <= 0)
+    {
+      return lines;
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+    {
+      long end = raf.length();
+      long start = findStart(raf, end, maxLines);
+      if (end - start > Integer.MAX_VALUE - 8)
+      {
+        return null;
+      }
+      byte[] bytes = new byte[(int) (end - start)];
+      raf.seek(start);
+      raf.readFully(bytes);
+      String text = new String(bytes, charset);
+      int from = 0;
+      while (from < text.length())
+      {
+        int to = text.indexOf('\n', from);
+        if (to < 0)
+        {
+          to = text.length();
+        }
+        int lineEnd = to > from && text.charAt(to - 1) == '\r' ? to - 1 : to;
+        lines.add(ConsoleNote.removeNotes(text.substring(from, lineEnd)));
+        from = to + 1;
+      }
+      if (start > 0 && !lines.isEmpty())
+      {
+        lines.set(0, "[...truncated " + start + " bytes...]");
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * @return the position of the first byte of the last lines
+   */
+  private static long findStart(RandomAccessFile raf, long end, int maxLines) throws IOException
+  {
+    byte[] block = new byte[BLOCK_SIZE];
+    long position = end;
+    int newlines = 0;
+    while (position > 0)
+    {
+      int length = (int) Math.min(BLOCK_SIZE, position);
+      position -= length;
+      raf.seek(position);
+      raf.readFully(block, 0, length);
+      for (int i = length - 1; i >= 0; i--)
+      {
+        // the line break that ends the last line does not start another line
+        if (block[i] == '\n' && position + i != end - 1 && ++newlines == maxLines)
+        {
+          return position + i + 1;
+        }
+      }
+    }
+    return 0;
+  }
+
+  static boolean isAsciiCompatible(Charset charset)
+  {
+    return charset.canEncode() && Arrays.equals(NEWLINE, "\n".getBytes(charset));
+  }
+}
@@ -6,9 +6,12 @@ import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.annotation.CheckForNull;
 
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import com.cloudbees.syslog.MessageFormat;
@@ -18,6 +21,7 @@ import org.apache.http.client.utils.URIBuilder;
 import hudson.Extension;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
+import hudson.util.FormValidation;
 import jenkins.model.GlobalConfiguration;
 import jenkins.plugins.logstash.LogstashInstallation.Descriptor;
 import jenkins.plugins.logstash.configuration.ElasticSearch;
@@ -28,6 +32,7 @@ import jenkins.plugins.logstash.configuration.Syslog;
 import jenkins.plugins.logstash.configuration.Logzio;
 import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
 import jenkins.plugins.logstash.persistence.LogstashIndexerDao.IndexerType;
+import jenkins.plugins.logstash.persistence.Timestamps;
 import net.sf.json.JSONObject;
 
 @Extension
@@ -36,12 +41,40 @@ public class LogstashConfiguration extends GlobalConfiguration
   private static final Logger LOGGER = Logger.getLogger(LogstashConfiguration.class.getName());
   private static final FastDateFormat MILLIS_FORMATTER = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
   private static final FastDateFormat LEGACY_FORMATTER = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ssZ");
+  static final int DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;
+  static final long DEFAULT_BATCH_MAX_DELAY = 1000;
 
   private LogstashIndexer<?> logstashIndexer;
   private Boolean enabled;
   private boolean dataMigrated = false;
   private boolean enableGlobally = false;
   private boolean milliSecondTimestamps = true;
+  private boolean asynchronous = false;
+  private int queueCapacity = LogstashDispatcher.DEFAULT_QUEUE_CAPACITY;
+  private int senderThreads = LogstashDispatcher.DEFAULT_SENDER_THREADS;
+  private boolean concurrentPushes = false;
+  private int batchMaxLines = 1;
+  private int batchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+  private long batchMaxDelay = DEFAULT_BATCH_MAX_DELAY;
+  private int drainTimeout = LogstashRunListener.DEFAULT_DRAIN_TIMEOUT;
+  private OutagePolicy outagePolicy = OutagePolicy.DROP;
+  private int outageBufferSize = CircuitBreaker.DEFAULT_BUFFER_CAPACITY;
+  private int spillMaxSize = SpillQueue.DEFAULT_MAX_SIZE;
+  private int spillMaxAge = SpillQueue.DEFAULT_MAX_AGE;
+  private int rateLimitEvents;
+  private int rateLimitBytes;
+  private int buildRateLimitEvents;
+  private int buildRateLimitBytes;
+  private boolean multiline = false;
+  private boolean multilineIndented = true;
+  private boolean multilineStackTraces = true;
+  private String multilinePattern;
+  private int multilineMaxLines = MultilineAggregator.DEFAULT_MAX_LINES;
+  private int multilineMaxBytes = MultilineAggregator.DEFAULT_MAX_BYTES;
+  private long multilineTimeout = MultilineAggregator.DEFAULT_TIMEOUT;
+  private boolean sendFromAgents = false;
+  private EventSchema eventSchema = EventSchema.FULL;
+  private transient Pattern compiledMultilinePattern;
   private transient LogstashIndexer<?> activeIndexer;
 
   public LogstashConfiguration()
@@ -89,6 +122,414 @@ public class LogstashConfiguration extends GlobalConfiguration
   public void setMilliSecondTimestamps(boolean milliSecondTimestamps)
   {
     this.milliSecondTimestamps = milliSecondTimestamps;
+    Timestamps.reset();
+  }
+
+  /**
+   * Returns whether log lines are sent to the indexer on dedicated sender threads
+   * instead of the thread of the build.
+   *
+   * @return true if lines are sent asynchronously
+   */
+  public boolean isAsynchronous()
+  {
+    return asynchronous;
+  }
+
+  public void setAsynchronous(boolean asynchronous)
+  {
+    this.asynchronous = asynchronous;
+  }
+
+  public int getQueueCapacity()
+  {
+    return queueCapacity;
+  }
+
+  public void setQueueCapacity(int queueCapacity)
+  {
+    this.queueCapacity = queueCapacity;
+  }
+
+  public int getSenderThreads()
+  {
+    return senderThreads;
+  }
+
+  public void setSenderThreads(int senderThreads)
+  {
+    this.senderThreads = senderThreads;
+  }
+
+  /**
+   * Returns whether the pushes to the indexer run concurrently on virtual threads, or on a bounded
+   * thread pool if the JVM has no virtual threads, instead of on the sender threads.
+   *
+   * @return true if pushes are made concurrently
+   */
+  public boolean isConcurrentPushes()
+  {
+    return concurrentPushes;
+  }
+
+  public void setConcurrentPushes(boolean concurrentPushes)
+  {
+    this.concurrentPushes = concurrentPushes;
+  }
+
+  /**
+   * Returns the maximum number of lines that are sent together in one payload.
+   * A value of 1 or less disables batching.
+   *
+   * @return maximum number of lines per batch
+   */
+  public int getBatchMaxLines()
+  {
+    return batchMaxLines;
+  }
+
+  public void setBatchMaxLines(int batchMaxLines)
+  {
+    this.batchMaxLines = batchMaxLines;
+  }
+
+  public int getBatchMaxBytes()
+  {
+    return batchMaxBytes;
+  }
+
+  public void setBatchMaxBytes(int batchMaxBytes)
+  {
+    this.batchMaxBytes = batchMaxBytes;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds a line waits in a batch before the batch is sent.
+   *
+   * @return maximum delay in milliseconds
+   */
+  public long getBatchMaxDelay()
+  {
+    return batchMaxDelay;
+  }
+
+  public void setBatchMaxDelay(long batchMaxDelay)
+  {
+    this.batchMaxDelay = batchMaxDelay;
+  }
+
+  /**
+   * Returns how long a finished build waits for its queued log lines to be sent.
+   *
+   * @return timeout in seconds
+   */
+  public int getDrainTimeout()
+  {
+    return drainTimeout;
+  }
+
+  public void setDrainTimeout(int drainTimeout)
+  {
+    this.drainTimeout = drainTimeout;
+  }
+
+  /**
+   * Returns what happens to log lines while the indexer is unavailable.
+   *
+   * @return the outage policy
+   */
+  public OutagePolicy getOutagePolicy()
+  {
+    return outagePolicy != null ? outagePolicy : OutagePolicy.DROP;
+  }
+
+  public void setOutagePolicy(OutagePolicy outagePolicy)
+  {
+    this.outagePolicy = outagePolicy;
+  }
+
+  /**
+   * Returns the maximum number of log events that are buffered per indexer while it is unavailable.
+   *
+   * @return maximum number of buffered events
+   */
+  public int getOutageBufferSize()
+  {
+    return outageBufferSize;
+  }
+
+  public void setOutageBufferSize(int outageBufferSize)
+  {
+    this.outageBufferSize = outageBufferSize;
+  }
+
+  /**
+   * Returns the maximum size of the spill queue of an indexer on disk.
+   *
+   * @return maximum size in MiB
+   */
+  public int getSpillMaxSize()
+  {
+    return spillMaxSize;
+  }
+
+  public void setSpillMaxSize(int spillMaxSize)
+  {
+    this.spillMaxSize = spillMaxSize;
+  }
+
+  /**
+   * Returns how long spilled log events are kept before they are dropped.
+   *
+   * @return maximum age in hours
+   */
+  public int getSpillMaxAge()
+  {
+    return spillMaxAge;
+  }
+
+  public void setSpillMaxAge(int spillMaxAge)
+  {
+    this.spillMaxAge = spillMaxAge;
+  }
+
+  /**
+   * Returns the maximum number of log lines per second that all builds together send.
+   *
+   * @return maximum lines per second, not limited if not positive
+   */
+  public int getRateLimitEvents()
+  {
+    return rateLimitEvents;
+  }
+
+  public void setRateLimitEvents(int rateLimitEvents)
+  {
+    this.rateLimitEvents = rateLimitEvents;
+  }
+
+  /**
+   * Returns the maximum number of bytes of log lines per second that all builds together send.
+   *
+   * @return maximum bytes per second, not limited if not positive
+   */
+  public int getRateLimitBytes()
+  {
+    return rateLimitBytes;
+  }
+
+  public void setRateLimitBytes(int rateLimitBytes)
+  {
+    this.rateLimitBytes = rateLimitBytes;
+  }
+
+  /**
+   * Returns the maximum number of log lines per second that a single build sends.
+   *
+   * @return maximum lines per second, not limited if not positive
+   */
+  public int getBuildRateLimitEvents()
+  {
+    return buildRateLimitEvents;
+  }
+
+  public void setBuildRateLimitEvents(int buildRateLimitEvents)
+  {
+    this.buildRateLimitEvents = buildRateLimitEvents;
+  }
+
+  /**
+   * Returns the maximum number of bytes of log lines per second that a single build sends.
+   *
+   * @return maximum bytes per second, not limited if not positive
+   */
+  public int getBuildRateLimitBytes()
+  {
+    return buildRateLimitBytes;
+  }
+
+  public void setBuildRateLimitBytes(int buildRateLimitBytes)
+  {
+    this.buildRateLimitBytes = buildRateLimitBytes;
+  }
+
+  /**
+   * Returns whether continuation lines, like the frames of a stack trace, are merged into the event of the preceding line.
+   *
+   * @return true if multi-line events are aggregated
+   */
+  public boolean isMultiline()
+  {
+    return multiline;
+  }
+
+  public void setMultiline(boolean multiline)
+  {
+    this.multiline = multiline;
+  }
+
+  /**
+   * Returns whether lines that start with whitespace are continuation lines.
+   *
+   * @return true if indented lines are merged into the preceding event
+   */
+  public boolean isMultilineIndented()
+  {
+    return multilineIndented;
+  }
+
+  public void setMultilineIndented(boolean multilineIndented)
+  {
+    this.multilineIndented = multilineIndented;
+  }
+
+  /**
+   * Returns whether the lines of Java stack traces, starting with {@code at }, {@code Caused by: },
+   * {@code Suppressed: } or {@code ... n more}, are continuation lines.
+   *
+   * @return true if stack traces are merged into the preceding event
+   */
+  public boolean isMultilineStackTraces()
+  {
+    return multilineStackTraces;
+  }
+
+  public void setMultilineStackTraces(boolean multilineStackTraces)
+  {
+    this.multilineStackTraces = multilineStackTraces;
+  }
+
+  /**
+   * Returns a regular expression for further continuation lines.
+   *
+   * @return the regular expression, may be empty
+   */
+  public String getMultilinePattern()
+  {
+    return multilinePattern;
+  }
+
+  public void setMultilinePattern(String multilinePattern)
+  {
+    this.multilinePattern = multilinePattern;
+    this.compiledMultilinePattern = null;
+  }
+
+  /**
+   * Returns the compiled regular expression for further continuation lines.
+   *
+   * @return the pattern or null if no or an invalid regular expression is configured
+   */
+  @CheckForNull
+  Pattern getCompiledMultilinePattern()
+  {
+    if (compiledMultilinePattern == null && multilinePattern != null && !multilinePattern.isEmpty())
+    {
+      try
+      {
+        compiledMultilinePattern = Pattern.compile(multilinePattern);
+      }
+      catch (PatternSyntaxException e)
+      {
+        LOGGER.log(Level.WARNING, "Invalid pattern for continuation lines: " + multilinePattern, e);
+      }
+    }
+    return compiledMultilinePattern;
+  }
+
+  public FormValidation doCheckMultilinePattern(@QueryParameter("value") String value)
+  {
+    if (value == null || value.isEmpty())
+    {
+      return FormValidation.ok();
+    }
+    try
+    {
+      Pattern.compile(value);
+      return FormValidation.ok();
+    }
+    catch (PatternSyntaxException e)
+    {
+      return FormValidation.error(e.getDescription());
+    }
+  }
+
+  /**
+   * Returns the maximum number of lines that are merged into one event.
+   *
+   * @return maximum number of lines per event
+   */
+  public int getMultilineMaxLines()
+  {
+    return multilineMaxLines;
+  }
+
+  public void setMultilineMaxLines(int multilineMaxLines)
+  {
+    this.multilineMaxLines = multilineMaxLines;
+  }
+
+  /**
+   * Returns the maximum size in bytes of an event that is merged from multiple lines,
+   * estimated from the length of the lines.
+   *
+   * @return maximum bytes per event
+   */
+  public int getMultilineMaxBytes()
+  {
+    return multilineMaxBytes;
+  }
+
+  public void setMultilineMaxBytes(int multilineMaxBytes)
+  {
+    this.multilineMaxBytes = multilineMaxBytes;
+  }
+
+  /**
+   * Returns the time in milliseconds after which an event is sent when no continuation line follows.
+   *
+   * @return timeout in milliseconds
+   */
+  public long getMultilineTimeout()
+  {
+    return multilineTimeout;
+  }
+
+  public void setMultilineTimeout(long multilineTimeout)
+  {
+    this.multilineTimeout = multilineTimeout;
+  }
+
+  /**
+   * Returns whether the console output of Pipeline steps that run on an agent is sent to the indexer
+   * directly from the agent instead of from the controller. The configuration of the indexer, including
+   * its credentials, is then copied to these agents, see {@link AgentSnapshot}.
+   *
+   * @return true if lines are sent from the agents
+   */
+  public boolean isSendFromAgents()
+  {
+    return sendFromAgents;
+  }
+
+  public void setSendFromAgents(boolean sendFromAgents)
+  {
+    this.sendFromAgents = sendFromAgents;
+  }
+
+  /**
+   * Returns how the data of a build is sent together with its log lines.
+   *
+   * @return the event schema
+   */
+  public EventSchema getEventSchema()
+  {
+    return eventSchema != null ? eventSchema : EventSchema.FULL;
+  }
+
+  public void setEventSchema(EventSchema eventSchema)
+  {
+    this.eventSchema = eventSchema;
   }
 
   public FastDateFormat getDateFormatter()
@@ -225,6 +666,7 @@ public class LogstashConfiguration extends GlobalConfiguration
             break;
         }
         milliSecondTimestamps = false;
+        Timestamps.reset();
         activeIndexer = logstashIndexer;
       }
       dataMigrated = true;
@@ -256,9 +698,18 @@ public class LogstashConfiguration extends GlobalConfiguration
 
     if (!Objects.equals(logstashIndexer, activeIndexer))
     {
+      if (activeIndexer != null)
+      {
+        activeIndexer.close();
+      }
       activeIndexer = logstashIndexer;
     }
 
+    if (asynchronous)
+    {
+      LogstashDispatcher.reconfigure(senderThreads, queueCapacity, concurrentPushes);
+    }
+
     save();
     return true;
   }
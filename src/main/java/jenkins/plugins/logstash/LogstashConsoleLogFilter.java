@@ -6,12 +6,21 @@ import java.io.Serializable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.CheckForNull;
+
 import hudson.Extension;
 import hudson.console.ConsoleLogFilter;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.Node;
 import hudson.model.Run;
 
+/**
+ * Decorates the console output of builds, so every line is also sent to the indexer.
+ * When sending from agents is enabled, a filter that is created for a Pipeline step takes an {@link AgentSnapshot}
+ * of the build. Where the filter is used without the build, like on the agent that runs the step,
+ * the lines are sent with the snapshot, so they don't have to pass the controller.
+ */
 @Extension(ordinal = 1000)
 public class LogstashConsoleLogFilter extends ConsoleLogFilter implements Serializable
 {
@@ -19,17 +28,38 @@ public class LogstashConsoleLogFilter extends ConsoleLogFilter implements Serial
   private static Logger LOGGER = Logger.getLogger(LogstashConsoleLogFilter.class.getName());
 
   private transient Run<?, ?> run;
-  public LogstashConsoleLogFilter() {};
+  private final AgentSnapshot snapshot;
+  public LogstashConsoleLogFilter() {
+    this.snapshot = null;
+  };
 
   public LogstashConsoleLogFilter(Run<?, ?> run)
+  {
+    this(run, null);
+  }
+
+  /**
+   * @param run the build
+   * @param node the node that runs the step or null if it is not known
+   */
+  public LogstashConsoleLogFilter(Run<?, ?> run, @CheckForNull Node node)
   {
     this.run = run;
+    LogstashConfiguration configuration = LogstashConfiguration.getInstance();
+    this.snapshot = configuration.isEnabled() && configuration.isSendFromAgents()
+        ? new AgentSnapshot(run, configuration, node) : null;
   }
   private static final long serialVersionUID = 1L;
 
   @Override
   public OutputStream decorateLogger(Run build, OutputStream logger) throws IOException, InterruptedException
   {
+    if (build == null && run == null && snapshot != null)
+    {
+      // the filter was serialized, e.g. to the agent that runs a step, which has no configuration
+      LogstashWriter logstash = snapshot.createWriter(logger);
+      return new LogstashOutputStream(logger, logstash);
+    }
     LogstashConfiguration configuration = LogstashConfiguration.getInstance();
     if (!configuration.isEnabled())
     {
@@ -0,0 +1,482 @@
+package jenkins.plugins.logstash;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.plugins.logstash.persistence.LogEvent;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+
+/**
+ * Sends log lines to the indexer on dedicated sender threads, so that the thread of a build
+ * never has to wait for the indexer.
+ *
+ * Every writer has its own bounded {@link BuildQueue}. When that queue is full new lines are dropped
+ * instead of blocking the build. Queues that have events wait in one ring that is shared by all senders.
+ * A sender takes the next queues from the ring and at most {@link #QUANTUM} events from each of them,
+ * then puts the queues that still have events back at the end of the ring. So a build that writes a lot
+ * only delays its own events, all other builds get their turn in between.
+ * A queue is taken by only one sender at a time, which keeps the lines of a build in order.
+ * So each queue has many producers, e.g. the parallel branches of a pipeline, but only one consumer at a time.
+ * Producers add lines without taking a lock, batches of lines are only merged by the consumer.
+ *
+ * The events taken in one turn are pushed with one call to {@link LogstashIndexerDao#pushEvents(List)} per indexer,
+ * so indexers that support bulk requests can use them. Each indexer encodes the events once in its own format.
+ * With the {@link EventSchema#HEADER header schema} the header event of a build precedes its first events.
+ * The push goes through the {@link CircuitBreaker} of the indexer, so a sender does not keep waiting for an indexer that is down.
+ *
+ * When pushes are made concurrently, a sender hands the events of a turn to the {@link PushExecutor} and takes
+ * the next queues right away, so one slow indexer call does not hold up the other builds. The queues of a turn
+ * go back into the ring only when their push is done, so the lines of a build still stay in order.
+ */
+final class LogstashDispatcher
+{
+  private static final Logger LOGGER = Logger.getLogger(LogstashDispatcher.class.getName());
+
+  static final int DEFAULT_QUEUE_CAPACITY = 10000;
+  static final int DEFAULT_SENDER_THREADS = 2;
+  static final int MAX_EVENTS_PER_PUSH = 500;
+  static final int QUANTUM = 100;
+
+  // all live queues, for monitoring
+  private static final Set<BuildQueue> QUEUES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  private static volatile LogstashDispatcher instance;
+
+  private final int capacity;
+  private final boolean concurrentPushes;
+  private final Sender[] senders;
+  private final BlockingQueue<BuildQueue> ready = new LinkedBlockingQueue<>();
+  private volatile boolean retired;
+  private boolean alive = true;
+
+  private LogstashDispatcher(int senderThreads, int capacity, boolean concurrentPushes)
+  {
+    this.capacity = capacity;
+    this.concurrentPushes = concurrentPushes;
+    this.senders = new Sender[senderThreads];
+    for (int i = 0; i < senderThreads; i++)
+    {
+      senders[i] = new Sender(i);
+      senders[i].start();
+    }
+  }
+
+  /**
+   * Returns the dispatcher, creating it from the current configuration on first use.
+   *
+   * @return the dispatcher
+   */
+  static LogstashDispatcher getInstance()
+  {
+    LogstashDispatcher dispatcher = instance;
+    if (dispatcher == null)
+    {
+      LogstashConfiguration configuration = LogstashConfiguration.getInstance();
+      dispatcher = reconfigure(configuration.getSenderThreads(), configuration.getQueueCapacity(),
+          configuration.isConcurrentPushes());
+    }
+    return dispatcher;
+  }
+
+  /**
+   * Applies a new sender configuration. If it differs from the current one, a new set of senders is started
+   * and the old senders stop once they have no more queues to send.
+   *
+   * @param senderThreads number of sender threads, the default is used if not positive
+   * @param capacity capacity of the queue of each build, the default is used if not positive
+   * @param concurrentPushes whether the pushes run on the {@link PushExecutor} instead of the sender threads
+   * @return the dispatcher matching the configuration
+   */
+  static synchronized LogstashDispatcher reconfigure(int senderThreads, int capacity, boolean concurrentPushes)
+  {
+    senderThreads = senderThreads > 0 ? senderThreads : DEFAULT_SENDER_THREADS;
+    capacity = capacity > 0 ? capacity : DEFAULT_QUEUE_CAPACITY;
+    LogstashDispatcher current = instance;
+    if (current != null && current.senders.length == senderThreads && current.capacity == capacity
+        && current.concurrentPushes == concurrentPushes)
+    {
+      return current;
+    }
+    instance = new LogstashDispatcher(senderThreads, capacity, concurrentPushes);
+    if (current != null)
+    {
+      current.retired = true;
+    }
+    return instance;
+  }
+
+  /**
+   * Creates the queue of a writer.
+   *
+   * @param writer the writer
+   * @return a new queue with the configured capacity
+   */
+  static BuildQueue newQueue(LogstashWriter writer)
+  {
+    return newQueue(writer, 1, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates the queue of a writer that sends batches of lines.
+   * Lines that are waiting in the queue are merged into one event when they are sent.
+   *
+   * @param writer the writer
+   * @param batchMaxLines maximum number of lines that are merged into one event
+   * @param batchMaxBytes the lines are not merged with further lines when they reach this number of characters
+   * @return a new queue with the configured capacity
+   */
+  static BuildQueue newQueue(LogstashWriter writer, int batchMaxLines, int batchMaxBytes)
+  {
+    BuildQueue queue = new BuildQueue(writer, getInstance().capacity, batchMaxLines, batchMaxBytes);
+    QUEUES.add(queue);
+    return queue;
+  }
+
+  /**
+   * @return the queues of all writers that are still in use
+   */
+  static List<BuildQueue> getQueues()
+  {
+    synchronized (QUEUES)
+    {
+      return new ArrayList<>(QUEUES);
+    }
+  }
+
+  /**
+   * Queues lines for sending.
+   *
+   * @param queue the queue of the writer that sends the lines
+   * @param lines the lines to send
+   * @param time the time in milliseconds when the first line was written
+   * @return false if the lines were dropped because the queue is full
+   */
+  boolean dispatch(BuildQueue queue, List<String> lines, long time)
+  {
+    if (!queue.offer(new Lines(lines, time)))
+    {
+      return false;
+    }
+    if (queue.scheduled.compareAndSet(false, true))
+    {
+      schedule(queue);
+    }
+    return true;
+  }
+
+  /**
+   * Puts a queue at the end of the ring.
+   */
+  private void schedule(BuildQueue queue)
+  {
+    synchronized (this)
+    {
+      if (alive)
+      {
+        ready.add(queue);
+        return;
+      }
+    }
+    // this dispatcher was retired and its senders have stopped
+    getInstance().schedule(queue);
+  }
+
+  private synchronized boolean stopIfIdle()
+  {
+    if (ready.isEmpty())
+    {
+      alive = false;
+    }
+    return !alive;
+  }
+
+  /**
+   * The queue of one writer. The capacity is only checked when lines are added, so the queue
+   * may hold a few more events when several threads add lines at the same time.
+   */
+  static final class BuildQueue
+  {
+    private final LogstashWriter writer;
+    private final int capacity;
+    private final int batchMaxLines;
+    private final int batchMaxBytes;
+    private final Queue<Lines> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // true while the queue is in the ring or taken by a sender
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private BuildQueue(LogstashWriter writer, int capacity, int batchMaxLines, int batchMaxBytes)
+    {
+      this.writer = writer;
+      this.capacity = capacity;
+      this.batchMaxLines = batchMaxLines;
+      this.batchMaxBytes = batchMaxBytes;
+    }
+
+    LogstashWriter getWriter()
+    {
+      return writer;
+    }
+
+    /**
+     * @return the number of events waiting to be sent
+     */
+    int size()
+    {
+      return size.get();
+    }
+
+    /**
+     * @return true if the queue is empty and no sender is pushing events taken from it
+     */
+    boolean isIdle()
+    {
+      return size.get() == 0 && !scheduled.get();
+    }
+
+    private boolean offer(Lines lines)
+    {
+      if (size.get() >= capacity)
+      {
+        return false;
+      }
+      events.add(lines);
+      size.incrementAndGet();
+      return true;
+    }
+
+    private Lines poll()
+    {
+      Lines lines = events.poll();
+      if (lines != null)
+      {
+        size.decrementAndGet();
+      }
+      return lines;
+    }
+
+    /**
+     * Takes the next lines and merges the following lines into them, as long as they fit into a batch.
+     * Only called by the sender that has taken the queue, so the lines that were peeked are the ones that are polled.
+     */
+    private Lines take()
+    {
+      Lines first = poll();
+      if (first == null || batchMaxLines <= 1)
+      {
+        return first;
+      }
+      List<String> merged = null;
+      int count = first.lines.size();
+      int chars = length(first.lines);
+      Lines next;
+      while (chars < batchMaxBytes && (next = events.peek()) != null && count + next.lines.size() <= batchMaxLines)
+      {
+        poll();
+        if (merged == null)
+        {
+          merged = new ArrayList<>(first.lines);
+        }
+        merged.addAll(next.lines);
+        count += next.lines.size();
+        chars += length(next.lines);
+      }
+      return merged == null ? first : new Lines(merged, first.time);
+    }
+
+    private static int length(List<String> lines)
+    {
+      int length = 0;
+      for (String line : lines)
+      {
+        length += line.length();
+      }
+      return length;
+    }
+  }
+
+  /**
+   * Lines that are sent as one event, with the time they were written.
+   */
+  private static final class Lines
+  {
+    private final List<String> lines;
+    private final long time;
+
+    private Lines(List<String> lines, long time)
+    {
+      this.lines = lines;
+      this.time = time;
+    }
+  }
+
+  private final class Sender extends Thread
+  {
+    private Sender(int index)
+    {
+      super("Logstash sender #" + index);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run()
+    {
+      while (true)
+      {
+        BuildQueue queue;
+        try
+        {
+          queue = ready.poll(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+          LOGGER.log(Level.FINE, getName() + " was interrupted", e);
+          continue;
+        }
+        if (queue == null)
+        {
+          if (retired && stopIfIdle())
+          {
+            return;
+          }
+          continue;
+        }
+        List<BuildQueue> queues = new ArrayList<>();
+        queues.add(queue);
+        ready.drainTo(queues, MAX_EVENTS_PER_PUSH / QUANTUM - 1);
+        if (concurrentPushes)
+        {
+          try
+          {
+            PushExecutor.get().execute(() -> sendTurn(queues));
+            continue;
+          }
+          catch (RejectedExecutionException e)
+          {
+            LOGGER.log(Level.FINE, "Push executor rejected the events, sending them on " + getName(), e);
+          }
+        }
+        sendTurn(queues);
+      }
+    }
+  }
+
+  /**
+   * Sends one turn of the queues and puts the queues that still have events back into the ring.
+   */
+  private void sendTurn(List<BuildQueue> queues)
+  {
+    try
+    {
+      send(queues);
+    }
+    catch (RuntimeException e)
+    {
+      LOGGER.log(Level.WARNING, "Failed to send log data", e);
+    }
+    finally
+    {
+      for (BuildQueue q : queues)
+      {
+        requeue(q);
+      }
+    }
+  }
+
+  private void requeue(BuildQueue queue)
+  {
+    if (queue.size() > 0)
+    {
+      schedule(queue);
+      return;
+    }
+    queue.scheduled.set(false);
+    // lines that were added after the check would not be scheduled by their writer
+    if (queue.size() > 0 && queue.scheduled.compareAndSet(false, true))
+    {
+      schedule(queue);
+    }
+  }
+
+  /**
+   * Takes a quantum of events from each queue and pushes the events of each indexer with one call.
+   */
+  private void send(List<BuildQueue> queues)
+  {
+    Map<LogstashIndexerDao, List<BuildQueue>> queuesByDao = new LinkedHashMap<>();
+    for (BuildQueue queue : queues)
+    {
+      List<BuildQueue> daoQueues = queuesByDao.get(queue.writer.getDao());
+      if (daoQueues == null)
+      {
+        daoQueues = new ArrayList<>();
+        queuesByDao.put(queue.writer.getDao(), daoQueues);
+      }
+      daoQueues.add(queue);
+    }
+    for (Map.Entry<LogstashIndexerDao, List<BuildQueue>> entry : queuesByDao.entrySet())
+    {
+      List<LogEvent> events = new ArrayList<>();
+      Set<LogstashWriter> writers = new LinkedHashSet<>();
+      for (BuildQueue queue : entry.getValue())
+      {
+        for (int i = 0; i < QUANTUM; i++)
+        {
+          Lines lines = queue.take();
+          if (lines == null)
+          {
+            break;
+          }
+          if (!queue.writer.isConnectionBroken())
+          {
+            LogEvent header = queue.writer.takeHeader(lines.time);
+            if (header != null)
+            {
+              events.add(header);
+            }
+            events.add(queue.writer.toEvent(lines.lines, lines.time));
+            writers.add(queue.writer);
+          }
+        }
+      }
+      if (events.isEmpty())
+      {
+        continue;
+      }
+      try
+      {
+        if (!CircuitBreaker.of(entry.getKey()).pushEvents(events))
+        {
+          for (LogstashWriter writer : writers)
+          {
+            writer.sendBuffered();
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        for (LogstashWriter writer : writers)
+        {
+          writer.sendFailed(e);
+        }
+      }
+    }
+  }
+
+}
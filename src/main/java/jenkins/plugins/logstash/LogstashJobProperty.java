@@ -1,6 +1,7 @@
 package jenkins.plugins.logstash;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import hudson.Extension;
@@ -12,15 +13,51 @@ import net.sf.json.JSONObject;
 
 /**
  * This JobProperty is a marker to decide if logs should be sent to an indexer.
+ * It can also override the rate limit of each build of the job.
  *
  */
 public class LogstashJobProperty extends JobProperty<Job<?, ?>>
 {
 
+  private int rateLimitEvents;
+  private int rateLimitBytes;
+
   @DataBoundConstructor
   public LogstashJobProperty()
   {}
 
+  /**
+   * Returns the maximum number of log lines per second that a build of this job sends.
+   *
+   * @return maximum lines per second, the global setting is used if not positive
+   */
+  public int getRateLimitEvents()
+  {
+    return rateLimitEvents;
+  }
+
+  @DataBoundSetter
+  public void setRateLimitEvents(int rateLimitEvents)
+  {
+    this.rateLimitEvents = rateLimitEvents;
+  }
+
+  /**
+   * Returns the maximum number of bytes of log lines per second that a build of this job sends.
+   *
+   * @return maximum bytes per second, the global setting is used if not positive
+   */
+  public int getRateLimitBytes()
+  {
+    return rateLimitBytes;
+  }
+
+  @DataBoundSetter
+  public void setRateLimitBytes(int rateLimitBytes)
+  {
+    this.rateLimitBytes = rateLimitBytes;
+  }
+
   @Extension
   public static class DescriptorImpl extends JobPropertyDescriptor
   {
@@ -29,7 +66,7 @@ public class LogstashJobProperty extends JobProperty<Job<?, ?>>
     {
       if (formData.containsKey("enable"))
       {
-        return new LogstashJobProperty();
+        return req.bindJSON(LogstashJobProperty.class, formData.getJSONObject("enable"));
       }
       return null;
     }
@@ -46,6 +46,7 @@ import java.util.logging.Logger;
 import java.io.IOException;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.jenkinsci.Symbol;
 
@@ -61,6 +62,7 @@ public class LogstashNotifier extends Notifier implements SimpleBuildStep {
 
   private int maxLines;
   private boolean failBuild;
+  private int chunkSize = LogstashWriter.DEFAULT_CHUNK_SIZE;
 
   @DataBoundConstructor
   public LogstashNotifier(int maxLines, boolean failBuild) {
@@ -78,6 +80,22 @@ public class LogstashNotifier extends Notifier implements SimpleBuildStep {
     return failBuild;
   }
 
+  /**
+   * Returns the maximum number of lines that are sent in one payload.
+   *
+   * @return lines per payload
+   */
+  public int getChunkSize()
+  {
+    return chunkSize > 0 ? chunkSize : LogstashWriter.DEFAULT_CHUNK_SIZE;
+  }
+
+  @DataBoundSetter
+  public void setChunkSize(int chunkSize)
+  {
+    this.chunkSize = chunkSize;
+  }
+
   @Override
   public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
     return perform(build, listener);
@@ -99,10 +117,12 @@ public class LogstashNotifier extends Notifier implements SimpleBuildStep {
       return true;
     }
 
+    // the log is sent with the data at the end of the build
+    BuildDataCache.invalidate(run);
     PrintStream errorPrintStream = listener.getLogger();
     LogstashWriter logstash = getLogStashWriter(run, errorPrintStream, listener);
-    logstash.writeBuildLog(maxLines);
-    return !(failBuild && logstash.isConnectionBroken());
+    logstash.writeBuildLog(maxLines, getChunkSize());
+    return !(failBuild && logstash.isSendFailed());
   }
 
   // Method to encapsulate calls for unit-testing
@@ -147,5 +167,17 @@ public class LogstashNotifier extends Notifier implements SimpleBuildStep {
       return FormValidation.ok();
     }
 
+    public FormValidation doCheckChunkSize(@QueryParameter("value") String value) {
+      try {
+        if (Integer.parseInt(value) <= 0) {
+          return FormValidation.error(Messages.ValueIsPositiveInt());
+        }
+      } catch (NumberFormatException e) {
+        return FormValidation.error(Messages.ValueIsPositiveInt());
+      }
+
+      return FormValidation.ok();
+    }
+
   }
 }
@@ -29,22 +29,41 @@ import hudson.console.LineTransformationOutputStream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /**
  * Output stream that writes each line to the provided delegate output stream
  * and also sends it to an indexer for logstash to consume.
  *
+ * Console notes and ANSI escape sequences are removed from the bytes of a line before it is decoded,
+ * lines without escape characters are decoded as they are. The decoder and buffers are reused for all lines,
+ * like the stream itself this is not thread-safe. Each stream merges its continuation lines with a
+ * {@link MultilineAggregator} of its own, so the lines of parallel steps are not merged into one event.
+ *
  * @author K Jonathan Harker
  * @author Rusty Gerard
  */
 public class LogstashOutputStream extends LineTransformationOutputStream {
   private final OutputStream delegate;
   private final LogstashWriter logstash;
+  private final MultilineAggregator aggregator;
+  private byte[] stripped = new byte[0];
+  private Charset charset;
+  private CharsetDecoder decoder;
+  private boolean asciiCompatible;
+  private CharBuffer chars = CharBuffer.allocate(256);
 
   public LogstashOutputStream(OutputStream delegate, LogstashWriter logstash) {
     super();
     this.delegate = delegate;
     this.logstash = logstash;
+    this.aggregator = logstash.newAggregator();
   }
 
   // for testing purposes
@@ -59,10 +78,62 @@ public class LogstashOutputStream extends LineTransformationOutputStream {
     this.flush();
 
     if(!logstash.isConnectionBroken()) {
-      String line = new String(b, 0, len, logstash.getCharset());
-      line = ConsoleNote.removeNotes(line).trim();
-      logstash.write(line);
+      logstash.write(toLine(b, len, logstash.getCharset()), aggregator);
+    }
+  }
+
+  /**
+   * Decodes a line without console notes, ANSI escape sequences and trailing whitespace.
+   * Leading whitespace is kept, the writer needs it to recognize continuation lines.
+   */
+  private String toLine(byte[] b, int len, Charset lineCharset) {
+    if (lineCharset != charset) {
+      charset = lineCharset;
+      asciiCompatible = lineCharset != null && LogTail.isAsciiCompatible(lineCharset);
+      decoder = asciiCompatible ? lineCharset.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE) : null;
+    }
+    if (!asciiCompatible) {
+      String line = lineCharset != null ? new String(b, 0, len, lineCharset) : new String(b, 0, len);
+      line = ConsoleNote.removeNotes(line);
+      int end = line.length();
+      while (end > 0 && line.charAt(end - 1) <= ' ') {
+        end--;
+      }
+      return line.substring(0, end);
     }
+    byte[] bytes = b;
+    int length = len;
+    if (EscapeSequences.contains(b, len)) {
+      if (stripped.length < len) {
+        stripped = new byte[len];
+      }
+      length = EscapeSequences.strip(b, len, stripped);
+      bytes = stripped;
+    }
+    // like String.trim, no byte of a multi-byte character is a space or a control character
+    int to = length;
+    while (to > 0 && (bytes[to - 1] & 0xff) <= ' ') {
+      to--;
+    }
+    return decode(bytes, 0, to);
+  }
+
+  private String decode(byte[] bytes, int offset, int length) {
+    int capacity = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+    if (chars.capacity() < capacity) {
+      chars = CharBuffer.allocate(capacity);
+    }
+    // called on Buffer, the covariant overrides of Java 9 do not exist on Java 8
+    ((Buffer) chars).clear();
+    decoder.reset();
+    CoderResult result = decoder.decode(ByteBuffer.wrap(bytes, offset, length), chars, true);
+    if (result.isOverflow() || decoder.flush(chars).isOverflow()) {
+      return new String(bytes, offset, length, charset);
+    }
+    ((Buffer) chars).flip();
+    return chars.toString();
   }
 
   /**
@@ -79,7 +150,12 @@ public class LogstashOutputStream extends LineTransformationOutputStream {
    */
   @Override
   public void close() throws IOException {
-    delegate.close();
-    super.close();
+    try {
+      delegate.close();
+      super.close();
+    } finally {
+      // the lines that are batched or aggregated are sent even if the delegate fails
+      logstash.close();
+    }
   }
 }
@@ -0,0 +1,88 @@
+package jenkins.plugins.logstash;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.model.Run;
+
+/**
+ * Shows the send queues of the builds that send their log lines asynchronously.
+ */
+@Extension
+public class LogstashQueueLink extends ManagementLink
+{
+  @Override
+  public String getIconFileName()
+  {
+    return "notepad.png";
+  }
+
+  @Override
+  public String getDisplayName()
+  {
+    return Messages.QueueLinkDisplayName();
+  }
+
+  @Override
+  public String getDescription()
+  {
+    return Messages.QueueLinkDescription();
+  }
+
+  @Override
+  public String getUrlName()
+  {
+    return "logstash-queues";
+  }
+
+  /**
+   * @return the queues of all running builds, the longest first
+   */
+  public List<QueueInfo> getQueues()
+  {
+    List<QueueInfo> queues = new ArrayList<>();
+    for (LogstashDispatcher.BuildQueue queue : LogstashDispatcher.getQueues())
+    {
+      LogstashWriter writer = queue.getWriter();
+      if (writer.getBuild() != null)
+      {
+        queues.add(new QueueInfo(writer.getBuild(), queue.size(), writer.getDroppedLines()));
+      }
+    }
+    Collections.sort(queues, Comparator.comparingInt(QueueInfo::getQueuedLines).reversed());
+    return queues;
+  }
+
+  public static final class QueueInfo
+  {
+    private final Run<?, ?> build;
+    private final int queuedLines;
+    private final long droppedLines;
+
+    QueueInfo(Run<?, ?> build, int queuedLines, long droppedLines)
+    {
+      this.build = build;
+      this.queuedLines = queuedLines;
+      this.droppedLines = droppedLines;
+    }
+
+    public Run<?, ?> getBuild()
+    {
+      return build;
+    }
+
+    public int getQueuedLines()
+    {
+      return queuedLines;
+    }
+
+    public long getDroppedLines()
+    {
+      return droppedLines;
+    }
+  }
+}
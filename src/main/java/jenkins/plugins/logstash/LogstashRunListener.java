@@ -0,0 +1,75 @@
+package jenkins.plugins.logstash;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import jenkins.util.Timer;
+
+/**
+ * Finishes the writers of a build once the build is finalized.
+ *
+ * The build log is closed at that point, so no more lines follow. The writers send the remaining lines of their
+ * batches and a last line, which carries the final result of the build. They are finished on the timer, so
+ * finalizing the build does not wait for the indexer. With the header schema, the final header is sent once the
+ * queued lines are sent, but not later than the configured timeout. Lines that are left after the timeout are still
+ * sent in the background.
+ *
+ * The cached data of a build is dropped when the build is finalized or deleted, see {@link BuildDataCache}.
+ */
+@Extension
+public class LogstashRunListener extends RunListener<Run<?, ?>>
+{
+  private static final Logger LOGGER = Logger.getLogger(LogstashRunListener.class.getName());
+
+  static final int DEFAULT_DRAIN_TIMEOUT = 10;
+
+  @Override
+  public void onFinalized(Run<?, ?> run)
+  {
+    BuildDataCache.remove(run);
+    List<LogstashWriter> writers = LogstashWriter.getStreamingWriters(run);
+    if (!writers.isEmpty())
+    {
+      // finalizing the build does not wait for the indexer
+      long timeout = getDrainTimeout() * 1000L;
+      Timer.get().submit(() -> finish(run, writers, timeout));
+    }
+  }
+
+  @Override
+  public void onDeleted(Run<?, ?> run)
+  {
+    BuildDataCache.remove(run);
+  }
+
+  private static void finish(Run<?, ?> run, List<LogstashWriter> writers, long timeout)
+  {
+    for (LogstashWriter writer : writers)
+    {
+      try
+      {
+        writer.finish(timeout).whenComplete((sent, e) -> {
+          if (e != null)
+          {
+            LOGGER.log(Level.WARNING, "Failed to send the last log lines of " + run.getFullDisplayName(), e);
+          }
+        });
+      }
+      catch (RuntimeException e)
+      {
+        LOGGER.log(Level.WARNING, "Failed to send the last log lines of " + run.getFullDisplayName(), e);
+      }
+    }
+  }
+
+  private static int getDrainTimeout()
+  {
+    LogstashConfiguration configuration = LogstashConfiguration.getInstance();
+    int timeout = configuration != null ? configuration.getDrainTimeout() : 0;
+    return timeout > 0 ? timeout : DEFAULT_DRAIN_TIMEOUT;
+  }
+}
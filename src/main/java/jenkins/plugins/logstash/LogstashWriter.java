@@ -25,27 +25,43 @@
 package jenkins.plugins.logstash;
 
 
-import hudson.model.AbstractBuild;
+import hudson.console.ConsoleNote;
 import hudson.model.TaskListener;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import jenkins.plugins.logstash.persistence.BuildData;
+import jenkins.plugins.logstash.persistence.LogEvent;
 import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
-import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.CheckForNull;
 
 /**
  * A writer that wraps all Logstash DAOs.  Handles error reporting and per build connection state.
  * Each call to write (one line or multiple lines) sends a Logstash payload to the DAO.
- * If any write fails, writer will not attempt to send any further messages to logstash during this build.
+ * The writer is thread-safe, so the parallel branches of a Pipeline can write to the same writer.
  *
  * @author Rusty Gerard
  * @author Liam Newman
@@ -53,28 +69,120 @@ import java.util.List;
  */
 public class LogstashWriter {
 
+  private static final Logger LOGGER = Logger.getLogger(LogstashWriter.class.getName());
+
+  /**
+   * Default number of lines that {@link #writeBuildLog(int, int)} sends in one payload.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1000;
+  // a chunk of the build log is also sent when its lines reach this number of characters
+  private static final int CHUNK_MAX_CHARS = 1024 * 1024;
+  private static final long FINISH_POLL_INTERVAL = 10;
+  // writers that stream lines of a build, so they can be finished together with the build
+  private static final Set<LogstashWriter> STREAMING = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
   private final OutputStream errorStream;
   private final Run<?, ?> build;
   private final TaskListener listener;
   private final BuildData buildData;
+  private final BuildProgress progress;
   private final String jenkinsUrl;
   private final LogstashIndexerDao dao;
-  private boolean connectionBroken;
-  private Charset charset;
+  private final boolean asynchronous;
+  private final LogstashDispatcher.BuildQueue sendQueue;
+  private final LineBatch batch;
+  // the aggregator of the lines that are written without a stream, see newAggregator for the streams
+  private final MultilineAggregator multiline;
+  private final Set<MultilineAggregator> aggregators = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+  private final WriterSettings multilineSettings;
+  private final ScheduledFuture<?> flushTask;
+  // batches are numbered when they are taken and sent in that order, see shipInOrder
+  private final ReentrantLock sendLock = new ReentrantLock();
+  private final Condition batchSent = sendLock.newCondition();
+  private long takenBatches;
+  private long sentBatches;
+  private final CircuitBreaker circuitBreaker;
+  private final RateLimiter buildRateLimiter;
+  private final RateLimiter globalRateLimiter;
+  private final boolean headerSchema;
+  private final AtomicLong droppedLines = new AtomicLong();
+  private final AtomicLong rateLimitedLines = new AtomicLong();
+  private volatile boolean reportedRateLimit;
+  private volatile boolean sendFailed;
+  private volatile boolean streaming;
+  private volatile int reportedOutage = -1;
+  private final Charset charset;
 
   public LogstashWriter(Run<?, ?> run, OutputStream error, TaskListener listener, Charset charset) {
+    this(run, error, listener, charset, null);
+  }
+
+  /**
+   * Creates a writer that sends lines where there is neither the build nor the configuration, e.g. on an agent.
+   * Only single lines can be written, the build data and the settings are taken from the snapshot.
+   */
+  LogstashWriter(AgentSnapshot snapshot, OutputStream error, Charset charset) {
+    this(null, error, null, charset, snapshot);
+  }
+
+  private LogstashWriter(Run<?, ?> run, OutputStream error, TaskListener listener, Charset charset, AgentSnapshot snapshot) {
     this.errorStream = error != null ? error : System.err;
     this.build = run;
     this.listener = listener;
     this.charset = charset;
-    this.dao = this.getDaoOrNull();
+    this.dao = snapshot != null ? snapshot.getIndexerDao() : this.getDaoOrNull();
     if (this.dao == null) {
       this.jenkinsUrl = "";
       this.buildData = null;
+      this.progress = null;
+      this.asynchronous = false;
+      this.batch = null;
+      this.multiline = null;
+      this.multilineSettings = null;
+      this.circuitBreaker = null;
+      this.buildRateLimiter = null;
+      this.globalRateLimiter = null;
+      this.headerSchema = false;
+      this.sendQueue = null;
     } else {
-      this.jenkinsUrl = getJenkinsUrl();
-      this.buildData = getBuildData();
+      WriterSettings settings;
+      if (snapshot != null) {
+        this.jenkinsUrl = snapshot.getJenkinsUrl();
+        this.buildData = snapshot.getBuildData();
+        this.progress = snapshot.getProgress();
+        settings = snapshot.getSettings();
+      } else {
+        this.jenkinsUrl = getJenkinsUrl();
+        this.buildData = run != null ? getBuildData() : null;
+        this.progress = run != null ? getBuildProgress() : null;
+        settings = new WriterSettings(LogstashConfiguration.getInstance(), run != null ? getJobProperty() : null);
+      }
+      this.asynchronous = settings.asynchronous;
+      // when sending asynchronously the lines are batched by the sender, see LogstashDispatcher
+      this.batch = settings.isBatching() && !asynchronous
+          ? new LineBatch(settings.batchMaxLines, settings.batchMaxBytes, settings.batchMaxDelay) : null;
+      this.multilineSettings = settings.multiline ? settings : null;
+      this.multiline = newAggregator();
+      this.circuitBreaker = CircuitBreaker.of(dao);
+      this.circuitBreaker.configure(settings.outagePolicy, settings.outageBufferSize, settings.spillMaxSize, settings.spillMaxAge);
+      if (snapshot != null) {
+        this.buildRateLimiter = snapshot.getBuildRateLimiter();
+      } else {
+        this.buildRateLimiter = run != null
+            ? BuildDataCache.getRateLimiter(run, settings.buildRateLimitEvents, settings.buildRateLimitBytes) : null;
+      }
+      this.globalRateLimiter = RateLimiter.global(settings.rateLimitEvents, settings.rateLimitBytes);
+      this.headerSchema = settings.isHeaderSchema();
+      this.sendQueue = asynchronous ? newQueue(settings) : null;
+    }
+    this.flushTask = batch != null || multiline != null ? BatchFlusher.schedule(this, getFlushDelay()) : null;
+  }
+
+  private LogstashDispatcher.BuildQueue newQueue(WriterSettings settings) {
+    if (!settings.isBatching()) {
+      return LogstashDispatcher.newQueue(this);
     }
+    return LogstashDispatcher.newQueue(this, settings.batchMaxLines, settings.batchMaxBytes);
   }
 
   /**
@@ -86,43 +194,396 @@ public class LogstashWriter {
     return charset;
   }
 
-  // for testing only
   LogstashIndexerDao getDao()
   {
     return dao;
   }
 
+  Run<?, ?> getBuild()
+  {
+    return build;
+  }
+
   /**
    * Sends a logstash payload for a single line to the indexer.
    * Call will be ignored if the line is empty or if the connection to the indexer is broken.
-   * If write fails, errors will logged to errorStream and connectionBroken will be set to true.
+   * If write fails, errors will logged to errorStream.
+   * When sending asynchronously the line is only queued for the {@link LogstashDispatcher}, which also collects
+   * the batches, if the queue is full the line is dropped. Otherwise, when batching is enabled, the line is
+   * collected and sent together with the other lines of the batch. The batch is only locked to take its lines,
+   * the completed batches are sent one after the other in the order they were taken.
+   * Lines above the rate limit are dropped, the next line that is sent is preceded by a line with their number.
+   * The time stamp of the payload is the time the line was written, or the time of the first line of a batch.
+   * Leading and trailing whitespace is removed, except for the indentation of lines that are merged into
+   * the event of the preceding line. When multi-line aggregation is enabled, continuation lines like the frames
+   * of a stack trace are merged into the event of the preceding line by a {@link MultilineAggregator}.
+   * Streams write with an aggregator of their own, see {@link #write(String, MultilineAggregator)}.
+   * When sending synchronously a failed push is retried on the calling thread, which pauses at most
+   * {@link CircuitBreaker#SYNCHRONOUS_MAX_PAUSE} milliseconds between the attempts of a push in total.
+   * Each attempt is bounded by the timeouts of the indexer, and once the indexer failed repeatedly
+   * the circuit breaker opens and pushes fail without waiting.
    *
    * @param line
    *          Message, not null
    */
   public void write(String line) {
-    if (!isConnectionBroken() && StringUtils.isNotEmpty(line)) {
-      this.write(Arrays.asList(line));
+    write(line, multiline);
+  }
+
+  /**
+   * Sends a line like {@link #write(String)}, merging continuation lines only with the lines of the aggregator.
+   *
+   * @param line the line, not null
+   * @param aggregator the aggregator of the stream that writes the line, see {@link #newAggregator()}
+   */
+  void write(String line, @CheckForNull MultilineAggregator aggregator) {
+    long now = System.currentTimeMillis();
+    if (isConnectionBroken() || StringUtils.isBlank(line)) {
+      return;
+    }
+    if (aggregator == null) {
+      emit(line.trim(), now);
+      return;
+    }
+    String event;
+    long time;
+    synchronized (aggregator) {
+      // the time of the event that is completed by the line
+      time = aggregator.getFirstLineTime();
+      event = aggregator.add(StringUtils.stripEnd(line, null), now);
+    }
+    if (event != null) {
+      emit(event, time);
+    }
+  }
+
+  /**
+   * Creates an aggregator for a stream that writes lines, like the console output of a step or a branch, so its
+   * continuation lines are not merged into the events of other streams. The aggregated events are sent when
+   * they expire and when the writer is flushed, as long as the stream is not garbage collected.
+   *
+   * @return the aggregator or null if multi-line aggregation is not enabled
+   */
+  @CheckForNull
+  MultilineAggregator newAggregator() {
+    if (multilineSettings == null) {
+      return null;
+    }
+    MultilineAggregator aggregator = new MultilineAggregator(multilineSettings.multilineIndented,
+        multilineSettings.multilineStackTraces, multilineSettings.multilinePattern, multilineSettings.multilineMaxLines,
+        multilineSettings.multilineMaxBytes, multilineSettings.multilineTimeout);
+    aggregators.add(aggregator);
+    return aggregator;
+  }
+
+  /**
+   * Sends one event, a single line or lines that were merged by the {@link MultilineAggregator}.
+   */
+  private void emit(String line, long time) {
+    if (acquire(line)) {
+      if (!streaming) {
+        streaming = true;
+        STREAMING.add(this);
+      }
+      writeRateLimitSummary(time);
+      add(line, time);
+    }
+  }
+
+  private void add(String line, long time) {
+    if (batch == null) {
+      ship(Arrays.asList(line), time);
+      return;
+    }
+    List<String> lines;
+    long firstLineTime;
+    long ticket;
+    synchronized (batch) {
+      lines = batch.add(line, time);
+      firstLineTime = batch.getFirstLineTime();
+      ticket = lines != null ? takenBatches++ : -1;
+    }
+    if (lines != null) {
+      shipInOrder(lines, firstLineTime, ticket);
+    }
+  }
+
+  /**
+   * Sends a batch once all batches that were taken before it are sent, so the lines of a thread reach the
+   * indexer in the order they were written. The batch is not locked while waiting, so lines can still be added.
+   *
+   * @param ticket the number of the batch, taken together with the batch
+   */
+  private void shipInOrder(List<String> lines, long time, long ticket) {
+    sendLock.lock();
+    try {
+      while (ticket != sentBatches) {
+        batchSent.awaitUninterruptibly();
+      }
+      try {
+        if (!isConnectionBroken()) {
+          ship(lines, time);
+        }
+      } finally {
+        sentBatches++;
+        batchSent.signalAll();
+      }
+    } finally {
+      sendLock.unlock();
+    }
+  }
+
+  /**
+   * Takes the tokens for a line from the limiter of the build and the global limiter.
+   * If only one of them admits the line, its tokens are given back.
+   */
+  private boolean acquire(String line) {
+    int size = line.length();
+    if (buildRateLimiter == null || buildRateLimiter.tryAcquire(size)) {
+      if (globalRateLimiter == null || globalRateLimiter.tryAcquire(size)) {
+        return true;
+      }
+      if (buildRateLimiter != null) {
+        buildRateLimiter.release(size);
+      }
+    }
+    rateLimitedLines.incrementAndGet();
+    if (!reportedRateLimit) {
+      reportedRateLimit = true;
+      // dropping lines above the limit is not a failure of the writer
+      logMessage("[logstash-plugin]: Log lines exceed the rate limit, lines above the limit are dropped.\n");
+    }
+    return false;
+  }
+
+  /**
+   * Sends a line with the number of lines that were dropped because of the rate limit since the last line was sent.
+   */
+  private void writeRateLimitSummary(long time) {
+    long dropped = rateLimitedLines.getAndSet(0);
+    if (dropped > 0) {
+      add("[logstash-plugin]: " + dropped + " lines dropped by the rate limit", time);
+    }
+  }
+
+  /**
+   * Sends the event that is aggregated from multiple lines and the lines collected in the current batch.
+   */
+  public void flush() {
+    flushMultiline();
+    flushBatch(false);
+  }
+
+  /**
+   * Sends the lines collected in the current batch and stops the periodic flushing.
+   */
+  public void close() {
+    flushMultiline();
+    if (!isConnectionBroken()) {
+      writeRateLimitSummary(System.currentTimeMillis());
+    }
+    flush();
+    if (flushTask != null) {
+      flushTask.cancel(false);
+    }
+  }
+
+  /**
+   * Sends the remaining lines once the build has its final result, the first writer of the build to finish also
+   * sends a last line with the result. The outstanding lines are not waited for, the returned future completes
+   * once they are sent. Lines that are buffered because the indexer is unavailable are not waited for.
+   * With the header schema, a header event with the final build data is sent afterwards.
+   * Called by {@link LogstashRunListener} when the build is finalized.
+   *
+   * @param timeout maximum time in milliseconds to wait for lines that are queued for sending
+   * @return completes with true if all lines were sent, false if the timeout elapsed
+   */
+  public CompletableFuture<Boolean> finish(long timeout) {
+    STREAMING.remove(this);
+    CompletableFuture<Boolean> finished = new CompletableFuture<>();
+    if (isConnectionBroken()) {
+      close();
+      finished.complete(true);
+      return finished;
+    }
+    flushMultiline();
+    long now = System.currentTimeMillis();
+    writeRateLimitSummary(now);
+    if (progress.claimResultLine()) {
+      add("[logstash-plugin]: Finished: " + build.getResult(), now);
+    }
+    close();
+    awaitQueue(now + timeout, finished);
+    return finished;
+  }
+
+  /**
+   * Checks on the timer whether the queued lines were sent, instead of blocking a thread until they are.
+   */
+  private void awaitQueue(long deadline, CompletableFuture<Boolean> finished) {
+    boolean sent = sendQueue == null || sendQueue.isIdle();
+    if (!sent && System.currentTimeMillis() < deadline) {
+      Timer.get().schedule(() -> awaitQueue(deadline, finished), FINISH_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+      return;
+    }
+    if (!sent) {
+      LOGGER.log(Level.INFO, sendQueue.size() + " log lines of " + getDisplayName() + " were not sent in time");
+    }
+    try {
+      sendFinalHeader();
+      finished.complete(sent);
+    } catch (RuntimeException e) {
+      finished.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Sends the header event with the final result, once per build.
+   */
+  private void sendFinalHeader() {
+    if (headerSchema && !isConnectionBroken() && progress.claimFinalHeader()) {
+      buildData.updateResult();
+      try {
+        if (!circuitBreaker.pushEvents(Collections.singletonList(LogEvent.header(buildData, jenkinsUrl, System.currentTimeMillis())),
+            CircuitBreaker.SYNCHRONOUS_MAX_PAUSE)) {
+          sendBuffered();
+        }
+      } catch (IOException e) {
+        sendFailed(e);
+      }
+    }
+  }
+
+  /**
+   * Returns the writers that streamed lines of a build and were not finished yet.
+   *
+   * @param run the build
+   * @return the writers of the build
+   */
+  static List<LogstashWriter> getStreamingWriters(Run<?, ?> run) {
+    List<LogstashWriter> writers = new ArrayList<>();
+    synchronized (STREAMING) {
+      for (LogstashWriter writer : STREAMING) {
+        if (writer.build == run) {
+          writers.add(writer);
+        }
+      }
+    }
+    return writers;
+  }
+
+  private void flushMultiline() {
+    flushMultiline(false);
+  }
+
+  private void flushExpired() {
+    flushMultiline(true);
+    flushBatch(true);
+  }
+
+  /**
+   * Sends the events of all aggregators of the writer.
+   *
+   * @param expiredOnly whether to only send the events to which no line was added for the timeout
+   */
+  private void flushMultiline(boolean expiredOnly) {
+    if (multiline == null) {
+      return;
+    }
+    List<MultilineAggregator> current;
+    synchronized (aggregators) {
+      current = new ArrayList<>(aggregators);
+    }
+    long now = System.currentTimeMillis();
+    for (MultilineAggregator aggregator : current) {
+      String event;
+      long time;
+      synchronized (aggregator) {
+        event = expiredOnly ? aggregator.takeIfExpired(now) : aggregator.take();
+        time = aggregator.getFirstLineTime();
+      }
+      if (event != null && !isConnectionBroken()) {
+        emit(event, time);
+      }
+    }
+  }
+
+  /**
+   * Sends the lines collected in the current batch.
+   *
+   * @param expiredOnly whether to only send the batch if its first line waited for the maximum delay
+   */
+  private void flushBatch(boolean expiredOnly) {
+    if (batch == null) {
+      return;
+    }
+    List<String> lines;
+    long firstLineTime;
+    long ticket;
+    synchronized (batch) {
+      lines = expiredOnly ? batch.takeIfExpired(System.currentTimeMillis()) : batch.take();
+      firstLineTime = batch.getFirstLineTime();
+      ticket = lines != null ? takenBatches++ : -1;
+    }
+    if (lines != null) {
+      shipInOrder(lines, firstLineTime, ticket);
+    }
+  }
+
+  /**
+   * @return the interval in milliseconds in which expired batches and aggregated events are sent
+   */
+  private long getFlushDelay() {
+    if (batch == null) {
+      return multilineSettings.multilineTimeout;
+    }
+    if (multiline == null) {
+      return batch.getMaxDelay();
+    }
+    return Math.min(batch.getMaxDelay(), multilineSettings.multilineTimeout);
+  }
+
+  private void ship(List<String> lines, long time) {
+    if (asynchronous) {
+      dispatch(lines, time);
+    } else {
+      send(lines, time);
     }
   }
 
   /**
    * Sends a logstash payload containing log lines from the current build.
    * Call will be ignored if the connection to the indexer is broken.
-   * If write fails, errors will logged to errorStream and connectionBroken will be set to true.
+   * If write fails, errors will logged to errorStream.
    *
    * @param maxLines
    *          Maximum number of lines to be written.  Negative numbers mean "all lines".
    */
   public void writeBuildLog(int maxLines) {
-    if (!isConnectionBroken()) {
+    writeBuildLog(maxLines, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Sends log lines from the current build as payloads of at most chunkSize lines.
+   * When all lines are sent, the log file is read sequentially and only one chunk is kept in memory,
+   * so memory use does not depend on the size of the log.
+   * Call will be ignored if the connection to the indexer is broken.
+   * If write fails, errors will logged to errorStream.
+   *
+   * @param maxLines
+   *          Maximum number of lines to be written.  Negative numbers mean "all lines".
+   * @param chunkSize
+   *          Maximum number of lines per payload, the default is used if not positive.
+   */
+  public void writeBuildLog(int maxLines, int chunkSize) {
+    if (build != null && !isConnectionBroken()) {
+      chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
       // FIXME: build.getLog() won't have the last few lines like "Finished: SUCCESS" because this hasn't returned yet...
-      List<String> logLines;
       try {
         if (maxLines < 0) {
-          logLines = build.getLog(Integer.MAX_VALUE);
+          streamBuildLog(chunkSize);
         } else {
-          logLines = build.getLog(maxLines);
+          sendChunked(readTail(maxLines), chunkSize);
         }
       } catch (IOException e) {
         String msg = "[logstash-plugin]: Unable to serialize log data.\n" +
@@ -130,18 +591,73 @@ public class LogstashWriter {
         logErrorMessage(msg);
 
         // Continue with error info as logstash payload
-        logLines = Arrays.asList(msg.split("\n"));
+        send(Arrays.asList(msg.split("\n")));
       }
+    }
+  }
+
+  /**
+   * Reads the last lines of the log file backwards if possible, otherwise the whole log.
+   */
+  private List<String> readTail(int maxLines) throws IOException {
+    List<String> lines = LogTail.read(build.getLogFile(), charset, maxLines);
+    return lines != null ? lines : build.getLog(maxLines);
+  }
 
-      write(logLines);
+  private void streamBuildLog(int chunkSize) throws IOException {
+    try (BufferedReader reader = new BufferedReader(build.getLogReader())) {
+      List<String> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+      int chars = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = ConsoleNote.removeNotes(line);
+        chunk.add(line);
+        chars += line.length();
+        if (chunk.size() >= chunkSize || chars >= CHUNK_MAX_CHARS) {
+          if (isConnectionBroken()) {
+            return;
+          }
+          // the lines are encoded by send, so the list can be reused
+          send(chunk);
+          chunk.clear();
+          chars = 0;
+        }
+      }
+      if (!chunk.isEmpty() && !isConnectionBroken()) {
+        send(chunk);
+      }
+    }
+  }
+
+  private void sendChunked(List<String> lines, int chunkSize) {
+    if (lines.size() <= chunkSize) {
+      // also sends the build data when there are no lines
+      send(lines);
+      return;
+    }
+    for (int from = 0; from < lines.size() && !isConnectionBroken(); from += chunkSize) {
+      send(lines.subList(from, Math.min(from + chunkSize, lines.size())));
     }
   }
 
   /**
-   * @return True if errors have occurred during initialization or write.
+   * @return True if errors have occurred during initialization or if the indexer is unavailable and lines are dropped.
    */
   public boolean isConnectionBroken() {
-    return connectionBroken || build == null || dao == null || buildData == null;
+    return dao == null || buildData == null
+        || (circuitBreaker.getPolicy() == OutagePolicy.DROP && circuitBreaker.isOpen());
+  }
+
+  /**
+   * @return True if the writer could not be initialized or if lines of this writer were not sent,
+   *         also when they were buffered or spilled because the indexer is unavailable.
+   */
+  public boolean isSendFailed() {
+    return sendFailed;
+  }
+
+  CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
   }
 
   // Method to encapsulate calls for unit-testing
@@ -149,32 +665,141 @@ public class LogstashWriter {
     return LogstashConfiguration.getInstance().getIndexerInstance();
   }
 
+  // Method to encapsulate calls for unit-testing
+  LogstashJobProperty getJobProperty() {
+    return build.getParent().getProperty(LogstashJobProperty.class);
+  }
+
   BuildData getBuildData() {
-    if (build instanceof AbstractBuild) {
-      return new BuildData((AbstractBuild<?, ?>) build, new Date(), listener);
-    } else {
-      return new BuildData(build, new Date(), listener);
-    }
+    return BuildDataCache.get(build, listener);
+  }
+
+  BuildProgress getBuildProgress() {
+    return BuildDataCache.getProgress(build);
   }
 
   String getJenkinsUrl() {
     return Jenkins.getInstance().getRootUrl();
   }
 
+  private String getDisplayName() {
+    return build != null ? build.getFullDisplayName() : buildData.getFullDisplayName();
+  }
+
+  /**
+   * @return the number of lines waiting in the send queue of this writer.
+   */
+  public int getQueuedLines() {
+    return sendQueue != null ? sendQueue.size() : 0;
+  }
+
+  /**
+   * @return the number of lines that were dropped because the send queue was full.
+   */
+  public long getDroppedLines() {
+    return droppedLines.get();
+  }
+
+  /**
+   * @return the number of lines that were dropped because of the rate limit and not yet reported.
+   */
+  public long getRateLimitedLines() {
+    return rateLimitedLines.get();
+  }
+
+  private void dispatch(List<String> lines, long time) {
+    if (!LogstashDispatcher.getInstance().dispatch(sendQueue, lines, time)) {
+      if (droppedLines.getAndIncrement() == 0) {
+        LOGGER.log(Level.WARNING, "Send queue is full, dropping log lines of " + getDisplayName());
+      }
+    }
+  }
+
+  private void send(List<String> lines) {
+    send(lines, System.currentTimeMillis());
+  }
+
   /**
    * Write a list of lines to the indexer as one Logstash payload.
+   * Failed pushes are retried and the indexer is guarded by a {@link CircuitBreaker} that is shared by all builds.
+   * This runs on the thread of the build, so the pause between the attempts is limited.
+   * While the indexer is unavailable lines are dropped or buffered according to the {@link OutagePolicy}.
    */
-  private void write(List<String> lines) {
-    buildData.updateResult();
-    JSONObject payload = dao.buildPayload(buildData, jenkinsUrl, lines);
+  private void send(List<String> lines, long time) {
     try {
-      dao.push(payload.toString());
+      LogEvent header = takeHeader(time);
+      LogEvent event = toEvent(lines, time);
+      List<LogEvent> events = header != null ? Arrays.asList(header, event) : Collections.singletonList(event);
+      if (!circuitBreaker.pushEvents(events, CircuitBreaker.SYNCHRONOUS_MAX_PAUSE)) {
+        sendBuffered();
+      }
     } catch (IOException e) {
-      String msg = "[logstash-plugin]: Failed to send log data: " + dao.getDescription() + ".\n" +
-        "[logstash-plugin]: No Further logs will be sent to " + dao.getDescription() + ".\n" +
+      sendFailed(e);
+    }
+  }
+
+  /**
+   * Creates the event for a list of lines, which the indexer sends as one Logstash payload.
+   * With the {@link EventSchema#HEADER header schema} the event only carries the id of the build and a sequence
+   * number, the build data is sent in the header events, see {@link #takeHeader(long)}.
+   * Called on the thread of the build or, when sending asynchronously, on a sender thread.
+   * The event is only valid until it was pushed, as the build data is updated for the next event.
+   *
+   * @param time the time in milliseconds when the first line was written
+   */
+  LogEvent toEvent(List<String> lines, long time) {
+    if (headerSchema) {
+      return LogEvent.lines(buildData, lines, time, progress.nextSequence());
+    }
+    buildData.updateResult();
+    return new LogEvent(buildData, jenkinsUrl, lines, time);
+  }
+
+  /**
+   * Returns the header event that has to be sent before the first event of the build.
+   * The header is sent once per build, the writers of a build share their {@link BuildProgress}.
+   * Called like {@link #toEvent(List, long)}.
+   *
+   * @param time the time in milliseconds of the first event
+   * @return the header event or null if the header was already sent or the build data is sent in every event
+   */
+  LogEvent takeHeader(long time) {
+    if (!headerSchema || !progress.claimStartHeader()) {
+      return null;
+    }
+    buildData.updateResult();
+    return LogEvent.header(buildData, jenkinsUrl, time);
+  }
+
+  /**
+   * Records that a payload of this writer was buffered because the indexer is not available.
+   */
+  void sendBuffered() {
+    sendFailed = true;
+  }
+
+  /**
+   * Reports that a payload of this writer could not be sent.
+   * Only the first failure of each outage is written to the log of the build.
+   */
+  void sendFailed(IOException e) {
+    sendFailed = true;
+    int outage = circuitBreaker.getOutages();
+    if (outage == reportedOutage) {
+      return;
+    }
+    reportedOutage = outage;
+    String action = circuitBreaker.getPolicy() == OutagePolicy.DROP ? "dropped" : "buffered";
+    String msg;
+    if (e instanceof CircuitBreaker.CircuitOpenException) {
+      msg = "[logstash-plugin]: " + dao.getDescription() + " is not available.\n" +
+        "[logstash-plugin]: Log lines are " + action + " until " + dao.getDescription() + " is available again.\n";
+    } else {
+      msg = "[logstash-plugin]: Failed to send log data: " + dao.getDescription() + ".\n" +
+        "[logstash-plugin]: Log lines are " + action + " until " + dao.getDescription() + " is available again.\n" +
         ExceptionUtils.getStackTrace(e);
-      logErrorMessage(msg);
     }
+    logErrorMessage(msg);
   }
 
   /**
@@ -201,11 +826,54 @@ public class LogstashWriter {
   }
 
   /**
-   * Write error message to errorStream and set connectionBroken to true.
+   * Periodically sends batches whose first line waited for the maximum delay.
+   * Only holds a weak reference, so a writer that is never closed does not stay scheduled forever.
+   */
+  private static final class BatchFlusher implements Runnable {
+    private final WeakReference<LogstashWriter> writer;
+    private volatile ScheduledFuture<?> future;
+
+    private BatchFlusher(LogstashWriter writer) {
+      this.writer = new WeakReference<>(writer);
+    }
+
+    static ScheduledFuture<?> schedule(LogstashWriter writer, long delay) {
+      BatchFlusher flusher = new BatchFlusher(writer);
+      flusher.future = Timer.get().scheduleWithFixedDelay(flusher, delay, delay, TimeUnit.MILLISECONDS);
+      return flusher.future;
+    }
+
+    @Override
+    public void run() {
+      LogstashWriter logstashWriter = writer.get();
+      if (logstashWriter == null) {
+        ScheduledFuture<?> f = future;
+        if (f != null) {
+          f.cancel(false);
+        }
+        return;
+      }
+      try {
+        logstashWriter.flushExpired();
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to flush log lines", e);
+      }
+    }
+  }
+
+  /**
+   * Write error message to errorStream and mark the writer as failed.
    */
   private void logErrorMessage(String msg) {
+    sendFailed = true;
+    logMessage(msg);
+  }
+
+  /**
+   * Write message to errorStream.
+   */
+  private void logMessage(String msg) {
     try {
-      connectionBroken = true;
       errorStream.write(msg.getBytes(charset));
       errorStream.flush();
     } catch (IOException ex) {
@@ -0,0 +1,81 @@
+package jenkins.plugins.logstash;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+import jenkins.plugins.logstash.persistence.EventBuffer;
+
+/**
+ * Keeps events in memory, up to a maximum number of events.
+ * The position of an event is the number of events that were added before it.
+ */
+final class MemoryOutageBuffer implements OutageBuffer
+{
+  private final Deque<String> events = new ArrayDeque<>();
+  private long removed;
+  private int capacity;
+
+  MemoryOutageBuffer(int capacity)
+  {
+    this.capacity = capacity;
+  }
+
+  synchronized void setCapacity(int capacity)
+  {
+    this.capacity = capacity;
+  }
+
+  @Override
+  public synchronized int add(EventBuffer buffer)
+  {
+    int dropped = 0;
+    for (int i = 0; i < buffer.getEventCount(); i++)
+    {
+      if (events.size() < capacity)
+      {
+        events.add(buffer.getEventString(i));
+      }
+      else
+      {
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+  @Override
+  public synchronized boolean isEmpty()
+  {
+    return events.isEmpty();
+  }
+
+  @Override
+  public synchronized long size()
+  {
+    return events.size();
+  }
+
+  @Override
+  public synchronized long peek(EventBuffer target, int maxEvents)
+  {
+    int count = 0;
+    Iterator<String> it = events.iterator();
+    while (it.hasNext() && count < maxEvents)
+    {
+      target.writeEvent(it.next());
+      count++;
+    }
+    return removed + count;
+  }
+
+  @Override
+  public synchronized void remove(long position)
+  {
+    while (removed < position && !events.isEmpty())
+    {
+      events.removeFirst();
+      removed++;
+    }
+  }
+}
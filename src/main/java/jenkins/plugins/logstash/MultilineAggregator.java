@@ -0,0 +1,136 @@
+package jenkins.plugins.logstash;
+
+import java.util.regex.Pattern;
+
+/**
+ * Merges continuation lines, like the frames of a stack trace, into the event of the preceding line.
+ *
+ * A line is a continuation if it is indented, if it is a line of a Java stack trace or if it matches
+ * a custom pattern, depending on the enabled rules. Indentation of continuation lines is kept, the
+ * first line of an event is trimmed. An event is complete when the next line is not a continuation,
+ * when it reaches the maximum number of lines or bytes, or when no line was added for the timeout.
+ *
+ * This class is not thread-safe, callers have to synchronize on the instance.
+ */
+final class MultilineAggregator
+{
+  static final int DEFAULT_MAX_LINES = 500;
+  static final int DEFAULT_MAX_BYTES = 64 * 1024;
+  static final long DEFAULT_TIMEOUT = 1000;
+
+  private static final Pattern STACK_TRACE = Pattern.compile("^(at |Caused by: |Suppressed: |\\.\\.\\. \\d+ (more|common frames omitted))");
+
+  private final boolean indented;
+  private final boolean stackTraces;
+  private final Pattern pattern;
+  private final int maxLines;
+  private final int maxBytes;
+  private final long timeout;
+
+  private final StringBuilder event = new StringBuilder();
+  private int lines;
+  private long firstLineTime;
+  private long lastLineTime;
+
+  /**
+   * @param indented whether indented lines are continuations
+   * @param stackTraces whether the lines of Java stack traces are continuations
+   * @param pattern lines that match this pattern are continuations, may be null
+   * @param maxLines maximum number of lines in an event
+   * @param maxBytes maximum size of an event in bytes, an estimate based on the length of the lines
+   * @param timeout time in milliseconds after which an event is complete if no line was added
+   */
+  MultilineAggregator(boolean indented, boolean stackTraces, Pattern pattern, int maxLines, int maxBytes, long timeout)
+  {
+    this.indented = indented;
+    this.stackTraces = stackTraces;
+    this.pattern = pattern;
+    this.maxLines = maxLines;
+    this.maxBytes = maxBytes;
+    this.timeout = timeout;
+  }
+
+  /**
+   * Returns the time the first line of the event was added. After an event was taken,
+   * this is the time of the event that was taken until the next line is added.
+   *
+   * @return the time in milliseconds
+   */
+  long getFirstLineTime()
+  {
+    return firstLineTime;
+  }
+
+  boolean isContinuation(String line)
+  {
+    if (line.isEmpty())
+    {
+      return false;
+    }
+    if (indented && line.charAt(0) <= ' ')
+    {
+      return true;
+    }
+    if (stackTraces && STACK_TRACE.matcher(line.trim()).find())
+    {
+      return true;
+    }
+    return pattern != null && pattern.matcher(line).find();
+  }
+
+  /**
+   * Adds a line.
+   *
+   * @param line the line without trailing whitespace
+   * @param now the current time in milliseconds
+   * @return the completed event or null if the line was added to the current event
+   */
+  String add(String line, long now)
+  {
+    if (lines > 0 && lines < maxLines && event.length() < maxBytes && isContinuation(line))
+    {
+      event.append('\n').append(line);
+      lines++;
+      lastLineTime = now;
+      return null;
+    }
+    String completed = take();
+    event.append(line.trim());
+    lines = 1;
+    firstLineTime = now;
+    lastLineTime = now;
+    return completed;
+  }
+
+  /**
+   * Takes the event if no line was added for the timeout.
+   *
+   * @param now the current time in milliseconds
+   * @return the expired event or null
+   */
+  String takeIfExpired(long now)
+  {
+    if (lines > 0 && now - lastLineTime >= timeout)
+    {
+      return take();
+    }
+    return null;
+  }
+
+  /**
+   * Takes the event regardless whether it is complete.
+   *
+   * @return the event or null if there is none
+   */
+  String take()
+  {
+    if (lines == 0)
+    {
+      return null;
+    }
+    String completed = event.toString();
+    event.setLength(0);
+    lines = 0;
+    return completed;
+  }
+}
@@ -0,0 +1,44 @@
+package jenkins.plugins.logstash;
+
+import jenkins.plugins.logstash.persistence.EventBuffer;
+
+/**
+ * Keeps the events that could not be sent while an indexer is unavailable, oldest first.
+ *
+ * Events are read with {@link #peek(EventBuffer, int)} and only removed with {@link #remove(long)} once
+ * they were sent, so a failed replay loses nothing. Implementations are thread-safe.
+ */
+interface OutageBuffer
+{
+  /**
+   * Adds events to the end of the buffer. Events that exceed the limits of the buffer are dropped.
+   *
+   * @param events the events to add, they are copied
+   * @return the number of dropped events
+   */
+  int add(EventBuffer events);
+
+  boolean isEmpty();
+
+  /**
+   * @return the number of events in the buffer
+   */
+  long size();
+
+  /**
+   * Copies the oldest events without removing them.
+   *
+   * @param target the buffer the events are appended to
+   * @param maxEvents the maximum number of events to copy
+   * @return the position after the copied events, to be passed to {@link #remove(long)}
+   */
+  long peek(EventBuffer target, int maxEvents);
+
+  /**
+   * Removes the events up to a position returned by {@link #peek(EventBuffer, int)}.
+   * Removing up to a position that was already removed does nothing.
+   *
+   * @param position the position after the events to remove
+   */
+  void remove(long position);
+}
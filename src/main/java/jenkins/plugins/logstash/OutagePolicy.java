@@ -0,0 +1,35 @@
+package jenkins.plugins.logstash;
+
+/**
+ * Defines what happens to log lines while the indexer is unavailable.
+ */
+public enum OutagePolicy
+{
+  /**
+   * Lines are dropped until the indexer is available again.
+   */
+  DROP("Drop log lines"),
+
+  /**
+   * Lines are kept in memory, up to a limit, and sent once the indexer is available again.
+   */
+  BUFFER("Buffer log lines in memory"),
+
+  /**
+   * Lines are written to a queue on disk, up to a limit, and sent once the indexer is available again.
+   * The queue survives a restart of Jenkins.
+   */
+  SPILL("Spill log lines to disk");
+
+  private final String displayName;
+
+  private OutagePolicy(String displayName)
+  {
+    this.displayName = displayName;
+  }
+
+  public String getDisplayName()
+  {
+    return displayName;
+  }
+}
@@ -42,6 +42,14 @@ public class PluginImpl extends Plugin {
     LOG.info("Logstash: a logstash agent to send jenkins logs to a logstash indexer.");
   }
 
+  /**
+   * Stops the threads that push to the indexers.
+   */
+  @Override
+  public void stop() throws Exception {
+    PushExecutor.shutdown();
+  }
+
   public DescriptorExtensionList<LogstashIndexer<?>, Descriptor<LogstashIndexer<?>>> getAllIndexers()
   {
     return LogstashIndexer.all();
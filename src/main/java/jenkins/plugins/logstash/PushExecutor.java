@@ -0,0 +1,108 @@
+package jenkins.plugins.logstash;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Runs the blocking pushes to the indexers when pushes are made concurrently.
+ *
+ * On a JVM with virtual threads every push runs on its own virtual thread, so thousands of pushes
+ * can wait for slow indexers without holding a platform thread each. The plugin is built for Java 8,
+ * so the virtual thread executor is looked up by reflection. On older JVMs the pushes run on a pool of
+ * at most {@link #MAX_PLATFORM_THREADS} daemon threads. At most {@link #MAX_QUEUED_PUSHES} further pushes wait
+ * in its queue, beyond that the executor rejects them and the sender threads push themselves.
+ *
+ * The executor is shut down when the plugin stops, see {@link PluginImpl#stop()}.
+ */
+final class PushExecutor
+{
+  private static final Logger LOGGER = Logger.getLogger(PushExecutor.class.getName());
+
+  static final int MAX_PLATFORM_THREADS = 64;
+  static final int MAX_QUEUED_PUSHES = 4 * MAX_PLATFORM_THREADS;
+  private static final long KEEP_ALIVE = 60;
+
+  private static ExecutorService executor;
+  private static boolean virtual;
+
+  private PushExecutor()
+  {
+  }
+
+  /**
+   * Returns the executor, creating it on first use.
+   *
+   * @return the executor for pushes
+   */
+  static synchronized ExecutorService get()
+  {
+    if (executor == null)
+    {
+      executor = newVirtualThreadExecutor();
+      virtual = executor != null;
+      if (executor == null)
+      {
+        executor = newPlatformThreadExecutor(MAX_PLATFORM_THREADS);
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * @return true if the pushes run on virtual threads
+   */
+  static synchronized boolean isVirtual()
+  {
+    get();
+    return virtual;
+  }
+
+  /**
+   * Shuts the executor down, pushes that are running or queued are completed.
+   * A later push creates a new executor.
+   */
+  static synchronized void shutdown()
+  {
+    if (executor != null)
+    {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  /**
+   * @return an executor that starts a virtual thread per task or null if the JVM has no virtual threads
+   */
+  static ExecutorService newVirtualThreadExecutor()
+  {
+    try
+    {
+      return (ExecutorService) java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (NoSuchMethodException e)
+    {
+      return null;
+    }
+    catch (ReflectiveOperationException | RuntimeException e)
+    {
+      // e.g. virtual threads are a preview feature of this JVM
+      LOGGER.log(Level.FINE, "Virtual threads are not available", e);
+      return null;
+    }
+  }
+
+  static ExecutorService newPlatformThreadExecutor(int maxThreads)
+  {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(MAX_QUEUED_PUSHES), new NamingThreadFactory(new DaemonThreadFactory(), "Logstash push"));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+}
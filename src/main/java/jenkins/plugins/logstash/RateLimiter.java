@@ -0,0 +1,126 @@
+package jenkins.plugins.logstash;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * Limits the number of log events and bytes per second with two token buckets.
+ *
+ * Each bucket holds the tokens of one second, so a short burst up to the limit is sent at once.
+ * An event is admitted when both buckets have enough tokens for it. An event that is larger than
+ * the byte limit is admitted when the byte bucket is full and leaves it in debt, so it can't block forever.
+ *
+ * One limiter is shared by all builds to protect the indexer, each build may have its own limiter in addition,
+ * see {@link BuildDataCache#getRateLimiter(hudson.model.Run, int, int)}.
+ */
+final class RateLimiter
+{
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  private static RateLimiter global;
+
+  private final int eventsPerSecond;
+  private final int bytesPerSecond;
+  private double events;
+  private double bytes;
+  private long refilled;
+
+  RateLimiter(int eventsPerSecond, int bytesPerSecond, long now)
+  {
+    this.eventsPerSecond = eventsPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.events = eventsPerSecond;
+    this.bytes = bytesPerSecond;
+    this.refilled = now;
+  }
+
+  /**
+   * Creates a limiter.
+   *
+   * @param eventsPerSecond maximum events per second, not limited if not positive
+   * @param bytesPerSecond maximum bytes per second, not limited if not positive
+   * @return the limiter or null if nothing is limited
+   */
+  @CheckForNull
+  static RateLimiter create(int eventsPerSecond, int bytesPerSecond)
+  {
+    if (eventsPerSecond <= 0 && bytesPerSecond <= 0)
+    {
+      return null;
+    }
+    return new RateLimiter(eventsPerSecond, bytesPerSecond, System.nanoTime());
+  }
+
+  /**
+   * Returns the limiter that is shared by all builds. A new limiter is created when the limits change.
+   *
+   * @param eventsPerSecond maximum events per second, not limited if not positive
+   * @param bytesPerSecond maximum bytes per second, not limited if not positive
+   * @return the shared limiter or null if nothing is limited
+   */
+  @CheckForNull
+  static synchronized RateLimiter global(int eventsPerSecond, int bytesPerSecond)
+  {
+    if (global == null || !global.hasLimits(eventsPerSecond, bytesPerSecond))
+    {
+      global = create(eventsPerSecond, bytesPerSecond);
+    }
+    return global;
+  }
+
+  /**
+   * @return true if the limiter has these limits
+   */
+  boolean hasLimits(int eventsPerSecond, int bytesPerSecond)
+  {
+    return this.eventsPerSecond == eventsPerSecond && this.bytesPerSecond == bytesPerSecond;
+  }
+
+  /**
+   * Takes the tokens for one event.
+   *
+   * @param size size of the event in bytes
+   * @return true if the event may be sent, false if it exceeds the limit
+   */
+  boolean tryAcquire(int size)
+  {
+    return tryAcquire(size, System.nanoTime());
+  }
+
+  synchronized boolean tryAcquire(int size, long now)
+  {
+    long elapsed = now - refilled;
+    if (elapsed > 0)
+    {
+      refilled = now;
+      events = refill(events, eventsPerSecond, elapsed);
+      bytes = refill(bytes, bytesPerSecond, elapsed);
+    }
+    if ((eventsPerSecond > 0 && events < 1) || (bytesPerSecond > 0 && bytes < Math.min(size, bytesPerSecond)))
+    {
+      return false;
+    }
+    events--;
+    bytes -= size;
+    return true;
+  }
+
+  /**
+   * Gives back the tokens of an event that was not sent after all, e.g. because another limiter rejected it.
+   *
+   * @param size size of the event in bytes
+   */
+  synchronized void release(int size)
+  {
+    events = Math.min(eventsPerSecond, events + 1);
+    bytes = Math.min(bytesPerSecond, bytes + size);
+  }
+
+  private static double refill(double tokens, int perSecond, long elapsed)
+  {
+    if (perSecond <= 0)
+    {
+      return 0;
+    }
+    return Math.min(perSecond, tokens + (double) elapsed * perSecond / NANOS_PER_SECOND);
+  }
+}
@@ -0,0 +1,424 @@
+package jenkins.plugins.logstash;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.logstash.persistence.EventBuffer;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+
+/**
+ * Keeps events on disk while an indexer is unavailable.
+ *
+ * The events are appended to memory-mapped segment files, so adding an event is a copy into the
+ * page cache without a system call. Each record is stored as its length, its CRC32 and the encoded event.
+ * A segment starts with its creation time and the position up to which its events were sent,
+ * so the queue continues where it stopped after a restart. Records that fail the CRC check,
+ * for example after a crash during a write, end the segment.
+ *
+ * The total size of the segments and the age of their events are limited. Events that would exceed
+ * the size are dropped, segments that are older than the maximum age are deleted.
+ *
+ * The data is written to disk by the operating system, it survives a restart of Jenkins but
+ * not necessarily a crash of the machine.
+ */
+final class SpillQueue implements OutageBuffer
+{
+  private static final Logger LOGGER = Logger.getLogger(SpillQueue.class.getName());
+
+  static final int DEFAULT_MAX_SIZE = 1024;
+  static final int DEFAULT_MAX_AGE = 24;
+  static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+  private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+  private static final String SUFFIX = ".spill";
+  // creation time and read position
+  private static final int HEADER_SIZE = 16;
+  private static final int READ_POSITION = 8;
+  // length and checksum
+  private static final int RECORD_HEADER_SIZE = 8;
+
+  private static final Map<File, SpillQueue> QUEUES = new HashMap<>();
+
+  private final File directory;
+  private final int segmentSize;
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private final CRC32 crc = new CRC32();
+  private long maxBytes;
+  private long maxAge;
+  private long nextSequence;
+
+  /**
+   * @param directory the directory of the segment files, existing segments are recovered
+   * @param segmentSize the size of new segments in bytes
+   * @param maxBytes the maximum size of all segments in bytes
+   * @param maxAge the maximum age of a segment in milliseconds
+   */
+  SpillQueue(File directory, int segmentSize, long maxBytes, long maxAge) throws IOException
+  {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+    if (!directory.isDirectory() && !directory.mkdirs())
+    {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    recover();
+  }
+
+  /**
+   * Returns the spill queue of an indexer. DAOs with the same description share one queue, so the events spilled
+   * by a DAO that was replaced, or by an earlier run of Jenkins, are sent by the current one.
+   *
+   * @param dao the DAO of the indexer
+   * @param maxSize the maximum size in MiB, the default is used if not positive
+   * @param maxAge the maximum age in hours, the default is used if not positive
+   * @return the spill queue
+   * @throws IOException if the segment files can't be created or read
+   */
+  static synchronized SpillQueue of(LogstashIndexerDao dao, int maxSize, int maxAge) throws IOException
+  {
+    File directory = new File(new File(Jenkins.getInstance().getRootDir(), "logs/logstash"),
+        dao.getDescription().replaceAll("[^A-Za-z0-9._-]", "_"));
+    long maxBytes = (maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE) * 1024L * 1024L;
+    long maxMillis = TimeUnit.HOURS.toMillis(maxAge > 0 ? maxAge : DEFAULT_MAX_AGE);
+    SpillQueue queue = QUEUES.get(directory);
+    if (queue == null)
+    {
+      int segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(SEGMENT_SIZE, maxBytes));
+      queue = new SpillQueue(directory, segmentSize, maxBytes, maxMillis);
+      QUEUES.put(directory, queue);
+    }
+    else
+    {
+      queue.setLimits(maxBytes, maxMillis);
+    }
+    return queue;
+  }
+
+  synchronized void setLimits(long maxBytes, long maxAge)
+  {
+    this.maxBytes = maxBytes;
+    this.maxAge = maxAge;
+  }
+
+  private void recover() throws IOException
+  {
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    if (files == null)
+    {
+      throw new IOException("Unable to list directory " + directory);
+    }
+    Arrays.sort(files);
+    for (File file : files)
+    {
+      long sequence;
+      try
+      {
+        sequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+      }
+      catch (NumberFormatException e)
+      {
+        LOGGER.log(Level.WARNING, "Ignoring unknown file " + file);
+        continue;
+      }
+      Segment segment = Segment.open(file, sequence, crc);
+      segments.add(segment);
+      nextSequence = sequence + 1;
+    }
+    if (!segments.isEmpty())
+    {
+      LOGGER.log(Level.INFO, "Recovered " + size() + " log events from " + directory);
+    }
+  }
+
+  @Override
+  public synchronized int add(EventBuffer events)
+  {
+    expire();
+    int dropped = 0;
+    for (int i = 0; i < events.getEventCount(); i++)
+    {
+      if (!append(events.getBuffer(), events.getEventOffset(i), events.getEventLength(i)))
+      {
+        dropped++;
+      }
+    }
+    return dropped;
+  }
+
+  private boolean append(byte[] bytes, int offset, int length)
+  {
+    Segment segment = segments.peekLast();
+    if (segment == null || !segment.hasRoom(length) || segment.created < System.currentTimeMillis() - maxAge / 2)
+    {
+      if (length > segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE || (long) (segments.size() + 1) * segmentSize > maxBytes)
+      {
+        return false;
+      }
+      try
+      {
+        segment = Segment.create(new File(directory, String.format("%019d%s", nextSequence, SUFFIX)), nextSequence, segmentSize);
+      }
+      catch (IOException e)
+      {
+        LOGGER.log(Level.WARNING, "Unable to create spill segment in " + directory, e);
+        return false;
+      }
+      nextSequence++;
+      segments.add(segment);
+    }
+    crc.reset();
+    crc.update(bytes, offset, length);
+    segment.append(bytes, offset, length, (int) crc.getValue());
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isEmpty()
+  {
+    return size() == 0;
+  }
+
+  @Override
+  public synchronized long size()
+  {
+    long size = 0;
+    for (Segment segment : segments)
+    {
+      size += segment.events;
+    }
+    return size;
+  }
+
+  @Override
+  public synchronized long peek(EventBuffer target, int maxEvents)
+  {
+    expire();
+    long position = -1;
+    int count = 0;
+    for (Segment segment : segments)
+    {
+      int offset = segment.readPosition;
+      while (count < maxEvents && offset < segment.writePosition)
+      {
+        int length = segment.buffer.getInt(offset);
+        ByteBuffer record = segment.record(offset, length);
+        target.beginEvent();
+        target.writeBytes(record);
+        target.endEvent();
+        offset += RECORD_HEADER_SIZE + length;
+        count++;
+      }
+      position = segment.position(offset);
+      if (count == maxEvents)
+      {
+        break;
+      }
+    }
+    return position;
+  }
+
+  @Override
+  public synchronized void remove(long position)
+  {
+    long sequence = position >>> 32;
+    int offset = (int) position;
+    Iterator<Segment> it = segments.iterator();
+    while (it.hasNext())
+    {
+      Segment segment = it.next();
+      if (segment.sequence > sequence)
+      {
+        break;
+      }
+      if (segment.sequence == sequence)
+      {
+        segment.consume(offset);
+      }
+      else
+      {
+        segment.consume(segment.writePosition);
+      }
+      // the last segment is still written to
+      if (segment.events == 0 && segment != segments.peekLast())
+      {
+        it.remove();
+        segment.delete();
+      }
+    }
+  }
+
+  /**
+   * Deletes segments that are older than the maximum age.
+   */
+  private void expire()
+  {
+    long oldest = System.currentTimeMillis() - maxAge;
+    while (segments.size() > 1 && segments.peekFirst().created < oldest)
+    {
+      Segment segment = segments.removeFirst();
+      if (segment.events > 0)
+      {
+        LOGGER.log(Level.WARNING, "Dropping " + segment.events + " log events older than " + maxAge + " ms from " + directory);
+      }
+      segment.delete();
+    }
+  }
+
+  private static final class Segment
+  {
+    private final long sequence;
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long created;
+    private int readPosition;
+    private int writePosition;
+    private int events;
+
+    private Segment(long sequence, File file, FileChannel channel, MappedByteBuffer buffer, long created)
+    {
+      this.sequence = sequence;
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.created = created;
+    }
+
+    static Segment create(File file, long sequence, int size) throws IOException
+    {
+      FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+      Segment segment = new Segment(sequence, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size),
+          System.currentTimeMillis());
+      segment.buffer.putLong(0, segment.created);
+      segment.buffer.putInt(READ_POSITION, HEADER_SIZE);
+      segment.buffer.putInt(HEADER_SIZE, 0);
+      segment.readPosition = HEADER_SIZE;
+      segment.writePosition = HEADER_SIZE;
+      return segment;
+    }
+
+    /**
+     * Opens an existing segment and finds the end of its valid records.
+     */
+    static Segment open(File file, long sequence, CRC32 crc) throws IOException
+    {
+      FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+      Segment segment = new Segment(sequence, file, channel, buffer, buffer.capacity() >= HEADER_SIZE ? buffer.getLong(0) : 0);
+      int position = buffer.capacity() >= HEADER_SIZE ? buffer.getInt(READ_POSITION) : buffer.capacity();
+      if (position < HEADER_SIZE || position > buffer.capacity())
+      {
+        position = buffer.capacity();
+      }
+      segment.readPosition = position;
+      while (position + RECORD_HEADER_SIZE <= buffer.capacity())
+      {
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - RECORD_HEADER_SIZE)
+        {
+          break;
+        }
+        crc.reset();
+        crc.update(segment.record(position, length));
+        if ((int) crc.getValue() != buffer.getInt(position + 4))
+        {
+          LOGGER.log(Level.WARNING, "Corrupt record at " + position + " in " + file + ", ignoring the rest of the segment");
+          break;
+        }
+        position += RECORD_HEADER_SIZE + length;
+        segment.events++;
+      }
+      segment.writePosition = position;
+      segment.terminate();
+      return segment;
+    }
+
+    boolean hasRoom(int length)
+    {
+      return writePosition + RECORD_HEADER_SIZE + length <= buffer.capacity();
+    }
+
+    void append(byte[] bytes, int offset, int length, int checksum)
+    {
+      // Buffer methods are called on Buffer, the covariant overrides of Java 9 do not exist on Java 8
+      ((Buffer) buffer).position(writePosition + RECORD_HEADER_SIZE);
+      buffer.put(bytes, offset, length);
+      buffer.putInt(writePosition + 4, checksum);
+      buffer.putInt(writePosition, length);
+      writePosition += RECORD_HEADER_SIZE + length;
+      events++;
+      terminate();
+    }
+
+    /**
+     * Marks the end of the records, so that old data after it is not taken for a record on recovery.
+     */
+    private void terminate()
+    {
+      if (writePosition + 4 <= buffer.capacity())
+      {
+        buffer.putInt(writePosition, 0);
+      }
+    }
+
+    ByteBuffer record(int position, int length)
+    {
+      ByteBuffer record = buffer.duplicate();
+      ((Buffer) record).limit(position + RECORD_HEADER_SIZE + length);
+      ((Buffer) record).position(position + RECORD_HEADER_SIZE);
+      return record;
+    }
+
+    long position(int offset)
+    {
+      return (sequence << 32) | offset;
+    }
+
+    /**
+     * Marks the records up to the offset as sent.
+     */
+    void consume(int offset)
+    {
+      while (readPosition < offset && readPosition < writePosition)
+      {
+        readPosition += RECORD_HEADER_SIZE + buffer.getInt(readPosition);
+        events--;
+      }
+      buffer.putInt(READ_POSITION, readPosition);
+    }
+
+    void delete()
+    {
+      try
+      {
+        channel.close();
+      }
+      catch (IOException e)
+      {
+        LOGGER.log(Level.FINE, "Failed to close " + file, e);
+      }
+      // a mapped file can't be deleted on Windows until the mapping is garbage collected
+      if (!file.delete())
+      {
+        file.deleteOnExit();
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package jenkins.plugins.logstash;
+
+import java.io.Serializable;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+
+/**
+ * The settings of a {@link LogstashWriter}, taken from the {@link LogstashConfiguration} and the
+ * {@link LogstashJobProperty} of the job. Unset values are replaced by their defaults.
+ *
+ * The settings are serializable, so a writer can be created where there is no configuration,
+ * see {@link AgentSnapshot}.
+ */
+final class WriterSettings implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  final boolean asynchronous;
+  final int batchMaxLines;
+  final int batchMaxBytes;
+  final long batchMaxDelay;
+  final boolean multiline;
+  final boolean multilineIndented;
+  final boolean multilineStackTraces;
+  final Pattern multilinePattern;
+  final int multilineMaxLines;
+  final int multilineMaxBytes;
+  final long multilineTimeout;
+  final OutagePolicy outagePolicy;
+  final int outageBufferSize;
+  final int spillMaxSize;
+  final int spillMaxAge;
+  final int buildRateLimitEvents;
+  final int buildRateLimitBytes;
+  final int rateLimitEvents;
+  final int rateLimitBytes;
+  final EventSchema eventSchema;
+
+  /**
+   * @param configuration the global configuration
+   * @param property the property of the job, may be null
+   */
+  WriterSettings(LogstashConfiguration configuration, @CheckForNull LogstashJobProperty property)
+  {
+    this(configuration, property, configuration.getOutagePolicy());
+  }
+
+  /**
+   * Takes the settings of a writer on an agent. Lines can't be spilled to the disk of the controller there,
+   * so they are buffered in memory instead.
+   *
+   * @param configuration the global configuration
+   * @param property the property of the job, may be null
+   * @return the settings
+   */
+  static WriterSettings forAgent(LogstashConfiguration configuration, @CheckForNull LogstashJobProperty property)
+  {
+    OutagePolicy policy = configuration.getOutagePolicy();
+    return new WriterSettings(configuration, property, policy == OutagePolicy.SPILL ? OutagePolicy.BUFFER : policy);
+  }
+
+  private WriterSettings(LogstashConfiguration configuration, LogstashJobProperty property, OutagePolicy outagePolicy)
+  {
+    this.asynchronous = configuration.isAsynchronous();
+    this.batchMaxLines = configuration.getBatchMaxLines();
+    this.batchMaxBytes = configuration.getBatchMaxBytes() > 0 ? configuration.getBatchMaxBytes() : Integer.MAX_VALUE;
+    this.batchMaxDelay = configuration.getBatchMaxDelay() > 0 ? configuration.getBatchMaxDelay()
+        : LogstashConfiguration.DEFAULT_BATCH_MAX_DELAY;
+    this.multiline = configuration.isMultiline();
+    this.multilineIndented = configuration.isMultilineIndented();
+    this.multilineStackTraces = configuration.isMultilineStackTraces();
+    this.multilinePattern = multiline ? configuration.getCompiledMultilinePattern() : null;
+    this.multilineMaxLines = configuration.getMultilineMaxLines() > 0 ? configuration.getMultilineMaxLines()
+        : MultilineAggregator.DEFAULT_MAX_LINES;
+    this.multilineMaxBytes = configuration.getMultilineMaxBytes() > 0 ? configuration.getMultilineMaxBytes()
+        : MultilineAggregator.DEFAULT_MAX_BYTES;
+    this.multilineTimeout = configuration.getMultilineTimeout() > 0 ? configuration.getMultilineTimeout()
+        : MultilineAggregator.DEFAULT_TIMEOUT;
+    this.outagePolicy = outagePolicy;
+    this.outageBufferSize = configuration.getOutageBufferSize();
+    this.spillMaxSize = configuration.getSpillMaxSize();
+    this.spillMaxAge = configuration.getSpillMaxAge();
+    this.buildRateLimitEvents = property != null && property.getRateLimitEvents() > 0 ? property.getRateLimitEvents()
+        : configuration.getBuildRateLimitEvents();
+    this.buildRateLimitBytes = property != null && property.getRateLimitBytes() > 0 ? property.getRateLimitBytes()
+        : configuration.getBuildRateLimitBytes();
+    this.rateLimitEvents = configuration.getRateLimitEvents();
+    this.rateLimitBytes = configuration.getRateLimitBytes();
+    this.eventSchema = configuration.getEventSchema() != null ? configuration.getEventSchema() : EventSchema.FULL;
+  }
+
+  /**
+   * @return true if lines are collected in batches before they are sent
+   */
+  boolean isBatching()
+  {
+    return batchMaxLines > 1;
+  }
+
+  /**
+   * @return true if the build data is sent in header events instead of every event
+   */
+  boolean isHeaderSchema()
+  {
+    return eventSchema == EventSchema.HEADER;
+  }
+}
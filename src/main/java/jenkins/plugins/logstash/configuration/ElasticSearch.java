@@ -25,12 +25,44 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
   private Secret password;
   private URI uri;
   private String mimeType;
+  private boolean bulk;
+  private int connectTimeout = ElasticSearchDao.DEFAULT_CONNECT_TIMEOUT;
+  private int socketTimeout = ElasticSearchDao.DEFAULT_SOCKET_TIMEOUT;
+  private int maxConnections = ElasticSearchDao.DEFAULT_MAX_CONNECTIONS;
+  private int keepAlive = ElasticSearchDao.DEFAULT_KEEP_ALIVE;
+  private int idleTimeout = ElasticSearchDao.DEFAULT_IDLE_TIMEOUT;
 
   @DataBoundConstructor
   public ElasticSearch()
   {
   }
 
+  protected Object readResolve()
+  {
+    // configurations saved by older versions don't contain the connection settings
+    if (connectTimeout <= 0)
+    {
+      connectTimeout = ElasticSearchDao.DEFAULT_CONNECT_TIMEOUT;
+    }
+    if (socketTimeout <= 0)
+    {
+      socketTimeout = ElasticSearchDao.DEFAULT_SOCKET_TIMEOUT;
+    }
+    if (maxConnections <= 0)
+    {
+      maxConnections = ElasticSearchDao.DEFAULT_MAX_CONNECTIONS;
+    }
+    if (keepAlive <= 0)
+    {
+      keepAlive = ElasticSearchDao.DEFAULT_KEEP_ALIVE;
+    }
+    if (idleTimeout <= 0)
+    {
+      idleTimeout = ElasticSearchDao.DEFAULT_IDLE_TIMEOUT;
+    }
+    return this;
+  }
+
   public URI getUri()
   {
     return uri;
@@ -85,7 +117,73 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
   public String getMimeType() {
     return mimeType;
   }
-  
+
+  public boolean isBulk()
+  {
+    return bulk;
+  }
+
+  @DataBoundSetter
+  public void setBulk(boolean bulk)
+  {
+    this.bulk = bulk;
+  }
+
+  public int getConnectTimeout()
+  {
+    return connectTimeout;
+  }
+
+  @DataBoundSetter
+  public void setConnectTimeout(int connectTimeout)
+  {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getSocketTimeout()
+  {
+    return socketTimeout;
+  }
+
+  @DataBoundSetter
+  public void setSocketTimeout(int socketTimeout)
+  {
+    this.socketTimeout = socketTimeout;
+  }
+
+  public int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+  @DataBoundSetter
+  public void setMaxConnections(int maxConnections)
+  {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getKeepAlive()
+  {
+    return keepAlive;
+  }
+
+  @DataBoundSetter
+  public void setKeepAlive(int keepAlive)
+  {
+    this.keepAlive = keepAlive;
+  }
+
+  public int getIdleTimeout()
+  {
+    return idleTimeout;
+  }
+
+  @DataBoundSetter
+  public void setIdleTimeout(int idleTimeout)
+  {
+    this.idleTimeout = idleTimeout;
+  }
+
   @Override
   public boolean equals(Object obj)
   {
@@ -109,6 +207,16 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
     {
       return false;
     }
+    if (bulk != other.bulk)
+    {
+      return false;
+    }
+    if (connectTimeout != other.connectTimeout || socketTimeout != other.socketTimeout
+        || maxConnections != other.maxConnections || keepAlive != other.keepAlive
+        || idleTimeout != other.idleTimeout)
+    {
+      return false;
+    }
     if (username == null)
     {
       if (other.username != null)
@@ -133,6 +241,12 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
     result = prime * result + ((uri == null) ? 0 : uri.hashCode());
     result = prime * result + ((username == null) ? 0 : username.hashCode());
     result = prime * result + Secret.toString(password).hashCode();
+    result = prime * result + (bulk ? 1231 : 1237);
+    result = prime * result + connectTimeout;
+    result = prime * result + socketTimeout;
+    result = prime * result + maxConnections;
+    result = prime * result + keepAlive;
+    result = prime * result + idleTimeout;
     return result;
   }
 
@@ -141,6 +255,12 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
   {
     ElasticSearchDao esDao = new ElasticSearchDao(getUri(), username, Secret.toString(password));
     esDao.setMimeType(getMimeType());
+    esDao.setBulk(bulk);
+    esDao.setConnectTimeout(connectTimeout);
+    esDao.setSocketTimeout(socketTimeout);
+    esDao.setMaxConnections(maxConnections);
+    esDao.setKeepAlive(keepAlive);
+    esDao.setIdleTimeout(idleTimeout);
     return esDao;
   }
 
@@ -186,6 +306,32 @@ public class ElasticSearch extends LogstashIndexer<ElasticSearchDao>
       }
       return FormValidation.ok();
     }
+
+    public FormValidation doCheckConnectTimeout(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckSocketTimeout(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckMaxConnections(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckKeepAlive(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckIdleTimeout(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
     public FormValidation doCheckMimeType(@QueryParameter("value") String value) {
       if (StringUtils.isBlank(value)) {
         return FormValidation.error(Messages.ValueIsRequired());
@@ -1,5 +1,7 @@
 package jenkins.plugins.logstash.configuration;
 
+import java.io.Serializable;
+
 import javax.annotation.Nonnull;
 
 import org.apache.commons.lang.StringUtils;
@@ -22,13 +24,16 @@ import net.sf.json.JSONObject;
  * Extension point for logstash indexers.
  * This extension point provides the configuration for the indexer. You also have to implement the actual
  * indexer in a separate class extending {@link AbstractLogstashIndexerDao}.
+ * The configuration is serializable, so it can be sent to agents that send log lines themselves.
  *
  * @param <T> The class implementing the push to the indexer
  */
 public abstract class LogstashIndexer<T extends AbstractLogstashIndexerDao>
     extends AbstractDescribableImpl<LogstashIndexer<?>>
-    implements ExtensionPoint, ReconfigurableDescribable<LogstashIndexer<?>>
+    implements ExtensionPoint, ReconfigurableDescribable<LogstashIndexer<?>>, Serializable
 {
+  private static final long serialVersionUID = 1L;
+
   protected transient T instance;
 
   /**
@@ -47,6 +52,17 @@ public abstract class LogstashIndexer<T extends AbstractLogstashIndexerDao>
     return instance;
   }
 
+  /**
+   * Releases the connections of the indexer instance, if one was created.
+   */
+  public synchronized void close()
+  {
+    if (instance != null)
+    {
+      instance.close();
+    }
+  }
+
   /**
    * Purpose of this method is to validate the inputs (if required) and if found
    * erroneous throw an exception so that it will be bubbled up to the UI.
@@ -101,6 +117,50 @@ public abstract class LogstashIndexer<T extends AbstractLogstashIndexerDao>
       return FormValidation.ok();
     }
 
+    /**
+     * Validates a setting that has to be a positive integer.
+     *
+     * @param value the value of the form field
+     * @return the result of the validation
+     */
+    protected FormValidation checkPositive(String value)
+    {
+      try
+      {
+        if (Integer.parseInt(value) <= 0)
+        {
+          return FormValidation.error(Messages.ValueIsPositiveInt());
+        }
+      }
+      catch (NumberFormatException e)
+      {
+        return FormValidation.error(Messages.ValueIsInt());
+      }
+      return FormValidation.ok();
+    }
+
+    /**
+     * Validates a setting that has to be zero or a positive integer.
+     *
+     * @param value the value of the form field
+     * @return the result of the validation
+     */
+    protected FormValidation checkNonNegative(String value)
+    {
+      try
+      {
+        if (Integer.parseInt(value) < 0)
+        {
+          return FormValidation.error(Messages.ValueIsNonNegativeInt());
+        }
+      }
+      catch (NumberFormatException e)
+      {
+        return FormValidation.error(Messages.ValueIsInt());
+      }
+      return FormValidation.ok();
+    }
+
     public abstract int getDefaultPort();
   }
 
@@ -10,18 +10,38 @@ import hudson.util.FormValidation;
 import hudson.util.Secret;
 import jenkins.plugins.logstash.Messages;
 import jenkins.plugins.logstash.persistence.RedisDao;
+import redis.clients.jedis.JedisPoolConfig;
 
 public class Redis extends HostBasedLogstashIndexer<RedisDao>
 {
+  public static final int DEFAULT_MAX_TOTAL = 8;
+  public static final int DEFAULT_MAX_IDLE = 8;
 
   protected String key;
   protected Secret password;
+  private int maxTotal = DEFAULT_MAX_TOTAL;
+  private int maxIdle = DEFAULT_MAX_IDLE;
+  private int minIdle;
 
   @DataBoundConstructor
   public Redis()
   {
   }
 
+  protected Object readResolve()
+  {
+    // configurations saved by older versions don't contain the pool settings
+    if (maxTotal <= 0)
+    {
+      maxTotal = DEFAULT_MAX_TOTAL;
+    }
+    if (maxIdle <= 0)
+    {
+      maxIdle = DEFAULT_MAX_IDLE;
+    }
+    return this;
+  }
+
   public String getKey()
   {
     return key;
@@ -44,6 +64,39 @@ public class Redis extends HostBasedLogstashIndexer<RedisDao>
     this.password = Secret.fromString(password);
   }
 
+  public int getMaxTotal()
+  {
+    return maxTotal;
+  }
+
+  @DataBoundSetter
+  public void setMaxTotal(int maxTotal)
+  {
+    this.maxTotal = maxTotal;
+  }
+
+  public int getMaxIdle()
+  {
+    return maxIdle;
+  }
+
+  @DataBoundSetter
+  public void setMaxIdle(int maxIdle)
+  {
+    this.maxIdle = maxIdle;
+  }
+
+  public int getMinIdle()
+  {
+    return minIdle;
+  }
+
+  @DataBoundSetter
+  public void setMinIdle(int minIdle)
+  {
+    this.minIdle = minIdle;
+  }
+
   @Override
   public boolean equals(Object obj)
   {
@@ -67,6 +120,10 @@ public class Redis extends HostBasedLogstashIndexer<RedisDao>
     {
       return false;
     }
+    if (maxTotal != other.maxTotal || maxIdle != other.maxIdle || minIdle != other.minIdle)
+    {
+      return false;
+    }
     return true;
   }
 
@@ -77,6 +134,9 @@ public class Redis extends HostBasedLogstashIndexer<RedisDao>
     int result = super.hashCode();
     result = prime * result + ((key == null) ? 0 : key.hashCode());
     result = prime * result + Secret.toString(password).hashCode();
+    result = prime * result + maxTotal;
+    result = prime * result + maxIdle;
+    result = prime * result + minIdle;
     return result;
   }
 
@@ -84,7 +144,11 @@ public class Redis extends HostBasedLogstashIndexer<RedisDao>
   @Override
   public RedisDao createIndexerInstance()
   {
-    return new RedisDao(getHost(), getPort(), key, Secret.toString(password));
+    JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMaxTotal(maxTotal);
+    poolConfig.setMaxIdle(maxIdle);
+    poolConfig.setMinIdle(minIdle);
+    return new RedisDao(getHost(), getPort(), key, Secret.toString(password), poolConfig);
   }
 
   @Extension
@@ -113,5 +177,19 @@ public class Redis extends HostBasedLogstashIndexer<RedisDao>
       return FormValidation.ok();
     }
 
+    public FormValidation doCheckMaxTotal(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckMaxIdle(@QueryParameter("value") String value)
+    {
+      return checkPositive(value);
+    }
+
+    public FormValidation doCheckMinIdle(@QueryParameter("value") String value)
+    {
+      return checkNonNegative(value);
+    }
   }
 }
@@ -24,10 +24,10 @@
 
 package jenkins.plugins.logstash.persistence;
 
-import java.util.Calendar;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 
-import jenkins.plugins.logstash.LogstashConfiguration;
 import net.sf.json.JSONObject;
 
 /**
@@ -37,6 +37,20 @@ import net.sf.json.JSONObject;
  * @since 1.0.0
  */
 public abstract class AbstractLogstashIndexerDao implements LogstashIndexerDao {
+  private static final byte[] DATA = ascii("{\"data\":");
+  private static final byte[] MESSAGE = ascii(",\"message\":[");
+  private static final byte[] SOURCE = ascii("],\"source\":\"jenkins\"");
+  private static final byte[] SOURCE_HOST = ascii(",\"source_host\":");
+  private static final byte[] BUILD_TIMESTAMP = ascii(",\"@buildTimestamp\":");
+  private static final byte[] TIMESTAMP = ascii(",\"@timestamp\":");
+  private static final byte[] VERSION = ascii(",\"@version\":1}");
+  private static final byte[] BUILD_ID = ascii(",\"buildId\":");
+  private static final byte[] LINES_BUILD_ID = ascii("{\"buildId\":");
+  private static final byte[] SEQ = ascii(",\"seq\":");
+
+  private static byte[] ascii(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
 
   @Override
   public JSONObject buildPayload(BuildData buildData, String jenkinsUrl, List<String> logLines) {
@@ -46,10 +60,83 @@ public abstract class AbstractLogstashIndexerDao implements LogstashIndexerDao {
     payload.put("source", "jenkins");
     payload.put("source_host", jenkinsUrl);
     payload.put("@buildTimestamp", buildData.getTimestamp());
-    payload.put("@timestamp", LogstashConfiguration.getInstance().getDateFormatter().format(Calendar.getInstance().getTime()));
+    payload.put("@timestamp", Timestamps.now());
     payload.put("@version", 1);
 
     return payload;
   }
 
+  @Override
+  public void encodePayload(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines) {
+    encodePayload(events, buildData, jenkinsUrl, logLines, System.currentTimeMillis());
+  }
+
+  /**
+   * Writes the same event as {@link #buildPayload(BuildData, String, List)} directly as bytes.
+   * The build data is rendered once per build and copied into every event.
+   */
+  @Override
+  public void encodePayload(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines, long timestamp) {
+    encode(events, buildData, jenkinsUrl, logLines, timestamp, null);
+  }
+
+  /**
+   * Writes the event of {@link #encodePayload(EventBuffer, BuildData, String, List, long)} without lines
+   * and with the id of the build.
+   */
+  @Override
+  public void encodeHeader(EventBuffer events, BuildData buildData, String jenkinsUrl, long timestamp) {
+    encode(events, buildData, jenkinsUrl, Collections.<String>emptyList(), timestamp, buildData.getBuildId());
+  }
+
+  @Override
+  public void encodeLines(EventBuffer events, String buildId, long sequence, List<String> logLines, long timestamp) {
+    events.beginEvent();
+    events.writeBytes(LINES_BUILD_ID);
+    events.writeString(buildId);
+    events.writeBytes(SEQ);
+    events.writeLong(sequence);
+    events.writeBytes(TIMESTAMP);
+    events.writeString(Timestamps.format(timestamp));
+    events.writeBytes(MESSAGE);
+    writeLines(events, logLines);
+    events.writeByte(']');
+    events.writeByte('}');
+    events.endEvent();
+  }
+
+  private void encode(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines, long timestamp,
+      String buildId) {
+    events.beginEvent();
+    events.writeBytes(DATA);
+    events.writeBytes(buildData.toJsonBytes());
+    events.writeBytes(MESSAGE);
+    writeLines(events, logLines);
+    events.writeBytes(SOURCE);
+    if (jenkinsUrl != null) {
+      events.writeBytes(SOURCE_HOST);
+      events.writeString(jenkinsUrl);
+    }
+    if (buildData.getTimestamp() != null) {
+      events.writeBytes(BUILD_TIMESTAMP);
+      events.writeString(buildData.getTimestamp());
+    }
+    if (buildId != null) {
+      events.writeBytes(BUILD_ID);
+      events.writeString(buildId);
+    }
+    events.writeBytes(TIMESTAMP);
+    events.writeString(Timestamps.format(timestamp));
+    events.writeBytes(VERSION);
+    events.endEvent();
+  }
+
+  private static void writeLines(EventBuffer events, List<String> logLines) {
+    for (int i = 0; i < logLines.size(); i++) {
+      if (i > 0) {
+        events.writeByte(',');
+      }
+      events.writeString(logLines.get(i));
+    }
+  }
 }
@@ -48,7 +48,11 @@ import java.util.logging.Logger;
 
 import static java.util.logging.Level.WARNING;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
@@ -62,15 +66,22 @@ import com.google.gson.GsonBuilder;
  * @author Rusty Gerard
  * @since 1.0.0
  */
-public class BuildData {
+public class BuildData implements Serializable, Cloneable {
+  private static final long serialVersionUID = 1L;
+  // the duration is refreshed in steps of this size, so the rendered JSON is reused for the events in between
+  private static final long DURATION_RESOLUTION = 1000;
   // ISO 8601 date format
   private final static Logger LOGGER = Logger.getLogger(MethodHandles.lookup().lookupClass().getCanonicalName());
-  public static class TestData {
+  // Gson instances are thread-safe
+  private final static Gson GSON = new GsonBuilder().create();
+  public static class TestData implements Serializable {
+    private static final long serialVersionUID = 1L;
     private int totalCount, skipCount, failCount, passCount;
     private List<FailedTest> failedTestsWithErrorDetail;
     private List<String> failedTests;
 
-    public static class FailedTest {
+    public static class FailedTest implements Serializable {
+      private static final long serialVersionUID = 1L;
       private final String fullName, errorDetails;
       public FailedTest(String fullName, String errorDetails) {
         super();
@@ -171,6 +182,10 @@ public class BuildData {
   private Map<String, String> buildVariables;
   private Set<String> sensitiveBuildVariables;
   private TestData testResults = null;
+  // the rendered JSON, reused for every event until the data changes
+  private transient String json;
+  private transient JSONObject jsonObject;
+  private transient byte[] jsonBytes;
 
   // Freestyle project build
   public BuildData(AbstractBuild<?, ?> build, Date currentTime, TaskListener listener) {
@@ -233,19 +248,7 @@ public class BuildData {
 
     this.build = build;
     Executor executor = build.getExecutor();
-    if (executor == null) {
-        buildHost = "master";
-        buildLabel = "master";
-    } else {
-        Node node = executor.getOwner().getNode();
-        if (node == null) {
-          buildHost = "master";
-          buildLabel = "master";
-        } else {
-          buildHost = StringUtils.isBlank(node.getDisplayName()) ? "master" : node.getDisplayName();
-          buildLabel = StringUtils.isBlank(node.getLabelString()) ? "master" : node.getLabelString();
-        }
-    }
+    setNode(executor == null ? null : executor.getOwner().getNode());
 
     id = build.getId();
     projectName = build.getParent().getName();
@@ -257,31 +260,144 @@ public class BuildData {
     buildNum = build.getNumber();
     buildDuration = currentTime.getTime() - build.getStartTimeInMillis();
     timestamp = LogstashConfiguration.getInstance().getDateFormatter().format(build.getTimestamp().getTime());
-    updateResult();
+    updateStatus();
+  }
+
+  private void setNode(Node node) {
+    if (node == null) {
+      buildHost = "master";
+      buildLabel = "master";
+    } else {
+      buildHost = StringUtils.isBlank(node.getDisplayName()) ? "master" : node.getDisplayName();
+      buildLabel = StringUtils.isBlank(node.getLabelString()) ? "master" : node.getLabelString();
+    }
+  }
+
+  /**
+   * Returns a copy of the data for lines that are written on another node than the one the build runs on,
+   * e.g. by a Pipeline step on an agent. The copy has the host and the label of that node.
+   *
+   * @param node the node or null if it is not known, then the copy has neither host nor label
+   * @return the copy
+   */
+  public synchronized BuildData forNode(Node node) {
+    BuildData copy;
+    try {
+      copy = (BuildData) clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+    if (node != null) {
+      copy.setNode(node);
+    } else {
+      copy.buildHost = null;
+      copy.buildLabel = null;
+    }
+    copy.invalidate();
+    return copy;
+  }
+
+  /**
+   * Picks up the result and the test results once they are available and refreshes the duration of the build.
+   *
+   * @return true if the data has changed
+   */
+  public synchronized boolean updateResult()
+  {
+    if (build == null)
+    {
+      // a snapshot that was sent to an agent
+      return false;
+    }
+    boolean changed = updateStatus();
+    long duration = System.currentTimeMillis() - build.getStartTimeInMillis();
+    if (changed || duration - buildDuration >= DURATION_RESOLUTION)
+    {
+      buildDuration = duration;
+      invalidate();
+      changed = true;
+    }
+    return changed;
   }
 
-  public void updateResult()
+  private boolean updateStatus()
   {
+    boolean changed = false;
     if (result == null && build.getResult() != null)
     {
       Result result = build.getResult();
       this.result = result == null ? null : result.toString();
+      changed = true;
     }
     Action testResultAction = build.getAction(AbstractTestResultAction.class);
     if (testResults == null && testResultAction != null) {
       testResults = new TestData(testResultAction);
+      changed = true;
     }
+    if (changed) {
+      invalidate();
+    }
+    return changed;
   }
 
+  // the time stamp is transient so it is not rendered with the data, but it is part of a snapshot
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeObject(timestamp);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    timestamp = (String) in.readObject();
+  }
+
+  /**
+   * Returns the id that identifies the build across all jobs, the full name of the job and the number of the build.
+   *
+   * @return the build id, e.g. {@code folder/job#42}
+   */
+  public String getBuildId() {
+    return fullProjectName + "#" + buildNum;
+  }
+
+  private synchronized void invalidate() {
+    json = null;
+    jsonObject = null;
+    jsonBytes = null;
+  }
+
+  /**
+   * Renders the data as JSON. The result is cached until the data changes.
+   */
   @Override
-  public String toString() {
-    Gson gson = new GsonBuilder().create();
-    return gson.toJson(this);
+  public synchronized String toString() {
+    if (json == null) {
+      json = GSON.toJson(this);
+    }
+    return json;
   }
 
-  public JSONObject toJson() {
-    String data = toString();
-    return JSONObject.fromObject(data);
+  /**
+   * Returns the data as JSON object. The object is cached until the data changes,
+   * so callers must not modify it.
+   * {@link JSONObject#put(Object, Object)} copies JSON values, so it can be added to a payload as is.
+   */
+  public synchronized JSONObject toJson() {
+    if (jsonObject == null) {
+      jsonObject = JSONObject.fromObject(toString());
+    }
+    return jsonObject;
+  }
+
+  /**
+   * Returns the data as UTF-8 encoded JSON. The array is cached until the data changes,
+   * so callers must not modify it.
+   */
+  public synchronized byte[] toJsonBytes() {
+    if (jsonBytes == null) {
+      jsonBytes = toString().getBytes(StandardCharsets.UTF_8);
+    }
+    return jsonBytes;
   }
 
   public String getId() {
@@ -290,6 +406,7 @@ public class BuildData {
 
   public void setId(String id) {
     this.id = id;
+    invalidate();
   }
 
   public String getResult() {
@@ -298,6 +415,7 @@ public class BuildData {
 
   public void setResult(Result result) {
     this.result = result.toString();
+    invalidate();
   }
 
   public String getProjectName() {
@@ -306,6 +424,7 @@ public class BuildData {
 
   public void setProjectName(String projectName) {
     this.projectName = projectName;
+    invalidate();
   }
 
   public String getFullProjectName() {
@@ -314,6 +433,7 @@ public class BuildData {
 
   public void setFullProjectName(String fullProjectName) {
     this.fullProjectName = fullProjectName;
+    invalidate();
   }
 
   public String getDisplayName() {
@@ -322,6 +442,7 @@ public class BuildData {
 
   public void setDisplayName(String displayName) {
     this.displayName = displayName;
+    invalidate();
   }
 
   public String getFullDisplayName() {
@@ -330,6 +451,7 @@ public class BuildData {
 
   public void setFullDisplayName(String fullDisplayName) {
     this.fullDisplayName = fullDisplayName;
+    invalidate();
   }
 
   public String getDescription() {
@@ -338,6 +460,7 @@ public class BuildData {
 
   public void setDescription(String description) {
     this.description = description;
+    invalidate();
   }
 
   public String getUrl() {
@@ -346,6 +469,7 @@ public class BuildData {
 
   public void setUrl(String url) {
     this.url = url;
+    invalidate();
   }
 
   public String getBuildHost() {
@@ -354,6 +478,7 @@ public class BuildData {
 
   public void setBuildHost(String buildHost) {
     this.buildHost = buildHost;
+    invalidate();
   }
 
   public String getBuildLabel() {
@@ -362,6 +487,7 @@ public class BuildData {
 
   public void setBuildLabel(String buildLabel) {
     this.buildLabel = buildLabel;
+    invalidate();
   }
 
   public int getBuildNum() {
@@ -370,6 +496,7 @@ public class BuildData {
 
   public void setBuildNum(int buildNum) {
     this.buildNum = buildNum;
+    invalidate();
   }
 
   public long getBuildDuration() {
@@ -378,6 +505,7 @@ public class BuildData {
 
   public void setBuildDuration(long buildDuration) {
     this.buildDuration = buildDuration;
+    invalidate();
   }
 
   public String getTimestamp() {
@@ -386,6 +514,7 @@ public class BuildData {
 
   public void setTimestamp(Calendar timestamp) {
     this.timestamp = LogstashConfiguration.getInstance().getDateFormatter().format(timestamp.getTime());
+    invalidate();
   }
 
   public String getRootProjectName() {
@@ -394,6 +523,7 @@ public class BuildData {
 
   public void setRootProjectName(String rootProjectName) {
     this.rootProjectName = rootProjectName;
+    invalidate();
   }
 
   public String getRootFullProjectName() {
@@ -402,6 +532,7 @@ public class BuildData {
 
   public void setRootFullProjectName(String rootFullProjectName) {
     this.rootFullProjectName = rootFullProjectName;
+    invalidate();
   }
 
   public String getRootProjectDisplayName() {
@@ -410,6 +541,7 @@ public class BuildData {
 
   public void setRootProjectDisplayName(String rootProjectDisplayName) {
     this.rootProjectDisplayName = rootProjectDisplayName;
+    invalidate();
   }
 
   public int getRootBuildNum() {
@@ -418,6 +550,7 @@ public class BuildData {
 
   public void setRootBuildNum(int rootBuildNum) {
     this.rootBuildNum = rootBuildNum;
+    invalidate();
   }
 
   public Map<String, String> getBuildVariables() {
@@ -426,6 +559,7 @@ public class BuildData {
 
   public void setBuildVariables(Map<String, String> buildVariables) {
     this.buildVariables = buildVariables;
+    invalidate();
   }
 
   public Set<String> getSensitiveBuildVariables() {
@@ -434,6 +568,7 @@ public class BuildData {
 
   public void setSensitiveBuildVariables(Set<String> sensitiveBuildVariables) {
     this.sensitiveBuildVariables = sensitiveBuildVariables;
+    invalidate();
   }
 
   public TestData getTestResults() {
@@ -442,5 +577,6 @@ public class BuildData {
 
   public void setTestResults(TestData testResults) {
     this.testResults = testResults;
+    invalidate();
   }
 }
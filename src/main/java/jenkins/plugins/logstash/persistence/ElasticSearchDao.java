@@ -29,16 +29,27 @@ import static com.google.common.collect.Ranges.closedOpen;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.util.EntityUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
@@ -47,29 +58,61 @@ import java.net.URISyntaxException;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.google.common.collect.Range;
 
 import jenkins.plugins.logstash.configuration.ElasticSearch;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
 
 
 /**
  * Elastic Search Data Access Object.
  *
+ * All pushes share one long-lived HTTP client backed by a connection pool,
+ * so connections (and TLS sessions) are reused between log events.
+ *
  * @author Liam Newman
  * @since 1.0.4
  */
 public class ElasticSearchDao extends AbstractLogstashIndexerDao {
 
+  private static final Logger LOGGER = Logger.getLogger(ElasticSearchDao.class.getName());
+  private static final String BULK_ACTION = "{\"index\":{}}\n";
+  private static final byte[] BULK_ACTION_BYTES = BULK_ACTION.getBytes(StandardCharsets.UTF_8);
+  private static final ContentType BULK_CONTENT_TYPE = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+  public static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+  public static final int DEFAULT_MAX_CONNECTIONS = 10;
+  public static final int DEFAULT_KEEP_ALIVE = 60;
+  public static final int DEFAULT_IDLE_TIMEOUT = 30;
+
   private final HttpClientBuilder clientBuilder;
   private final URI uri;
+  private final URI bulkUri;
   private final String auth;
   private final Range<Integer> successCodes = closedOpen(200,300);
 
   private String username;
   private String password;
   private String mimeType;
-  
+  private boolean bulk;
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+  private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+  private int keepAlive = DEFAULT_KEEP_ALIVE;
+  private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private CloseableHttpClient httpClient;
+
 
   //primary constructor used by indexer factory
   public ElasticSearchDao(URI uri, String username, String password) {
@@ -98,13 +141,22 @@ public class ElasticSearchDao extends AbstractLogstashIndexerDao {
       throw new IllegalArgumentException(e);
     }
 
+    try
+    {
+      bulkUri = new URIBuilder(uri).setPath(StringUtils.removeEnd(uri.getPath(), "/") + "/_bulk").build();
+    }
+    catch (URISyntaxException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+
     if (StringUtils.isNotBlank(username)) {
       auth = Base64.encodeBase64String((username + ":" + StringUtils.defaultString(password)).getBytes(StandardCharsets.UTF_8));
     } else {
       auth = null;
     }
 
-    clientBuilder = factory == null ? HttpClientBuilder.create() : factory;
+    clientBuilder = factory;
   }
 
 
@@ -149,17 +201,173 @@ public class ElasticSearchDao extends AbstractLogstashIndexerDao {
   public void setMimeType(String mimeType) {
     this.mimeType = mimeType;
   }
-  
+
+  public boolean isBulk()
+  {
+    return bulk;
+  }
+
+  /**
+   * Sends the payloads with the _bulk API, the uri of the indexer is then used as prefix of the _bulk endpoint.
+   *
+   * @param bulk true to use the _bulk API
+   */
+  public void setBulk(boolean bulk)
+  {
+    this.bulk = bulk;
+  }
+
+  URI getBulkUri()
+  {
+    return bulkUri;
+  }
+
+  public int getConnectTimeout()
+  {
+    return connectTimeout;
+  }
+
+  /**
+   * @param connectTimeout timeout in milliseconds for establishing a connection
+   */
+  public void setConnectTimeout(int connectTimeout)
+  {
+    this.connectTimeout = connectTimeout;
+  }
+
+  public int getSocketTimeout()
+  {
+    return socketTimeout;
+  }
+
+  /**
+   * @param socketTimeout timeout in milliseconds for waiting for data
+   */
+  public void setSocketTimeout(int socketTimeout)
+  {
+    this.socketTimeout = socketTimeout;
+  }
+
+  public int getMaxConnections()
+  {
+    return maxConnections;
+  }
+
+  /**
+   * @param maxConnections maximum number of pooled connections to the indexer
+   */
+  public void setMaxConnections(int maxConnections)
+  {
+    this.maxConnections = maxConnections;
+  }
+
+  public int getKeepAlive()
+  {
+    return keepAlive;
+  }
+
+  /**
+   * @param keepAlive maximum time in seconds a connection is kept alive, unless the server asks for less
+   */
+  public void setKeepAlive(int keepAlive)
+  {
+    this.keepAlive = keepAlive;
+  }
+
+  public int getIdleTimeout()
+  {
+    return idleTimeout;
+  }
+
+  /**
+   * @param idleTimeout time in seconds after which idle connections are evicted from the pool
+   */
+  public void setIdleTimeout(int idleTimeout)
+  {
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Returns the shared HTTP client, creating it on first use.
+   */
+  synchronized CloseableHttpClient getHttpClient() {
+    if (httpClient == null) {
+      httpClient = clientBuilder == null ? createClientBuilder().build() : clientBuilder.build();
+    }
+    return httpClient;
+  }
+
+  private HttpClientBuilder createClientBuilder() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+    final long maxKeepAlive = TimeUnit.SECONDS.toMillis(keepAlive);
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long keepAliveByServer = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+      return keepAliveByServer > 0 ? Math.min(keepAliveByServer, maxKeepAlive) : maxKeepAlive;
+    };
+
+    RequestConfig requestConfig = RequestConfig.custom()
+        .setConnectTimeout(connectTimeout)
+        .setConnectionRequestTimeout(connectTimeout)
+        .setSocketTimeout(socketTimeout)
+        .build();
+
+    return HttpClientBuilder.create()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(keepAliveStrategy)
+        .setDefaultRequestConfig(requestConfig)
+        .evictExpiredConnections()
+        .evictIdleConnections((long) idleTimeout, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Closes the shared HTTP client and its pooled connections.
+   * A later push creates a new client.
+   */
+  @Override
+  public void close() {
+    CloseableHttpClient client;
+    synchronized (this) {
+      client = httpClient;
+      httpClient = null;
+    }
+    if (client != null) {
+      try {
+        client.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close the http client", e);
+      }
+    }
+  }
+
+  private CloseableHttpResponse execute(HttpPost post) throws IOException {
+    try {
+      return getHttpClient().execute(post);
+    } catch (IllegalStateException e) {
+      // the connection pool was shut down concurrently by close()
+      throw new IOException(e);
+    }
+  }
+
   String getAuth()
   {
     return auth;
   }
 
   HttpPost getHttpPost(String data) {
+    // char encoding is set to UTF_8 since this request posts a JSON string
+    return getHttpPost(new StringEntity(data, StandardCharsets.UTF_8));
+  }
+
+  HttpPost getHttpPost(EventBuffer events, int index) {
+    return getHttpPost(new ByteArrayEntity(events.getBuffer(), events.getEventOffset(index), events.getEventLength(index)));
+  }
+
+  private HttpPost getHttpPost(AbstractHttpEntity input) {
     HttpPost postRequest = new HttpPost(uri);
     String mimeType = this.getMimeType();
-    // char encoding is set to UTF_8 since this request posts a JSON string
-    StringEntity input = new StringEntity(data, StandardCharsets.UTF_8);
     mimeType = (mimeType != null) ? mimeType : ContentType.APPLICATION_JSON.toString();
     input.setContentType(mimeType);
     postRequest.setEntity(input);
@@ -169,27 +377,155 @@ public class ElasticSearchDao extends AbstractLogstashIndexerDao {
     return postRequest;
   }
 
+  HttpPost getBulkHttpPost(List<String> data) {
+    StringBuilder body = new StringBuilder();
+    for (String document : data) {
+      body.append(BULK_ACTION).append(document).append('\n');
+    }
+    return getBulkHttpPost(new StringEntity(body.toString(), BULK_CONTENT_TYPE));
+  }
+
+  HttpPost getBulkHttpPost(EventBuffer events) {
+    return getBulkHttpPost(new BulkEntity(events));
+  }
+
+  private HttpPost getBulkHttpPost(HttpEntity body) {
+    HttpPost postRequest = new HttpPost(bulkUri);
+    postRequest.setEntity(body);
+    if (auth != null) {
+      postRequest.addHeader("Authorization", "Basic " + auth);
+    }
+    return postRequest;
+  }
+
   @Override
   public void push(String data) throws IOException {
-    CloseableHttpClient httpClient = null;
+    if (bulk) {
+      pushAll(Collections.singletonList(data));
+      return;
+    }
+    post(getHttpPost(data));
+  }
+
+  /**
+   * Sends the payloads with one _bulk request if bulk mode is enabled.
+   * Items that were rejected because the cluster is busy (status 429 or 5xx) are reported with a
+   * {@link RejectedEventsException}, so only they are retried and buffered during an outage.
+   * Items that were rejected for other reasons, e.g. a mapping conflict, are logged and dropped.
+   */
+  @Override
+  public void pushAll(List<String> data) throws IOException {
+    if (!bulk) {
+      for (String payload : data) {
+        push(payload);
+      }
+      return;
+    }
+    checkRejected(bulk(getBulkHttpPost(data), data.size(), data::get));
+  }
+
+  /**
+   * Sends the encoded events without copying them, with one _bulk request if bulk mode is enabled.
+   */
+  @Override
+  public void push(EventBuffer events) throws IOException {
+    if (!bulk) {
+      for (int i = 0; i < events.getEventCount(); i++) {
+        post(getHttpPost(events, i));
+      }
+      return;
+    }
+    if (events.getEventCount() > 0) {
+      // the buffer is reused by the caller, the exception holds a copy of the rejected events
+      checkRejected(bulk(getBulkHttpPost(events), events.getEventCount(), events::getEventString));
+    }
+  }
+
+  private void post(HttpPost post) throws IOException {
+    CloseableHttpResponse response = null;
+
+    try {
+      response = execute(post);
+
+      if (!successCodes.contains(response.getStatusLine().getStatusCode())) {
+        throw new IOException(this.getErrorMessage(response));
+      }
+    } finally {
+      if (response != null) {
+        response.close();
+      }
+    }
+  }
+
+  /**
+   * Reports the items that were rejected by a _bulk request. They are retried with the backoff of the caller,
+   * which does not send the items that were indexed again.
+   */
+  private void checkRejected(List<String> rejected) throws IOException {
+    if (!rejected.isEmpty()) {
+      throw new RejectedEventsException("Elastic Search rejected " + rejected.size() + " log events", rejected);
+    }
+  }
+
+  /**
+   * Executes one _bulk request.
+   *
+   * @return the payloads that should be retried
+   */
+  private List<String> bulk(HttpPost post, int count, IntFunction<String> items) throws IOException {
     CloseableHttpResponse response = null;
-    HttpPost post = getHttpPost(data);
 
     try {
-      httpClient = clientBuilder.build();
-      response = httpClient.execute(post);
+      response = execute(post);
 
       if (!successCodes.contains(response.getStatusLine().getStatusCode())) {
         throw new IOException(this.getErrorMessage(response));
       }
+      return getRetryableItems(count, items, EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
     } finally {
       if (response != null) {
         response.close();
       }
-      if (httpClient != null) {
-        httpClient.close();
+    }
+  }
+
+  List<String> getRetryableItems(List<String> data, String responseBody) {
+    return getRetryableItems(data.size(), data::get, responseBody);
+  }
+
+  /**
+   * Evaluates the per item results of a _bulk response.
+   *
+   * @return the payloads whose items failed with a status that is worth retrying
+   */
+  private List<String> getRetryableItems(int count, IntFunction<String> data, String responseBody) {
+    List<String> retry = new ArrayList<>();
+    try {
+      JSONObject result = JSONObject.fromObject(responseBody);
+      if (!result.optBoolean("errors")) {
+        return retry;
+      }
+      JSONArray items = result.getJSONArray("items");
+      for (int i = 0; i < items.size() && i < count; i++) {
+        JSONObject item = items.getJSONObject(i).optJSONObject("index");
+        if (item == null) {
+          continue;
+        }
+        int status = item.optInt("status");
+        if (successCodes.contains(status)) {
+          continue;
+        }
+        if (status == 429 || status >= 500) {
+          retry.add(data.apply(i));
+        } else {
+          LOGGER.log(Level.WARNING, "Elastic Search rejected a log event with status {0}: {1}",
+              new Object[] {status, item.opt("error")});
+        }
       }
+    } catch (JSONException e) {
+      LOGGER.log(Level.WARNING, "Unable to parse the response of the _bulk request", e);
     }
+    return retry;
   }
 
   private String getErrorMessage(CloseableHttpResponse response) {
@@ -227,4 +563,49 @@ public class ElasticSearchDao extends AbstractLogstashIndexerDao {
   {
     return uri.toString();
   }
+
+  /**
+   * Writes the _bulk request body directly from the event buffer.
+   */
+  private static final class BulkEntity extends AbstractHttpEntity {
+    private final EventBuffer events;
+
+    private BulkEntity(EventBuffer events) {
+      this.events = events;
+      setContentType(BULK_CONTENT_TYPE.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return true;
+    }
+
+    @Override
+    public long getContentLength() {
+      return (long) events.getEventCount() * (BULK_ACTION_BYTES.length + 1) + events.getEventsLength();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      ByteArrayOutputStream body = new ByteArrayOutputStream((int) getContentLength());
+      writeTo(body);
+      return new ByteArrayInputStream(body.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      byte[] buffer = events.getBuffer();
+      for (int i = 0; i < events.getEventCount(); i++) {
+        out.write(BULK_ACTION_BYTES);
+        out.write(buffer, events.getEventOffset(i), events.getEventLength(i));
+        out.write('\n');
+      }
+      out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+      return false;
+    }
+  }
 }
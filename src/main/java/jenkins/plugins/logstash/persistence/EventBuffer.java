@@ -0,0 +1,396 @@
+package jenkins.plugins.logstash.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Reusable buffer that holds one or more events encoded as UTF-8 JSON.
+ *
+ * The JSON is written directly as bytes, strings are escaped and encoded while they are copied
+ * into the buffer, so encoding an event creates no intermediate objects.
+ * Buffers are taken from a pool shared by all threads and returned to it after the push, see {@link #acquire()}.
+ * Pushes may run on short-lived virtual threads, so a buffer per thread would rarely be reused.
+ * A released buffer is handed to the next push, so DAOs must not keep a reference to the buffer after the push returned.
+ *
+ * This class is not thread-safe.
+ */
+public final class EventBuffer
+{
+  private static final int INITIAL_CAPACITY = 8 * 1024;
+  private static final int INITIAL_EVENTS = 16;
+  // buffers that grew beyond this size for a large batch are not kept
+  private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+  // more concurrent pushes allocate new buffers, which are not kept when the pool is full
+  private static final int MAX_POOLED = 64;
+
+  // the most recently released buffer is reused first, its memory is most likely cached
+  private static final BlockingDeque<EventBuffer> POOL = new LinkedBlockingDeque<>(MAX_POOLED);
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private int size;
+  private int[] offsets = new int[INITIAL_EVENTS];
+  private int[] lengths = new int[INITIAL_EVENTS];
+  private int events;
+  private int eventStart = -1;
+
+  public EventBuffer()
+  {
+  }
+
+  /**
+   * Takes an empty buffer from the pool, or creates one if all are in use.
+   * The caller must {@link #release()} it when the push is done.
+   *
+   * @return an empty buffer
+   */
+  public static EventBuffer acquire()
+  {
+    EventBuffer eventBuffer = POOL.pollFirst();
+    return eventBuffer != null ? eventBuffer : new EventBuffer();
+  }
+
+  /**
+   * Returns this buffer to the pool. It must not be used afterwards.
+   * Buffers that grew for a large batch are left to the garbage collector.
+   */
+  public void release()
+  {
+    if (buffer.length <= MAX_RETAINED_CAPACITY)
+    {
+      reset();
+      POOL.offerFirst(this);
+    }
+  }
+
+  public void reset()
+  {
+    size = 0;
+    events = 0;
+    eventStart = -1;
+  }
+
+  /**
+   * Starts a new event.
+   */
+  public void beginEvent()
+  {
+    if (eventStart >= 0)
+    {
+      throw new IllegalStateException("The previous event was not ended");
+    }
+    eventStart = size;
+  }
+
+  /**
+   * Ends the current event.
+   */
+  public void endEvent()
+  {
+    if (eventStart < 0)
+    {
+      throw new IllegalStateException("No event was started");
+    }
+    if (events == offsets.length)
+    {
+      offsets = Arrays.copyOf(offsets, events * 2);
+      lengths = Arrays.copyOf(lengths, events * 2);
+    }
+    offsets[events] = eventStart;
+    lengths[events] = size - eventStart;
+    events++;
+    eventStart = -1;
+  }
+
+  /**
+   * Adds an event that is already serialized as JSON.
+   *
+   * @param json the JSON of the event
+   */
+  public void writeEvent(String json)
+  {
+    beginEvent();
+    writeUtf8(json);
+    endEvent();
+  }
+
+  public int getEventCount()
+  {
+    return events;
+  }
+
+  /**
+   * @return the underlying array, the events are found at {@link #getEventOffset(int)}
+   */
+  public byte[] getBuffer()
+  {
+    return buffer;
+  }
+
+  public int getEventOffset(int index)
+  {
+    checkIndex(index);
+    return offsets[index];
+  }
+
+  public int getEventLength(int index)
+  {
+    checkIndex(index);
+    return lengths[index];
+  }
+
+  /**
+   * @return the total size of all events in bytes
+   */
+  public int getEventsLength()
+  {
+    int length = 0;
+    for (int i = 0; i < events; i++)
+    {
+      length += lengths[i];
+    }
+    return length;
+  }
+
+  /**
+   * Decodes an event, for indexers that can't send bytes.
+   *
+   * @param index the index of the event
+   * @return the JSON of the event
+   */
+  public String getEventString(int index)
+  {
+    return new String(buffer, getEventOffset(index), lengths[index], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Decodes all events, for indexers that can't send bytes.
+   *
+   * @return the JSON of the events
+   */
+  public List<String> toStrings()
+  {
+    List<String> strings = new ArrayList<>(events);
+    for (int i = 0; i < events; i++)
+    {
+      strings.add(getEventString(i));
+    }
+    return strings;
+  }
+
+  private void checkIndex(int index)
+  {
+    if (index < 0 || index >= events)
+    {
+      throw new IndexOutOfBoundsException("Event " + index + " of " + events);
+    }
+  }
+
+  /*
+   * Writing primitives
+   */
+
+  public void writeByte(int b)
+  {
+    ensureCapacity(1);
+    buffer[size++] = (byte) b;
+  }
+
+  public void writeBytes(byte[] bytes)
+  {
+    writeBytes(bytes, 0, bytes.length);
+  }
+
+  public void writeBytes(byte[] bytes, int offset, int length)
+  {
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, buffer, size, length);
+    size += length;
+  }
+
+  /**
+   * Copies the remaining bytes of a byte buffer.
+   *
+   * @param bytes the bytes to copy, its position is moved to its limit
+   */
+  public void writeBytes(ByteBuffer bytes)
+  {
+    int length = bytes.remaining();
+    ensureCapacity(length);
+    bytes.get(buffer, size, length);
+    size += length;
+  }
+
+  public void writeLong(long value)
+  {
+    if (value == Long.MIN_VALUE)
+    {
+      writeUtf8(Long.toString(value));
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0)
+    {
+      buffer[size++] = '-';
+      value = -value;
+    }
+    int start = size;
+    do
+    {
+      buffer[size++] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    while (value != 0);
+    // the digits were written in reverse order
+    for (int i = start, j = size - 1; i < j; i++, j--)
+    {
+      byte tmp = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = tmp;
+    }
+  }
+
+  /**
+   * Writes a JSON string literal, including the quotes.
+   *
+   * @param value the string, null is written as JSON null
+   */
+  public void writeString(CharSequence value)
+  {
+    if (value == null)
+    {
+      writeNull();
+      return;
+    }
+    writeByte('"');
+    int length = value.length();
+    for (int i = 0; i < length; i++)
+    {
+      char c = value.charAt(i);
+      switch (c)
+      {
+        case '"':
+          writeEscape('"');
+          break;
+        case '\\':
+          writeEscape('\\');
+          break;
+        case '\n':
+          writeEscape('n');
+          break;
+        case '\r':
+          writeEscape('r');
+          break;
+        case '\t':
+          writeEscape('t');
+          break;
+        case '\b':
+          writeEscape('b');
+          break;
+        case '\f':
+          writeEscape('f');
+          break;
+        default:
+          if (c < 0x20)
+          {
+            ensureCapacity(6);
+            buffer[size++] = '\\';
+            buffer[size++] = 'u';
+            buffer[size++] = '0';
+            buffer[size++] = '0';
+            buffer[size++] = HEX[c >> 4];
+            buffer[size++] = HEX[c & 0xf];
+          }
+          else
+          {
+            i = writeChar(value, i, c);
+          }
+      }
+    }
+    writeByte('"');
+  }
+
+  /**
+   * Writes the characters as UTF-8 without any escaping.
+   *
+   * @param value the characters
+   */
+  public void writeUtf8(CharSequence value)
+  {
+    int length = value.length();
+    for (int i = 0; i < length; i++)
+    {
+      i = writeChar(value, i, value.charAt(i));
+    }
+  }
+
+  public void writeNull()
+  {
+    ensureCapacity(4);
+    buffer[size++] = 'n';
+    buffer[size++] = 'u';
+    buffer[size++] = 'l';
+    buffer[size++] = 'l';
+  }
+
+  private void writeEscape(char c)
+  {
+    ensureCapacity(2);
+    buffer[size++] = '\\';
+    buffer[size++] = (byte) c;
+  }
+
+  /**
+   * Encodes one character, or a surrogate pair, as UTF-8.
+   *
+   * @return the index of the last character that was consumed
+   */
+  private int writeChar(CharSequence value, int index, char c)
+  {
+    ensureCapacity(4);
+    if (c < 0x80)
+    {
+      buffer[size++] = (byte) c;
+    }
+    else if (c < 0x800)
+    {
+      buffer[size++] = (byte) (0xc0 | (c >> 6));
+      buffer[size++] = (byte) (0x80 | (c & 0x3f));
+    }
+    else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1)))
+    {
+      int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+      buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+      buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+      buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+      return index + 1;
+    }
+    else if (Character.isSurrogate(c))
+    {
+      // unpaired surrogate, replaced like String.getBytes() does
+      buffer[size++] = '?';
+    }
+    else
+    {
+      buffer[size++] = (byte) (0xe0 | (c >> 12));
+      buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buffer[size++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return index;
+  }
+
+  private void ensureCapacity(int additional)
+  {
+    if (size + additional > buffer.length)
+    {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+    }
+  }
+}
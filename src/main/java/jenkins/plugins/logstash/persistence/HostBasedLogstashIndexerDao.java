@@ -23,12 +23,10 @@
 package jenkins.plugins.logstash.persistence;
 
 import java.nio.charset.Charset;
-import java.util.Calendar;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 
-import jenkins.plugins.logstash.LogstashConfiguration;
 import net.sf.json.JSONObject;
 
 /**
@@ -56,7 +54,7 @@ public abstract class HostBasedLogstashIndexerDao extends AbstractLogstashIndexe
     payload.put("source", "jenkins");
     payload.put("source_host", jenkinsUrl);
     payload.put("@buildTimestamp", buildData.getTimestamp());
-    payload.put("@timestamp", LogstashConfiguration.getInstance().getDateFormatter().format(Calendar.getInstance().getTime()));
+    payload.put("@timestamp", Timestamps.now());
     payload.put("@version", 1);
 
     return payload;
@@ -0,0 +1,158 @@
+package jenkins.plugins.logstash.persistence;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Log lines of a build that are sent as one event, before they are encoded for an indexer.
+ *
+ * Events are handed to {@link LogstashIndexerDao#pushEvents(List)}, so each indexer encodes them once
+ * in its own format. An event refers to the build data and the lines of the caller and is only
+ * valid until the push returns, implementations must not keep a reference to it.
+ *
+ * By default an event carries the lines together with the complete build data. With header events,
+ * the build data is sent in {@link Type#HEADER header} events and the events with the lines only refer to
+ * the build by its id, see {@link Type#LINES}.
+ */
+public final class LogEvent
+{
+  /**
+   * The kinds of events.
+   */
+  public enum Type
+  {
+    /**
+     * Log lines together with the complete build data.
+     */
+    FULL,
+
+    /**
+     * The build data without log lines.
+     */
+    HEADER,
+
+    /**
+     * Log lines with the id of the build and a sequence number, without the build data.
+     */
+    LINES
+  }
+
+  private final Type type;
+  private final BuildData buildData;
+  private final String jenkinsUrl;
+  private final List<String> lines;
+  private final long timestamp;
+  private final long sequence;
+
+  /**
+   * Creates an event with log lines and the complete build data.
+   *
+   * @param buildData
+   *          Metadata about the current build, not null
+   * @param jenkinsUrl
+   *          The host name of the Jenkins instance, not null
+   * @param lines
+   *          The log lines, not null
+   * @param timestamp
+   *          The time in milliseconds when the first line was written
+   */
+  public LogEvent(BuildData buildData, String jenkinsUrl, List<String> lines, long timestamp)
+  {
+    this(Type.FULL, buildData, jenkinsUrl, lines, timestamp, 0);
+  }
+
+  private LogEvent(Type type, BuildData buildData, String jenkinsUrl, List<String> lines, long timestamp, long sequence)
+  {
+    this.type = type;
+    this.buildData = buildData;
+    this.jenkinsUrl = jenkinsUrl;
+    this.lines = lines;
+    this.timestamp = timestamp;
+    this.sequence = sequence;
+  }
+
+  /**
+   * Creates a header event with the build data.
+   *
+   * @param buildData
+   *          Metadata about the current build, not null
+   * @param jenkinsUrl
+   *          The host name of the Jenkins instance, not null
+   * @param timestamp
+   *          The time in milliseconds of the event
+   * @return the event
+   */
+  public static LogEvent header(BuildData buildData, String jenkinsUrl, long timestamp)
+  {
+    return new LogEvent(Type.HEADER, buildData, jenkinsUrl, Collections.<String>emptyList(), timestamp, 0);
+  }
+
+  /**
+   * Creates an event with log lines that refers to the header events of the build.
+   *
+   * @param buildData
+   *          Metadata about the current build, only its id is sent, not null
+   * @param lines
+   *          The log lines, not null
+   * @param timestamp
+   *          The time in milliseconds when the first line was written
+   * @param sequence
+   *          The number of the event, which orders the events of a writer
+   * @return the event
+   */
+  public static LogEvent lines(BuildData buildData, List<String> lines, long timestamp, long sequence)
+  {
+    return new LogEvent(Type.LINES, buildData, null, lines, timestamp, sequence);
+  }
+
+  public Type getType()
+  {
+    return type;
+  }
+
+  public BuildData getBuildData()
+  {
+    return buildData;
+  }
+
+  public String getJenkinsUrl()
+  {
+    return jenkinsUrl;
+  }
+
+  public List<String> getLines()
+  {
+    return lines;
+  }
+
+  public long getTimestamp()
+  {
+    return timestamp;
+  }
+
+  public long getSequence()
+  {
+    return sequence;
+  }
+
+  /**
+   * Encodes the event with the payload format of the indexer.
+   *
+   * @param dao the indexer
+   * @param events the buffer to write the event to
+   */
+  public void encode(LogstashIndexerDao dao, EventBuffer events)
+  {
+    switch (type)
+    {
+      case HEADER:
+        dao.encodeHeader(events, buildData, jenkinsUrl, timestamp);
+        break;
+      case LINES:
+        dao.encodeLines(events, buildData.getBuildId(), sequence, lines, timestamp);
+        break;
+      default:
+        dao.encodePayload(events, buildData, jenkinsUrl, lines, timestamp);
+    }
+  }
+}
@@ -1,11 +1,41 @@
 package jenkins.plugins.logstash.persistence;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Sends the log data as JSON lines over TCP to a Logstash tcp input.
+ *
+ * The DAO keeps one connection that is shared by all builds. The events of a push are
+ * buffered and flushed before the push returns, so a push only succeeds once its events
+ * were handed to the connection. A connection that failed before any bytes of the push were
+ * written to it is reopened once before an error is reported. If it failed after a part of the
+ * push was written, the push fails, as sending it again would duplicate the events that were
+ * already written. Pushes take turns on the connection, the lock is not a monitor so that a push
+ * that waits for the network does not pin the carrier of a virtual thread.
+ *
+ * Delivery is at least once: a push that failed may be sent again by the circuit breaker, and
+ * Logstash may have received a part of it before the connection failed.
+ */
 public class LogstashDao extends HostBasedLogstashIndexerDao {
+  private static final Logger LOGGER = Logger.getLogger(LogstashDao.class.getName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int CONNECT_TIMEOUT = 10000;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private Socket socket;
+  private CountingOutputStream written;
+  private OutputStream out;
 
   public LogstashDao(String logstashHostString, int logstashPortInt) {
     super(logstashHostString, logstashPortInt);
@@ -13,14 +43,128 @@ public class LogstashDao extends HostBasedLogstashIndexerDao {
 
   @Override
   public void push(String data) throws IOException {
+    write(out -> writeLine(out, data));
+  }
+
+  @Override
+  public void pushAll(List<String> data) throws IOException {
+    write(out -> {
+      for (String line : data) {
+        writeLine(out, line);
+      }
+    });
+  }
+
+  /**
+   * Copies the encoded events to the connection without converting them to strings.
+   */
+  @Override
+  public void push(EventBuffer events) throws IOException {
+    write(out -> {
+      for (int i = 0; i < events.getEventCount(); i++) {
+        out.write(events.getBuffer(), events.getEventOffset(i), events.getEventLength(i));
+        out.write(10);
+      }
+    });
+  }
+
+  private static void writeLine(OutputStream out, String line) throws IOException {
+    out.write(line.getBytes(StandardCharsets.UTF_8));
+    out.write(10);
+  }
+
+  private void write(Payload payload) throws IOException {
+    lock.lock();
+    try {
+      while (true) {
+        boolean reconnected = out == null;
+        if (reconnected) {
+          connect();
+        }
+        long before = written.count;
+        try {
+          payload.writeTo(out);
+          // a push that returns was sent, otherwise the circuit breaker would not see the failure
+          out.flush();
+          return;
+        } catch (IOException e) {
+          boolean partial = written.count != before;
+          disconnect();
+          if (reconnected || partial) {
+            throw e;
+          }
+          LOGGER.log(Level.FINE, "Connection to " + getDescription() + " failed, reconnecting", e);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the connection.
+   */
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      disconnect();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  Socket createSocket() throws IOException {
+    Socket s = new Socket();
+    s.setKeepAlive(true);
+    s.setTcpNoDelay(true);
+    s.connect(new InetSocketAddress(getHost(), getPort()), CONNECT_TIMEOUT);
+    return s;
+  }
+
+  private void connect() throws IOException {
+    socket = createSocket();
+    written = new CountingOutputStream(socket.getOutputStream());
+    out = new BufferedOutputStream(written, BUFFER_SIZE);
+  }
+
+  private void disconnect() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Failed to close connection to " + getDescription(), e);
+      }
+    }
+    socket = null;
+    written = null;
+    out = null;
+  }
+
+  /**
+   * Counts the bytes that were written to the connection, so a push knows whether a part of it was sent.
+   */
+  private static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
 
-    try (Socket logstashClientSocket = new Socket(getHost(), getPort()))
-    {
-      OutputStream out = logstashClientSocket.getOutputStream();
-      out.write(data.getBytes(StandardCharsets.UTF_8));
-      out.write(10);
-      out.flush();
-      out.close();
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
     }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+  }
+
+  private interface Payload {
+    void writeTo(OutputStream out) throws IOException;
   }
-}
\ No newline at end of file
+}
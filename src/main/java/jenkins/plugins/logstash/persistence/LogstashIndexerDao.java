@@ -26,6 +26,7 @@ package jenkins.plugins.logstash.persistence;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
 
 import net.sf.json.JSONObject;
@@ -68,6 +69,71 @@ public interface LogstashIndexerDao {
    */
   public void push(String data) throws IOException;
 
+  /**
+   * Sends several payloads to the Logstash indexer.
+   * Indexers that support it send all payloads with one request, the default sends them one by one.
+   *
+   * @param data
+   *          The serialized payloads, not null
+   * @throws java.io.IOException
+   *          The data is not written to the server
+   */
+  default void pushAll(List<String> data) throws IOException {
+    for (String payload : data) {
+      push(payload);
+    }
+  }
+
+  /**
+   * Sends events that were encoded with {@link #encodePayload(EventBuffer, BuildData, String, List)}.
+   * The buffer is reused after the call, implementations must not keep a reference to it.
+   * The default decodes the events and sends them as strings, indexers that can send bytes override it.
+   *
+   * @param events
+   *          The encoded events, not null
+   * @throws java.io.IOException
+   *          The data is not written to the server
+   */
+  default void push(EventBuffer events) throws IOException {
+    if (events.getEventCount() == 1) {
+      push(events.getEventString(0));
+    } else if (events.getEventCount() > 1) {
+      pushAll(events.toStrings());
+    }
+  }
+
+  /**
+   * Sends log events to the Logstash indexer.
+   * The events are only valid during the call, implementations must not keep a reference to them.
+   * The default encodes the events with {@link #encodePayload(EventBuffer, BuildData, String, List, long)}
+   * and sends them with {@link #push(EventBuffer)}, indexers that send objects instead of bytes override it.
+   *
+   * @param events
+   *          The events, not null
+   * @throws java.io.IOException
+   *          The data is not written to the server
+   */
+  default void pushEvents(List<LogEvent> events) throws IOException {
+    EventBuffer buffer = EventBuffer.acquire();
+    try {
+      for (LogEvent event : events) {
+        event.encode(this, buffer);
+      }
+      if (buffer.getEventCount() > 0) {
+        push(buffer);
+      }
+    } finally {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Releases the connections held by this indexer. Called when the indexer is replaced by a new configuration.
+   * A later push may open new connections.
+   */
+  default void close() {
+  }
+
   /**
    * Builds a JSON payload compatible with the Logstash schema.
    *
@@ -80,4 +146,85 @@ public interface LogstashIndexerDao {
    * @return The formatted JSON object, never null
    */
   public JSONObject buildPayload(BuildData buildData, String jenkinsUrl, List<String> logLines);
+
+  /**
+   * Encodes the payload for the log lines as one event into the buffer.
+   * The default serializes {@link #buildPayload(BuildData, String, List)}.
+   *
+   * @param events
+   *          The buffer to write the event to, not null
+   * @param buildData
+   *          Metadata about the current build, not null
+   * @param jenkinsUrl
+   *          The host name of the Jenkins instance, not null
+   * @param logLines
+   *          The log data to transmit, not null
+   */
+  default void encodePayload(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines) {
+    events.writeEvent(buildPayload(buildData, jenkinsUrl, logLines).toString());
+  }
+
+  /**
+   * Encodes the payload for the log lines as one event with the given time stamp into the buffer.
+   * The default ignores the time stamp and uses the time of the call.
+   *
+   * @param events
+   *          The buffer to write the event to, not null
+   * @param buildData
+   *          Metadata about the current build, not null
+   * @param jenkinsUrl
+   *          The host name of the Jenkins instance, not null
+   * @param logLines
+   *          The log data to transmit, not null
+   * @param timestamp
+   *          The time in milliseconds when the first line was written
+   */
+  default void encodePayload(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines, long timestamp) {
+    encodePayload(events, buildData, jenkinsUrl, logLines);
+  }
+
+  /**
+   * Encodes a header event with the data of a build into the buffer, see {@link LogEvent#header(BuildData, String, long)}.
+   * The default encodes {@link #buildPayload(BuildData, String, List)} without lines, with the id of the build.
+   *
+   * @param events
+   *          The buffer to write the event to, not null
+   * @param buildData
+   *          Metadata about the current build, not null
+   * @param jenkinsUrl
+   *          The host name of the Jenkins instance, not null
+   * @param timestamp
+   *          The time in milliseconds of the event
+   */
+  default void encodeHeader(EventBuffer events, BuildData buildData, String jenkinsUrl, long timestamp) {
+    JSONObject payload = buildPayload(buildData, jenkinsUrl, Collections.<String>emptyList());
+    payload.put("buildId", buildData.getBuildId());
+    payload.put("@timestamp", Timestamps.format(timestamp));
+    events.writeEvent(payload.toString());
+  }
+
+  /**
+   * Encodes log lines without the build data as one event into the buffer, see
+   * {@link LogEvent#lines(BuildData, List, long, long)}. The event only has the fields {@code buildId},
+   * {@code seq}, {@code @timestamp} and {@code message}.
+   *
+   * @param events
+   *          The buffer to write the event to, not null
+   * @param buildId
+   *          The id of the build, see {@link BuildData#getBuildId()}, not null
+   * @param sequence
+   *          The number of the event
+   * @param logLines
+   *          The log data to transmit, not null
+   * @param timestamp
+   *          The time in milliseconds when the first line was written
+   */
+  default void encodeLines(EventBuffer events, String buildId, long sequence, List<String> logLines, long timestamp) {
+    JSONObject payload = new JSONObject();
+    payload.put("buildId", buildId);
+    payload.put("seq", sequence);
+    payload.put("@timestamp", Timestamps.format(timestamp));
+    payload.put("message", logLines);
+    events.writeEvent(payload.toString());
+  }
 }
@@ -15,7 +15,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import jenkins.model.Jenkins;
-import jenkins.plugins.logstash.LogstashConfiguration;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
@@ -82,10 +81,48 @@ public class LogzioDao extends AbstractLogstashIndexerDao {
         }
     }
 
+    /**
+     * Sends one log line per line of the events. The lines are created directly from the build data,
+     * without serializing the payload and parsing it again like {@link #push(String)}.
+     * A header event is sent as one log line with an empty message, the lines of a line event only carry
+     * the id of the build and the sequence number of the event.
+     */
+    @Override
+    public void pushEvents(List<LogEvent> events) {
+        for (LogEvent event : events) {
+            Map<String, Object> fields;
+            List<String> lines = event.getLines();
+            if (event.getType() == LogEvent.Type.LINES) {
+                fields = new LinkedHashMap<>();
+                fields.put("buildId", event.getBuildData().getBuildId());
+                fields.put("seq", event.getSequence());
+            } else {
+                fields = payloadFields(event.getBuildData(), event.getJenkinsUrl());
+                if (event.getType() == LogEvent.Type.HEADER) {
+                    fields.put("buildId", event.getBuildData().getBuildId());
+                    lines = Collections.singletonList("");
+                }
+            }
+            String timestamp = Timestamps.format(event.getTimestamp());
+            for (String line : lines) {
+                JsonObject logLine = new JsonObject();
+                logLine.addProperty("message", line);
+                logLine.addProperty("@timestamp", timestamp);
+                for (Map.Entry<String, Object> field : fields.entrySet()) {
+                    // like createLogLine, all values are sent as strings and null values are left out
+                    if (field.getValue() != null) {
+                        logLine.addProperty(field.getKey(), field.getValue().toString());
+                    }
+                }
+                this.logzioSender.send(logLine);
+            }
+        }
+    }
+
     protected JsonObject createLogLine(JSONObject jsonData, String logMsg) {
         JsonObject logLine = new JsonObject();
         logLine.addProperty("message", logMsg);
-        logLine.addProperty("@timestamp", LogstashConfiguration.getInstance().getDateFormatter().format(Calendar.getInstance().getTime()));
+        logLine.addProperty("@timestamp", Timestamps.now());
         for(Object key : jsonData.keySet()){
             String keyStr = (String) key;
             if (!keyStr.equals("message")){
@@ -99,19 +136,55 @@ public class LogzioDao extends AbstractLogstashIndexerDao {
     public JSONObject buildPayload(BuildData buildData, String jenkinsUrl, List<String> logLines) {
         JSONObject payload = new JSONObject();
         payload.put("message", logLines);
-        payload.put("source", "jenkins");
-        payload.put("source_host", jenkinsUrl);
-        payload.put("@buildTimestamp", buildData.getTimestamp());
-        payload.put("@version", 1);
+        payload.putAll(payloadFields(buildData, jenkinsUrl));
+        return payload;
+    }
+
+    /**
+     * @return the fields of the payload except the message, with the flattened build data
+     */
+    private Map<String, Object> payloadFields(BuildData buildData, String jenkinsUrl) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("source", "jenkins");
+        fields.put("source_host", jenkinsUrl);
+        fields.put("@buildTimestamp", buildData.getTimestamp());
+        fields.put("@version", 1);
         // flatten build data
         Map<String, Object> flattenJson = JsonFlattener.flattenAsMap(buildData.toString());
         for (Map.Entry<String, Object> entry : flattenJson.entrySet()) {
             String key = entry.getKey().replace('.','_');
             Object value = entry.getValue();
-            payload.put(key, value);
+            fields.put(key, value);
         }
+        return fields;
+    }
 
-        return payload;
+    @Override
+    public void encodePayload(EventBuffer events, BuildData buildData, String jenkinsUrl, List<String> logLines, long timestamp) {
+        // Logz.io uses the flattened payload, not the common Logstash event
+        JSONObject payload = buildPayload(buildData, jenkinsUrl, logLines);
+        // the time the lines were written replaces the time of the push in createLogLine
+        payload.put("@timestamp", Timestamps.format(timestamp));
+        events.writeEvent(payload.toString());
+    }
+
+    @Override
+    public void encodeHeader(EventBuffer events, BuildData buildData, String jenkinsUrl, long timestamp) {
+        // push sends one log line per message, so the header gets an empty one
+        JSONObject payload = buildPayload(buildData, jenkinsUrl, Collections.singletonList(""));
+        payload.put("buildId", buildData.getBuildId());
+        payload.put("@timestamp", Timestamps.format(timestamp));
+        events.writeEvent(payload.toString());
+    }
+
+    @Override
+    public void encodeLines(EventBuffer events, String buildId, long sequence, List<String> logLines, long timestamp) {
+        JSONObject payload = new JSONObject();
+        payload.put("buildId", buildId);
+        payload.put("seq", sequence);
+        payload.put("@timestamp", Timestamps.format(timestamp));
+        payload.put("message", logLines);
+        events.writeEvent(payload.toString());
     }
 
     @Override
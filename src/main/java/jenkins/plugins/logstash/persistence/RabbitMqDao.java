@@ -26,6 +26,14 @@ package jenkins.plugins.logstash.persistence;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -36,6 +44,11 @@ import com.rabbitmq.client.ConnectionFactory;
 /**
  * RabbitMQ Data Access Object.
  *
+ * All builds share one connection per DAO. Channels are not thread-safe, so each push
+ * borrows a channel from a small pool of idle channels and returns it afterwards.
+ * The queue is declared once per connection. Opening the connection is guarded by a lock rather than
+ * a monitor, so pushes on virtual threads that wait for it do not pin their carrier.
+ *
  * TODO: support TLS
  * TODO: support vhost
  *
@@ -43,7 +56,13 @@ import com.rabbitmq.client.ConnectionFactory;
  * @since 1.0.0
  */
 public class RabbitMqDao extends HostBasedLogstashIndexerDao {
+  private static final int MAX_IDLE_CHANNELS = 8;
+
   private final ConnectionFactory pool;
+  private final BlockingDeque<Channel> idleChannels = new LinkedBlockingDeque<>(MAX_IDLE_CHANNELS);
+  private final ReentrantLock connectionLock = new ReentrantLock();
+  private Connection connection;
+  private volatile boolean queueDeclared;
 
   private String queue;
   private String username;
@@ -112,24 +131,102 @@ public class RabbitMqDao extends HostBasedLogstashIndexerDao {
     return virtualHost;
   }
 
-  /*
-   * TODO: do we really need to open a connection each time?
-   *       channels are not thread-safe so we need a new channel each time but the connection
-   *       could be shared. Another idea would be to use one dao per build, reuse the channel and
-   *       synchronize the push on the channel (for pipeline builds where we can have multiple
-   *       threads writing, are freestyle projects guaranteed to be single threaded?).
-   * (non-Javadoc)
-   * @see jenkins.plugins.logstash.persistence.LogstashIndexerDao#push(java.lang.String)
-   */
   @Override
   public void push(String data) throws IOException {
-    Connection connection = null;
-    Channel channel = null;
+    pushAll(Collections.singletonList(data));
+  }
+
+  /**
+   * Publishes all payloads on one channel of the shared connection.
+   */
+  @Override
+  public void pushAll(List<String> data) throws IOException {
+    List<byte[]> payloads = new ArrayList<>(data.size());
+    for (String payload : data) {
+      payloads.add(payload.getBytes(charset));
+    }
+    publish(payloads);
+  }
+
+  /**
+   * Publishes the encoded events, they are only decoded if the queue uses another charset than UTF-8.
+   */
+  @Override
+  public void push(EventBuffer events) throws IOException {
+    if (!StandardCharsets.UTF_8.equals(charset)) {
+      pushAll(events.toStrings());
+      return;
+    }
+    List<byte[]> payloads = new ArrayList<>(events.getEventCount());
+    for (int i = 0; i < events.getEventCount(); i++) {
+      int offset = events.getEventOffset(i);
+      payloads.add(Arrays.copyOfRange(events.getBuffer(), offset, offset + events.getEventLength(i)));
+    }
+    publish(payloads);
+  }
+
+  private void publish(List<byte[]> payloads) throws IOException {
+    Channel channel = borrowChannel();
+    boolean published = false;
     try {
-      connection = pool.newConnection();
-      channel = connection.createChannel();
-      // Ensure the queue exists
+      for (byte[] payload : payloads) {
+        channel.basicPublish("", queue, null, payload);
+      }
+      published = true;
+    } finally {
+      if (published) {
+        releaseChannel(channel);
+      } else {
+        // the channel might be closed by the broker after an error, don't reuse it
+        finalizeChannel(channel);
+      }
+    }
+  }
 
+  /**
+   * Closes the idle channels and the shared connection.
+   */
+  @Override
+  public void close() {
+    connectionLock.lock();
+    try {
+      closeIdleChannels();
+      finalizeConnection(connection);
+      connection = null;
+      queueDeclared = false;
+    } finally {
+      connectionLock.unlock();
+    }
+  }
+
+  // TODO: connection.isOpen() should be avoided (see the rabbitmq doc)
+  private Connection getConnection() throws IOException {
+    connectionLock.lock();
+    try {
+      if (connection == null || !connection.isOpen()) {
+        // the channels of a lost connection are closed as well
+        closeIdleChannels();
+        queueDeclared = false;
+        connection = pool.newConnection();
+      }
+      return connection;
+    } finally {
+      connectionLock.unlock();
+    }
+  }
+
+  private Channel borrowChannel() throws IOException {
+    Connection current = getConnection();
+    Channel channel;
+    while ((channel = idleChannels.pollFirst()) != null) {
+      if (channel.isOpen()) {
+        return channel;
+      }
+    }
+
+    channel = current.createChannel();
+    if (!queueDeclared) {
+      // Ensure the queue exists
       try {
         channel.queueDeclarePassive(queue);
       } catch (IOException e) {
@@ -137,14 +234,24 @@ public class RabbitMqDao extends HostBasedLogstashIndexerDao {
         finalizeChannel(channel);
 
         // Create the queue
-        channel = connection.createChannel();
+        channel = current.createChannel();
         channel.queueDeclare(queue, true, false, false, null);
       }
+      queueDeclared = true;
+    }
+    return channel;
+  }
 
-      channel.basicPublish("", queue, null, data.getBytes(charset));
-    } finally {
+  private void releaseChannel(Channel channel) {
+    if (!idleChannels.offerFirst(channel)) {
+      finalizeChannel(channel);
+    }
+  }
+
+  private void closeIdleChannels() {
+    Channel channel;
+    while ((channel = idleChannels.pollFirst()) != null) {
       finalizeChannel(channel);
-      finalizeConnection(connection);
     }
   }
 
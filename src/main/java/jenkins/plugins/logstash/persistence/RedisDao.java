@@ -25,12 +25,15 @@
 package jenkins.plugins.logstash.persistence;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisException;
 
@@ -48,7 +51,11 @@ public class RedisDao extends HostBasedLogstashIndexerDao {
 
   //primary constructor used by indexer factory
   public RedisDao(String host, int port, String key, String password) {
-    this(null, host, port, key, password);
+    this(host, port, key, password, new JedisPoolConfig());
+  }
+
+  public RedisDao(String host, int port, String key, String password, JedisPoolConfig poolConfig) {
+    this(createPool(host, port, password, poolConfig), host, port, key, password);
   }
 
   /*
@@ -68,7 +75,19 @@ public class RedisDao extends HostBasedLogstashIndexerDao {
 
     // The JedisPool must be a singleton
     // We assume this is used as a singleton as well
-    pool = factory == null ? new JedisPool(new JedisPoolConfig(), host, port) : factory;
+    pool = factory;
+  }
+
+  /*
+   * The pool authenticates each connection once when it is created,
+   * pooled connections stay open between pushes.
+   */
+  private static JedisPool createPool(String host, int port, String password, JedisPoolConfig poolConfig) {
+    if (StringUtils.isBlank(host)) {
+      // let the constructor report the missing host
+      return null;
+    }
+    return new JedisPool(poolConfig, host, port, Protocol.DEFAULT_TIMEOUT, StringUtils.isBlank(password) ? null : password);
   }
 
   public String getPassword()
@@ -83,17 +102,22 @@ public class RedisDao extends HostBasedLogstashIndexerDao {
 
   @Override
   public void push(String data) throws IOException {
+    pushAll(Collections.singletonList(data));
+  }
+
+  /**
+   * Appends all payloads to the list with one multi-value RPUSH.
+   */
+  @Override
+  public void pushAll(List<String> data) throws IOException {
+    if (data.isEmpty()) {
+      return;
+    }
     Jedis jedis = null;
     boolean connectionBroken = false;
     try {
       jedis = pool.getResource();
-      if (!StringUtils.isBlank(password)) {
-        jedis.auth(password);
-      }
-
-      jedis.connect();
-      long result = jedis.rpush(key, data);
-      jedis.disconnect();
+      long result = jedis.rpush(key, data.toArray(new String[data.size()]));
       if (result <= 0) {
         throw new IOException("Failed to push results");
       }
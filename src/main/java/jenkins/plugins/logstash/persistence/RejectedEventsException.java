@@ -0,0 +1,36 @@
+package jenkins.plugins.logstash.persistence;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Signals that the indexer took a request but rejected some of its events, e.g. because the cluster was busy.
+ *
+ * The other events of the request were indexed, so only the rejected events are sent again or buffered
+ * while the indexer is unavailable.
+ */
+public class RejectedEventsException extends IOException
+{
+  private static final long serialVersionUID = 1L;
+
+  private final transient List<String> events;
+
+  /**
+   * @param message the detail message
+   * @param events the rejected events, encoded as JSON
+   */
+  public RejectedEventsException(String message, List<String> events)
+  {
+    super(message);
+    this.events = Collections.unmodifiableList(events);
+  }
+
+  /**
+   * @return the rejected events, encoded as JSON
+   */
+  public List<String> getEvents()
+  {
+    return events;
+  }
+}
@@ -9,10 +9,15 @@ import com.cloudbees.syslog.sender.UdpSyslogMessageSender;
 
 /*
  * TODO: add support for TcpSyslogMessageSender
+ *
+ * The message sender is configured once, so concurrent pushes only send messages
+ * and do not change the state of the shared sender.
  */
 public class SyslogDao extends HostBasedLogstashIndexerDao {
 
-  private MessageFormat messageFormat = MessageFormat.RFC_3164;
+  // The Logstash syslog input module support only the RFC_3164 format
+  // Ref: https://www.elastic.co/guide/en/logstash/current/plugins-inputs-syslog.html
+  private volatile MessageFormat messageFormat = MessageFormat.RFC_3164;
   private final UdpSyslogMessageSender messageSender;
 
   public SyslogDao(String host, int port) {
@@ -28,10 +33,22 @@ public class SyslogDao extends HostBasedLogstashIndexerDao {
   public SyslogDao(UdpSyslogMessageSender udpSyslogMessageSender, String host, int port) {
     super(host, port);
     messageSender = udpSyslogMessageSender == null ? new UdpSyslogMessageSender() : udpSyslogMessageSender;
+    // SYSLOG Configuration
+    messageSender.setDefaultMessageHostname(getHost());
+    messageSender.setDefaultAppName("jenkins:");
+    messageSender.setDefaultFacility(Facility.USER);
+    messageSender.setDefaultSeverity(Severity.INFORMATIONAL);
+    messageSender.setSyslogServerHostname(getHost());
+    messageSender.setSyslogServerPort(getPort());
+    messageSender.setMessageFormat(messageFormat);
   }
 
+  /**
+   * Sets the message format. Called when the DAO is created, before it is used by builds.
+   */
   public void setMessageFormat(MessageFormat format) {
     messageFormat = format;
+    messageSender.setMessageFormat(format);
   }
 
   public MessageFormat getMessageFormat() {
@@ -43,16 +60,6 @@ public class SyslogDao extends HostBasedLogstashIndexerDao {
     // Making the JSON document compliant to Common Event Expression (CEE)
     // Ref: http://www.rsyslog.com/json-elasticsearch/
     data = " @cee: "  + data;
-    // SYSLOG Configuration
-    messageSender.setDefaultMessageHostname(getHost());
-    messageSender.setDefaultAppName("jenkins:");
-    messageSender.setDefaultFacility(Facility.USER);
-    messageSender.setDefaultSeverity(Severity.INFORMATIONAL);
-    messageSender.setSyslogServerHostname(getHost());
-    messageSender.setSyslogServerPort(getPort());
-    // The Logstash syslog input module support only the RFC_3164 format
-    // Ref: https://www.elastic.co/guide/en/logstash/current/plugins-inputs-syslog.html
-    messageSender.setMessageFormat(messageFormat);
     // Sending the message
     messageSender.sendMessage(data);
   }
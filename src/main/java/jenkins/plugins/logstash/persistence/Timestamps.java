@@ -0,0 +1,137 @@
+package jenkins.plugins.logstash.persistence;
+
+import org.apache.commons.lang.time.FastDateFormat;
+
+import jenkins.plugins.logstash.LogstashConfiguration;
+
+/**
+ * Formats the time stamps of log events with the date format of the {@link LogstashConfiguration}.
+ *
+ * Most events of a build are created within the same second, so the text of the current second is
+ * formatted once and cached. For the following events of that second only the milliseconds are
+ * rendered. The configuration is also looked up only once per second. Where there is no configuration,
+ * like on an agent, the date format has to be set with {@link #setFormatter(FastDateFormat)}.
+ */
+public final class Timestamps
+{
+  private static volatile Second current;
+  private static volatile FastDateFormat formatter;
+
+  private Timestamps()
+  {
+  }
+
+  /**
+   * Formats a time stamp.
+   *
+   * @param millis the time in milliseconds since the epoch
+   * @return the formatted time stamp
+   */
+  public static String format(long millis)
+  {
+    long second = Math.floorDiv(millis, 1000);
+    Second cached = current;
+    if (cached == null || cached.second != second)
+    {
+      FastDateFormat fixed = formatter;
+      cached = new Second(fixed != null ? fixed : LogstashConfiguration.getInstance().getDateFormatter(), second);
+      current = cached;
+    }
+    return cached.format(millis);
+  }
+
+  /**
+   * @return the current time formatted as time stamp
+   */
+  public static String now()
+  {
+    return format(System.currentTimeMillis());
+  }
+
+  /**
+   * Sets the date format that is used instead of the one of the configuration.
+   *
+   * @param formatter the date format, null to use the configuration again
+   */
+  public static void setFormatter(FastDateFormat formatter)
+  {
+    Timestamps.formatter = formatter;
+    current = null;
+  }
+
+  /**
+   * Drops the cached second, e.g. when the date format was changed.
+   */
+  public static void reset()
+  {
+    current = null;
+  }
+
+  /**
+   * The formatted text of one second, split around the milliseconds.
+   */
+  static final class Second
+  {
+    private final FastDateFormat formatter;
+    private final long second;
+    private final String prefix;
+    private final String suffix;
+    // true if the milliseconds are rendered as three digits between prefix and suffix
+    private final boolean millis;
+
+    Second(FastDateFormat formatter, long second)
+    {
+      this.formatter = formatter;
+      this.second = second;
+      String first = formatter.format(second * 1000);
+      String last = formatter.format(second * 1000 + 999);
+      int start = 0;
+      while (start < first.length() && start < last.length() && first.charAt(start) == last.charAt(start))
+      {
+        start++;
+      }
+      if (start == first.length() && start == last.length())
+      {
+        // the format has no milliseconds
+        prefix = first;
+        suffix = "";
+        millis = false;
+      }
+      else if (first.length() == last.length() && start + 3 <= first.length()
+          && first.startsWith("000", start) && last.startsWith("999", start)
+          && first.regionMatches(start + 3, last, start + 3, first.length() - start - 3))
+      {
+        prefix = first.substring(0, start);
+        suffix = first.substring(start + 3);
+        millis = true;
+      }
+      else
+      {
+        // an unusual format, every time stamp is formatted completely
+        prefix = null;
+        suffix = null;
+        millis = false;
+      }
+    }
+
+    String format(long time)
+    {
+      if (prefix == null)
+      {
+        return formatter.format(time);
+      }
+      if (!millis)
+      {
+        return prefix;
+      }
+      int ms = (int) Math.floorMod(time, 1000L);
+      StringBuilder sb = new StringBuilder(prefix.length() + 3 + suffix.length());
+      sb.append(prefix)
+        .append((char) ('0' + ms / 100))
+        .append((char) ('0' + ms / 10 % 10))
+        .append((char) ('0' + ms % 10))
+        .append(suffix);
+      return sb.toString();
+    }
+  }
+}
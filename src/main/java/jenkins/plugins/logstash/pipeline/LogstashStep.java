@@ -14,6 +14,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 import hudson.Extension;
 import hudson.console.ConsoleLogFilter;
+import hudson.model.Node;
 import hudson.model.Run;
 import jenkins.YesNoMaybe;
 import jenkins.plugins.logstash.LogstashConsoleLogFilter;
@@ -48,7 +49,9 @@ public class LogstashStep extends AbstractStepImpl {
         throws IOException, InterruptedException {
       ConsoleLogFilter original = context.get(ConsoleLogFilter.class);
       Run<?, ?> build = context.get(Run.class);
-      ConsoleLogFilter subsequent = new LogstashConsoleLogFilter(build);
+      // null if the step is not inside a node block
+      Node node = context.get(Node.class);
+      ConsoleLogFilter subsequent = new LogstashConsoleLogFilter(build, node);
       return BodyInvoker.mergeConsoleLogFilters(original, subsequent);
     }
 
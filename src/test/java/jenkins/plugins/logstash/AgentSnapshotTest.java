@@ -0,0 +1,156 @@
+package jenkins.plugins.logstash;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.mockito.Mock;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.slaves.DumbSlave;
+import jenkins.plugins.logstash.configuration.RabbitMq;
+import jenkins.plugins.logstash.persistence.MemoryDao;
+import net.sf.json.JSONObject;
+
+@RunWith(PowerMockRunner.class)
+@PowerMockIgnore({"javax.crypto.*"})
+@PrepareForTest(LogstashConfiguration.class)
+public class AgentSnapshotTest
+{
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Mock
+    private LogstashConfiguration logstashConfiguration;
+
+    private MemoryDao memoryDao;
+
+    private FreeStyleBuild build;
+
+    @Before
+    public void setup() throws Exception
+    {
+        memoryDao = new MemoryDao();
+        PowerMockito.mockStatic(LogstashConfiguration.class);
+
+        RabbitMq indexer = new RabbitMq("UTF-16");
+        indexer.setHost("localhost");
+        indexer.setPort(4567);
+        indexer.setPassword("password");
+        when(LogstashConfiguration.getInstance()).thenReturn(logstashConfiguration);
+        when(logstashConfiguration.getIndexerInstance()).thenReturn(memoryDao);
+        PowerMockito.doReturn(indexer).when(logstashConfiguration).getLogstashIndexer();
+        when(logstashConfiguration.getDateFormatter()).thenCallRealMethod();
+
+        FreeStyleProject project = jenkins.createFreeStyleProject();
+        build = jenkins.buildAndAssertSuccess(project);
+    }
+
+    private AgentSnapshot serialize(AgentSnapshot snapshot) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(snapshot);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            return (AgentSnapshot) in.readObject();
+        }
+    }
+
+    @Test
+    public void snapshotIsSerializable() throws Exception
+    {
+        AgentSnapshot snapshot = serialize(new AgentSnapshot(build, logstashConfiguration, null));
+
+        assertThat(snapshot.getBuildData().getFullProjectName(), equalTo(build.getParent().getFullName()));
+        assertThat(snapshot.getBuildData().getTimestamp(), notNullValue());
+        assertThat(snapshot.getCharset(), equalTo(build.getCharset()));
+    }
+
+    @Test
+    public void snapshotHasHostOfNode() throws Exception
+    {
+        DumbSlave agent = jenkins.createSlave("agent-1", "linux", null);
+
+        AgentSnapshot snapshot = serialize(new AgentSnapshot(build, logstashConfiguration, agent));
+
+        assertThat(snapshot.getBuildData().getBuildHost(), equalTo("agent-1"));
+        assertThat(snapshot.getBuildData().getBuildLabel(), equalTo("linux"));
+        assertThat(BuildDataCache.get(build, null).getBuildHost(), equalTo("master"));
+    }
+
+    @Test
+    public void snapshotHasNoHostOfUnknownNode() throws Exception
+    {
+        AgentSnapshot snapshot = serialize(new AgentSnapshot(build, logstashConfiguration, null));
+
+        assertThat(snapshot.getBuildData().getBuildHost(), nullValue());
+        assertThat(snapshot.getBuildData().getBuildLabel(), nullValue());
+    }
+
+    @Test
+    public void savedSnapshotHasNoIndexer() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // outside of a remote call, like when the state of a Pipeline is saved
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(new AgentSnapshot(build, logstashConfiguration, null));
+        }
+
+        String serialized = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+        assertThat(serialized, not(containsString(RabbitMq.class.getName())));
+        assertThat(serialized, not(containsString("password")));
+    }
+
+    @Test
+    public void spillingIsReplacedByBuffering() throws Exception
+    {
+        when(logstashConfiguration.getOutagePolicy()).thenReturn(OutagePolicy.SPILL);
+
+        AgentSnapshot snapshot = serialize(new AgentSnapshot(build, logstashConfiguration, null));
+
+        assertThat(snapshot.getSettings().outagePolicy, equalTo(OutagePolicy.BUFFER));
+    }
+
+    @Test
+    public void writerSendsLinesWithSnapshot() throws Exception
+    {
+        AgentSnapshot snapshot = serialize(new AgentSnapshot(build, logstashConfiguration, null));
+
+        LogstashWriter writer = snapshot.createWriter(new ByteArrayOutputStream());
+        writer.write("line from the agent");
+        writer.close();
+
+        List<JSONObject> dataLines = memoryDao.getOutput();
+        assertThat(dataLines.size(), is(1));
+        JSONObject line = dataLines.get(0);
+        assertThat(line.getJSONArray("message").get(0).toString(), equalTo("line from the agent"));
+        assertThat(line.getJSONObject("data").getString("fullProjectName"), equalTo(build.getParent().getFullName()));
+    }
+}
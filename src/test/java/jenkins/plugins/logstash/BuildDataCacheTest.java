@@ -0,0 +1,107 @@
+package jenkins.plugins.logstash;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hudson.model.Run;
+import jenkins.plugins.logstash.persistence.BuildData;
+
+public class BuildDataCacheTest
+{
+  private Run<?, ?> run;
+  private Supplier<BuildData> factory;
+
+  @Before
+  public void before()
+  {
+    run = mock(Run.class);
+    when(run.isLogUpdated()).thenReturn(true);
+    factory = () -> mock(BuildData.class);
+  }
+
+  @After
+  public void after()
+  {
+    BuildDataCache.remove(run);
+  }
+
+  @Test
+  public void dataIsSharedByWritersOfBuild()
+  {
+    BuildData data = BuildDataCache.getOrCreate(run, factory);
+    assertThat(BuildDataCache.getOrCreate(run, factory), sameInstance(data));
+  }
+
+  @Test
+  public void dataIsCreatedAgainAfterInvalidation()
+  {
+    BuildData data = BuildDataCache.getOrCreate(run, factory);
+    BuildDataCache.invalidate(run);
+    assertThat(BuildDataCache.getOrCreate(run, factory), not(sameInstance(data)));
+  }
+
+  @Test
+  public void progressIsKeptAfterInvalidation()
+  {
+    BuildProgress progress = BuildDataCache.getProgress(run);
+    BuildDataCache.getOrCreate(run, factory);
+    BuildDataCache.invalidate(run);
+    assertThat(BuildDataCache.getProgress(run), sameInstance(progress));
+  }
+
+  @Test
+  public void progressIsDroppedWhenBuildIsRemoved()
+  {
+    BuildProgress progress = BuildDataCache.getProgress(run);
+    BuildDataCache.remove(run);
+    assertThat(BuildDataCache.getProgress(run), not(sameInstance(progress)));
+  }
+
+  @Test
+  public void completedBuildsAreNotCached()
+  {
+    when(run.isLogUpdated()).thenReturn(false);
+    int size = BuildDataCache.size();
+    BuildData data = BuildDataCache.getOrCreate(run, factory);
+    assertThat(BuildDataCache.getOrCreate(run, factory), not(sameInstance(data)));
+    assertThat(BuildDataCache.size(), is(size));
+  }
+
+  @Test
+  public void entriesOfStoppedBuildsAreDroppedWhenOthersAreAdded()
+  {
+    BuildDataCache.getOrCreate(run, factory);
+    BuildDataCache.getProgress(run);
+    int size = BuildDataCache.size();
+    when(run.isLogUpdated()).thenReturn(false);
+    Run<?, ?> other = mock(Run.class);
+    when(other.isLogUpdated()).thenReturn(true);
+    try
+    {
+      BuildDataCache.getProgress(other);
+      assertThat(BuildDataCache.size(), is(size - 1));
+    }
+    finally
+    {
+      BuildDataCache.remove(other);
+    }
+  }
+
+  @Test
+  public void rateLimiterIsSharedByWritersOfBuild()
+  {
+    RateLimiter limiter = BuildDataCache.getRateLimiter(run, 10, 0);
+    assertThat(BuildDataCache.getRateLimiter(run, 10, 0), sameInstance(limiter));
+    assertThat(BuildDataCache.getRateLimiter(run, 20, 0), not(sameInstance(limiter)));
+  }
+}
@@ -0,0 +1,56 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BuildProgressTest
+{
+  @Test
+  public void headersAreClaimedOnce()
+  {
+    BuildProgress progress = new BuildProgress();
+
+    // Unit under test and verify results
+    assertTrue(progress.claimStartHeader());
+    assertFalse(progress.claimStartHeader());
+    assertTrue(progress.claimFinalHeader());
+    assertFalse(progress.claimFinalHeader());
+    assertTrue(progress.claimResultLine());
+    assertFalse(progress.claimResultLine());
+  }
+
+  @Test
+  public void agentGetsSequencesOfItsOwn()
+  {
+    BuildProgress progress = new BuildProgress();
+    assertEquals(1, progress.nextSequence());
+
+    // Unit under test
+    BuildProgress agent = progress.forAgent();
+
+    // Verify results
+    assertEquals(2, agent.nextSequence());
+    assertEquals(BuildProgress.AGENT_SEQUENCES + 2, progress.nextSequence());
+    assertEquals(3, agent.nextSequence());
+  }
+
+  @Test
+  public void agentSendsStartHeaderOnlyIfUnclaimed()
+  {
+    BuildProgress progress = new BuildProgress();
+
+    // Unit under test
+    BuildProgress first = progress.forAgent();
+    BuildProgress second = progress.forAgent();
+
+    // Verify results
+    assertTrue(first.claimStartHeader());
+    assertFalse(second.claimStartHeader());
+    assertFalse(progress.claimStartHeader());
+    assertFalse(first.claimFinalHeader());
+    assertFalse(first.claimResultLine());
+  }
+}
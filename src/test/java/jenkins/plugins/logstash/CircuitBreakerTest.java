@@ -0,0 +1,200 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import jenkins.plugins.logstash.persistence.EventBuffer;
+import jenkins.plugins.logstash.persistence.LogEvent;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+import jenkins.plugins.logstash.persistence.RejectedEventsException;
+
+public class CircuitBreakerTest {
+
+  private LogstashIndexerDao dao;
+  private CircuitBreaker breaker;
+
+  @Before
+  public void before() throws Exception {
+    dao = mock(LogstashIndexerDao.class);
+    when(dao.getDescription()).thenReturn("localhost:8080");
+    breaker = CircuitBreaker.of(dao);
+  }
+
+  private static EventBuffer events(String... events) {
+    EventBuffer buffer = new EventBuffer();
+    for (String event : events) {
+      buffer.writeEvent(event);
+    }
+    return buffer;
+  }
+
+  @Test
+  public void ofReturnsSharedBreaker() throws Exception {
+    assertTrue(breaker == CircuitBreaker.of(dao));
+    assertFalse(breaker == CircuitBreaker.of(mock(LogstashIndexerDao.class)));
+  }
+
+  @Test
+  public void pushRetriesFailedPush() throws Exception {
+    Mockito.doThrow(new IOException("BOOM!")).doNothing().when(dao).push(any(EventBuffer.class));
+
+    // Unit under test
+    breaker.push(events("{}"));
+
+    // Verify results
+    verify(dao, times(2)).push(any(EventBuffer.class));
+    assertFalse(breaker.isOpen());
+    assertEquals(0, breaker.getOutages());
+  }
+
+  @Test
+  public void pushRetriesOnlyRejectedEvents() throws Exception {
+    List<String> pushed = new CopyOnWriteArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      pushed.add(String.join(",", ((EventBuffer) invocation.getArgument(0)).toStrings()));
+      if (pushed.size() == 1) {
+        throw new RejectedEventsException("busy", Arrays.asList("{\"b\":2}"));
+      }
+      return null;
+    }).when(dao).push(any(EventBuffer.class));
+
+    // Unit under test
+    breaker.push(events("{\"a\":1}", "{\"b\":2}"));
+
+    // Verify results
+    verify(dao, times(2)).push(any(EventBuffer.class));
+    assertEquals(Arrays.asList("{\"a\":1},{\"b\":2}", "{\"b\":2}"), pushed);
+  }
+
+  @Test
+  public void pushOpensCircuitAfterFailures() throws Exception {
+    Mockito.doThrow(new IOException("BOOM!")).when(dao).push(any(EventBuffer.class));
+
+    // Unit under test
+    try {
+      breaker.push(events("{}"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("BOOM!", e.getMessage());
+    }
+
+    // Verify results
+    assertTrue(breaker.isOpen());
+    assertEquals(1, breaker.getOutages());
+
+    // Unit under test
+    try {
+      breaker.push(events("{}"));
+      fail("Expected a CircuitOpenException");
+    } catch (CircuitBreaker.CircuitOpenException e) {
+      assertEquals("localhost:8080 is not available", e.getMessage());
+    }
+
+    // Verify the open circuit did not push
+    verify(dao, times(CircuitBreaker.MAX_ATTEMPTS)).push(any(EventBuffer.class));
+  }
+
+  @Test
+  public void pushEventsLimitsPauseOfCaller() throws Exception {
+    List<Long> attempts = new CopyOnWriteArrayList<>();
+    Mockito.doAnswer(invocation -> {
+      attempts.add(System.currentTimeMillis());
+      throw new IOException("BOOM!");
+    }).when(dao).pushEvents(anyListOf(LogEvent.class));
+
+    // Unit under test
+    try {
+      breaker.pushEvents(Collections.emptyList(), 0);
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("BOOM!", e.getMessage());
+    }
+
+    // Verify all attempts were made without the backoff, which pauses at least half of the delays
+    assertEquals(CircuitBreaker.MAX_ATTEMPTS, attempts.size());
+    assertTrue("Caller paused", attempts.get(attempts.size() - 1) - attempts.get(0) < CircuitBreaker.RETRY_DELAY * 3 / 2);
+    assertTrue(breaker.isOpen());
+  }
+
+  @Test
+  public void pushClosesCircuitAfterSuccessfulTrial() throws Exception {
+    Mockito.doThrow(new IOException("BOOM!")).doThrow(new IOException("BOOM!")).doThrow(new IOException("BOOM!"))
+      .doNothing().when(dao).push(any(EventBuffer.class));
+    try {
+      breaker.push(events("{}"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // expected
+    }
+    Thread.sleep(CircuitBreaker.OPEN_DELAY);
+
+    // Unit under test
+    breaker.push(events("{}"));
+
+    // Verify results
+    assertFalse(breaker.isOpen());
+    verify(dao, times(CircuitBreaker.MAX_ATTEMPTS + 1)).push(any(EventBuffer.class));
+  }
+
+  @Test
+  public void bufferedEventsAreSentAfterRecovery() throws Exception {
+    breaker.configure(OutagePolicy.BUFFER, 0, 0, 0);
+    List<List<String>> sent = new CopyOnWriteArrayList<>();
+    Mockito.doThrow(new IOException("BOOM!")).doThrow(new IOException("BOOM!")).doThrow(new IOException("BOOM!"))
+      .doAnswer(invocation -> sent.add(invocation.<EventBuffer>getArgument(0).toStrings()))
+      .when(dao).push(any(EventBuffer.class));
+    try {
+      breaker.push(events("{\"i\":1}"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Unit under test
+    breaker.push(events("{\"i\":2}", "{\"i\":3}"));
+
+    // Verify results
+    assertEquals(3, breaker.getBufferedEvents());
+    for (int i = 0; i < 50 && sent.isEmpty(); i++) {
+      Thread.sleep(100);
+    }
+    verify(dao, times(CircuitBreaker.MAX_ATTEMPTS + 1)).push(any(EventBuffer.class));
+    assertEquals(Collections.singletonList(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}")), sent);
+  }
+
+  @Test
+  public void bufferDropsEventsWhenFull() throws Exception {
+    breaker.configure(OutagePolicy.BUFFER, 2, 0, 0);
+    Mockito.doThrow(new IOException("BOOM!")).when(dao).push(any(EventBuffer.class));
+    try {
+      breaker.push(events("{\"i\":1}"));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // Unit under test
+    breaker.push(events("{\"i\":2}", "{\"i\":3}"));
+
+    // Verify results
+    assertEquals(2, breaker.getBufferedEvents());
+  }
+}
@@ -0,0 +1,49 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class EscapeSequencesTest {
+
+  private static String strip(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    byte[] target = new byte[bytes.length];
+    int length = EscapeSequences.strip(bytes, bytes.length, target);
+    return new String(target, 0, length, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void lineWithoutEscapes() throws Exception {
+    byte[] bytes = "plain line \u00e4".getBytes(StandardCharsets.UTF_8);
+
+    // Unit under test and verify results
+    assertFalse(EscapeSequences.contains(bytes, bytes.length));
+    assertEquals("plain line \u00e4", strip("plain line \u00e4"));
+  }
+
+  @Test
+  public void removeConsoleNotes() throws Exception {
+    String note = "\u001B[8mha:AAAAWB+LCAAAAAAAAP9b85aBtbiIQSmjNKU4P0+vIKc0PTOvWK8kMze1uCQxtyC1SC8ExvbLL0llgABGJgZGLwaO4tKknIJin8yy1HLnPE8fXr/k7AIwlEGZgSG0q9H+b76iZKdJP3Dx5+vLjeEWQCEAjHXWgmUAAAA=\u001B[0m";
+    byte[] bytes = (note + "Started").getBytes(StandardCharsets.UTF_8);
+
+    // Unit under test and verify results
+    assertTrue(EscapeSequences.contains(bytes, bytes.length));
+    assertEquals("Started by user", strip(note + "Started by " + note + "user"));
+  }
+
+  @Test
+  public void removeAnsiSequences() throws Exception {
+    // Unit under test and verify results
+    assertEquals("red and bold", strip("\u001B[1;31mred\u001B[0m and \u001B[1mbold\u001B[m"));
+    assertEquals("title", strip("\u001B]0;window\u0007title"));
+    assertEquals("title", strip("\u001B]0;window\u001B\\title"));
+    assertEquals("saved", strip("\u001B7saved\u001B8"));
+    assertEquals("cut ", strip("cut \u001B[1;3"));
+    assertEquals("end", strip("end\u001B"));
+  }
+}
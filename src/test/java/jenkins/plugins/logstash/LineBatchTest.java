@@ -0,0 +1,47 @@
+package jenkins.plugins.logstash;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class LineBatchTest
+{
+
+  @Test
+  public void batchIsCompleteWhenMaxLinesReached()
+  {
+    LineBatch batch = new LineBatch(3, 1000, 1000);
+    assertThat(batch.add("line 1", 0), nullValue());
+    assertThat(batch.add("line 2", 0), nullValue());
+    assertThat(batch.add("line 3", 0), contains("line 1", "line 2", "line 3"));
+    assertThat(batch.take(), nullValue());
+  }
+
+  @Test
+  public void batchIsCompleteWhenMaxBytesReached()
+  {
+    LineBatch batch = new LineBatch(100, 10, 1000);
+    assertThat(batch.add("12345", 0), nullValue());
+    assertThat(batch.add("67890", 0), contains("12345", "67890"));
+  }
+
+  @Test
+  public void batchExpiresAfterMaxDelay()
+  {
+    LineBatch batch = new LineBatch(100, 1000, 1000);
+    assertThat(batch.add("line 1", 500), nullValue());
+    assertThat(batch.takeIfExpired(1499), nullValue());
+    assertThat(batch.takeIfExpired(1500), contains("line 1"));
+    assertThat(batch.takeIfExpired(5000), nullValue());
+  }
+
+  @Test
+  public void takeReturnsIncompleteBatch()
+  {
+    LineBatch batch = new LineBatch(100, 1000, 1000);
+    batch.add("line 1", 0);
+    assertThat(batch.take(), contains("line 1"));
+  }
+}
@@ -0,0 +1,111 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogTailTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File log(String content, Charset charset) throws Exception {
+    File file = folder.newFile("log");
+    Files.write(file.toPath(), content.getBytes(charset));
+    return file;
+  }
+
+  @Test
+  public void readLastLines() throws Exception {
+    File file = log("line 1\nline 2\nline 3\nline 4\n", StandardCharsets.UTF_8);
+
+    // Unit under test
+    List<String> lines = LogTail.read(file, StandardCharsets.UTF_8, 3);
+
+    // Verify results
+    assertEquals(Arrays.asList("[...truncated 7 bytes...]", "line 3", "line 4"), lines);
+  }
+
+  @Test
+  public void readAllLinesOfShortLog() throws Exception {
+    File file = log("line 1\r\nline 2", StandardCharsets.UTF_8);
+
+    // Unit under test
+    List<String> lines = LogTail.read(file, StandardCharsets.UTF_8, 3);
+
+    // Verify results
+    assertEquals(Arrays.asList("line 1", "line 2"), lines);
+  }
+
+  @Test
+  public void readZeroLines() throws Exception {
+    File file = log("line 1\n", StandardCharsets.UTF_8);
+
+    // Unit under test
+    List<String> lines = LogTail.read(file, StandardCharsets.UTF_8, 0);
+
+    // Verify results
+    assertEquals(Collections.emptyList(), lines);
+  }
+
+  @Test
+  public void readAcrossBlocks() throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      content.append("\u00e4\u20ac line ").append(i).append('\n');
+    }
+    File file = log(content.toString(), StandardCharsets.UTF_8);
+
+    // Unit under test
+    List<String> lines = LogTail.read(file, StandardCharsets.UTF_8, 1000);
+
+    // Verify results
+    assertEquals(1000, lines.size());
+    assertTrue(lines.get(0).startsWith("[...truncated "));
+    assertEquals("\u00e4\u20ac line 9001", lines.get(1));
+    assertEquals("\u00e4\u20ac line 9999", lines.get(999));
+  }
+
+  @Test
+  public void readRemovesConsoleNotes() throws Exception {
+    File file = log("\u001B[8mha:AAAAWB+LCAAAAAAAAP9b85aBtbiIQSmjNKU4P0+vIKc0PTOvWK8kMze1uCQxtyC1SC8ExvbLL0llgABGJgZGLwaO4tKknIJin8yy1HLnPE8fXr/k7AIwlEGZgSG0q9H+b76iZKdJP3Dx5+vLjeEWQCEAjHXWgmUAAAA=\u001B[0mline 1\n",
+        StandardCharsets.UTF_8);
+
+    // Unit under test
+    List<String> lines = LogTail.read(file, StandardCharsets.UTF_8, 1);
+
+    // Verify results
+    assertEquals(Collections.singletonList("line 1"), lines);
+  }
+
+  @Test
+  public void unsupportedLogs() throws Exception {
+    File file = log("line 1\n", StandardCharsets.UTF_16);
+
+    // Unit under test and verify results
+    assertNull(LogTail.read(file, StandardCharsets.UTF_16, 1));
+    assertNull(LogTail.read(folder.newFile("log.gz"), StandardCharsets.UTF_8, 1));
+    assertNull(LogTail.read(new File(folder.getRoot(), "missing"), StandardCharsets.UTF_8, 1));
+    assertNull(LogTail.read(file, null, 1));
+  }
+
+  @Test
+  public void asciiCompatibleCharsets() throws Exception {
+    assertTrue(LogTail.isAsciiCompatible(StandardCharsets.UTF_8));
+    assertTrue(LogTail.isAsciiCompatible(StandardCharsets.ISO_8859_1));
+    assertFalse(LogTail.isAsciiCompatible(StandardCharsets.UTF_16LE));
+  }
+}
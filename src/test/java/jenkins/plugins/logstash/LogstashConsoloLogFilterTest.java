@@ -94,6 +94,7 @@ public class LogstashConsoloLogFilterTest {
     assertNotNull("Result was null", result);
     assertTrue("Result is not the right type", result instanceof LogstashOutputStream);
     assertSame("Result has wrong writer", mockWriter, ((LogstashOutputStream) result).getLogstashWriter());
+    verify(mockWriter).newAggregator();
     assertEquals("Results don't match", "", buffer.toString());
     verify(mockWriter).isConnectionBroken();
   }
@@ -126,6 +127,7 @@ public class LogstashConsoloLogFilterTest {
     assertNotNull("Result was null", result);
     assertTrue("Result is not the right type", result instanceof LogstashOutputStream);
     assertSame("Result has wrong writer", mockWriter, ((LogstashOutputStream) result).getLogstashWriter());
+    verify(mockWriter).newAggregator();
     assertEquals("Error was not written", "Mocked Constructor failure", buffer.toString());
     verify(mockWriter).isConnectionBroken();
   }
@@ -143,6 +145,7 @@ public class LogstashConsoloLogFilterTest {
     assertNotNull("Result was null", result);
     assertTrue("Result is not the right type", result instanceof LogstashOutputStream);
     assertSame("Result has wrong writer", mockWriter, ((LogstashOutputStream) result).getLogstashWriter());
+    verify(mockWriter).newAggregator();
     assertEquals("Results don't match", "", buffer.toString());
     verify(mockWriter).isConnectionBroken();
   }
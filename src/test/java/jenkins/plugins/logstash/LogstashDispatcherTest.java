@@ -0,0 +1,135 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyListOf;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import jenkins.plugins.logstash.persistence.LogEvent;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+
+public class LogstashDispatcherTest {
+
+  private LogstashIndexerDao dao;
+  private List<String> sent;
+  private CountDownLatch released;
+  private LogstashDispatcher dispatcher;
+
+  @Before
+  public void before() throws Exception {
+    sent = new CopyOnWriteArrayList<>();
+    released = new CountDownLatch(1);
+    dao = mock(LogstashIndexerDao.class);
+    // the sender waits in its first push until all lines are queued
+    doAnswer(invocation -> {
+      released.await(5, TimeUnit.SECONDS);
+      for (LogEvent event : invocation.<List<LogEvent>>getArgument(0)) {
+        sent.add(String.join(",", event.getLines()));
+      }
+      return null;
+    }).when(dao).pushEvents(anyListOf(LogEvent.class));
+    dispatcher = LogstashDispatcher.reconfigure(1, 5000, false);
+  }
+
+  private LogstashWriter writer(String name) {
+    LogstashWriter writer = mock(LogstashWriter.class);
+    when(writer.getDao()).thenReturn(dao);
+    when(writer.toEvent(anyListOf(String.class), anyLong()))
+      .thenReturn(new LogEvent(null, "", Collections.singletonList(name), 0));
+    return writer;
+  }
+
+  private void awaitSent(int count) throws InterruptedException {
+    for (int i = 0; i < 100 && sent.size() < count; i++) {
+      Thread.sleep(50);
+    }
+  }
+
+  @Test
+  public void noisyBuildDoesNotDelayOtherBuilds() throws Exception {
+    LogstashDispatcher.BuildQueue noisy = LogstashDispatcher.newQueue(writer("noisy"));
+    LogstashDispatcher.BuildQueue quiet = LogstashDispatcher.newQueue(writer("quiet"));
+
+    // Unit under test
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(dispatcher.dispatch(noisy, Collections.singletonList("line"), 0));
+    }
+    assertTrue(dispatcher.dispatch(quiet, Collections.singletonList("line"), 0));
+    released.countDown();
+
+    // Verify results
+    awaitSent(1001);
+    assertEquals(1001, sent.size());
+    assertTrue("Quiet build waited for the noisy one", sent.indexOf("quiet") <= 2 * LogstashDispatcher.QUANTUM);
+    assertEquals(0, noisy.size());
+  }
+
+  @Test
+  public void concurrentPushesKeepLinesInOrder() throws Exception {
+    dispatcher = LogstashDispatcher.reconfigure(2, 5000, true);
+    LogstashWriter writer = mock(LogstashWriter.class);
+    when(writer.getDao()).thenReturn(dao);
+    when(writer.toEvent(anyListOf(String.class), anyLong()))
+      .thenAnswer(invocation -> new LogEvent(null, "", invocation.<List<String>>getArgument(0), 0));
+    LogstashDispatcher.BuildQueue queue = LogstashDispatcher.newQueue(writer);
+    released.countDown();
+
+    // Unit under test
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(dispatcher.dispatch(queue, Collections.singletonList(Integer.toString(i)), 0));
+    }
+
+    // Verify results
+    awaitSent(1000);
+    assertEquals(1000, sent.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(Integer.toString(i), sent.get(i));
+    }
+  }
+
+  @Test
+  public void waitingLinesAreMergedIntoBatches() throws Exception {
+    LogstashWriter writer = mock(LogstashWriter.class);
+    when(writer.getDao()).thenReturn(dao);
+    when(writer.toEvent(anyListOf(String.class), anyLong()))
+      .thenAnswer(invocation -> new LogEvent(null, "", invocation.<List<String>>getArgument(0), 0));
+    LogstashDispatcher.BuildQueue queue = LogstashDispatcher.newQueue(writer, 3, Integer.MAX_VALUE);
+
+    // Unit under test
+    for (int i = 0; i < 7; i++) {
+      assertTrue(dispatcher.dispatch(queue, Collections.singletonList(Integer.toString(i)), 0));
+    }
+    released.countDown();
+
+    // Verify results
+    // the sender may take the first lines before the others are queued, the rest waits for the first push
+    awaitSent(3);
+    Thread.sleep(100);
+    assertEquals(3, sent.size());
+    assertEquals("0,1,2,3,4,5,6", String.join(",", sent));
+  }
+
+  @Test
+  public void queuesAreMonitored() throws Exception {
+    LogstashWriter writer = writer("monitored");
+
+    // Unit under test
+    LogstashDispatcher.BuildQueue queue = LogstashDispatcher.newQueue(writer);
+
+    // Verify results
+    assertTrue(LogstashDispatcher.getQueues().contains(queue));
+    assertEquals(writer, queue.getWriter());
+  }
+}
@@ -19,10 +19,14 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -33,10 +37,15 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import jenkins.model.Jenkins;
+import jenkins.plugins.logstash.persistence.AbstractLogstashIndexerDao;
+import jenkins.plugins.logstash.persistence.BuildData;
+import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
+
 @SuppressWarnings("rawtypes")
 @RunWith(PowerMockRunner.class)
 @PowerMockIgnore({"javax.crypto.*"})
-@PrepareForTest(LogstashConfiguration.class)
+@PrepareForTest({LogstashConfiguration.class, Jenkins.class})
 public class LogstashNotifierTest {
 
   // Extension of the unit under test that avoids making calls to Jenkins.getInstance() to get the DAO singleton
@@ -79,6 +88,9 @@ public class LogstashNotifierTest {
     }
   }
 
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Mock AbstractBuild<?, ?> mockBuild;
   @Mock LogstashWriter mockWriter;
   @Mock Launcher mockLauncher;
@@ -111,7 +123,7 @@ public class LogstashNotifierTest {
 
     // Initialize mocks
     when(mockWriter.isConnectionBroken()).thenReturn(false);
-    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt());
+    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt(), anyInt());
 
     notifier = new MockLogstashNotifier(3, false, mockWriter);
   }
@@ -134,7 +146,7 @@ public class LogstashNotifierTest {
     assertTrue("Build should not be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
     verify(mockWriter).isConnectionBroken();
 
     assertEquals("Errors were written", "", errorBuffer.toString());
@@ -150,7 +162,7 @@ public class LogstashNotifierTest {
     assertEquals("Result not null", null, mockRun.getResult());
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
     verify(mockWriter).isConnectionBroken();
 
     assertEquals("Errors were written", "", errorBuffer.toString());
@@ -170,7 +182,7 @@ public class LogstashNotifierTest {
     assertTrue("Build should not be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
     verify(mockWriter).isConnectionBroken();
 
     assertEquals("Error was not written", "Mocked Constructor failure", errorBuffer.toString());
@@ -190,7 +202,7 @@ public class LogstashNotifierTest {
     assertEquals("Result not null", null, mockRun.getResult());
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
     verify(mockWriter).isConnectionBroken();
 
     assertEquals("Error was not written", "Mocked Constructor failure", errorBuffer.toString());
@@ -200,6 +212,7 @@ public class LogstashNotifierTest {
   public void performBadWriterDoFailBuild() throws Exception {
     // Initialize mocks
     when(mockWriter.isConnectionBroken()).thenReturn(true);
+    when(mockWriter.isSendFailed()).thenReturn(true);
 
     notifier = new MockLogstashNotifier(3, true, mockWriter);
 
@@ -211,8 +224,9 @@ public class LogstashNotifierTest {
     assertFalse("Build should be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
-    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).isSendFailed();
     assertEquals("Error was not written", "Mocked Constructor failure", errorBuffer.toString());
   }
 
@@ -220,6 +234,7 @@ public class LogstashNotifierTest {
   public void performStepBadWriterDoFailBuild() throws Exception {
     // Initialize mocks
     when(mockWriter.isConnectionBroken()).thenReturn(true);
+    when(mockWriter.isSendFailed()).thenReturn(true);
 
     notifier = new MockLogstashNotifier(3, true, mockWriter);
 
@@ -230,8 +245,9 @@ public class LogstashNotifierTest {
     assertEquals("Result is not FAILURE", Result.FAILURE, mockRun.getResult());
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
-    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).isSendFailed();
     assertEquals("Error was not written", "Mocked Constructor failure", errorBuffer.toString());
   }
 
@@ -241,16 +257,15 @@ public class LogstashNotifierTest {
       "java.io.IOException: Unable to read log file\n";
 
     // Initialize mocks
-    when(mockWriter.isConnectionBroken()).thenReturn(false).thenReturn(false).thenReturn(true);
+    when(mockWriter.isConnectionBroken()).thenReturn(false);
+    when(mockWriter.isSendFailed()).thenReturn(true);
     Mockito.doAnswer(new Answer() {
       @Override
       public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-        if(!mockWriter.isConnectionBroken()) {
-          errorBuffer.write(errorMsg.getBytes());
-        }
+        errorBuffer.write(errorMsg.getBytes());
         return null;
       }
-    }).when(mockWriter).writeBuildLog(anyInt());
+    }).when(mockWriter).writeBuildLog(anyInt(), anyInt());
 
     notifier = new MockLogstashNotifier(3, true, mockWriter);
     assertEquals("Errors were written", "", errorBuffer.toString());
@@ -262,8 +277,9 @@ public class LogstashNotifierTest {
     assertFalse("Build should be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(3);
-    verify(mockWriter, times(3)).isConnectionBroken();
+    verify(mockWriter).writeBuildLog(3, LogstashWriter.DEFAULT_CHUNK_SIZE);
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).isSendFailed();
 
     assertThat("Wrong error message", errorBuffer.toString(), containsString(errorMsg));
   }
@@ -273,7 +289,7 @@ public class LogstashNotifierTest {
     // Initialize mocks
     when(mockWriter.isConnectionBroken()).thenReturn(false);
 
-    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt());
+    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt(), anyInt());
 
     notifier = new MockLogstashNotifier(-1, true, mockWriter);
 
@@ -284,8 +300,27 @@ public class LogstashNotifierTest {
     assertTrue("Build should not be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(-1);
-    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter).writeBuildLog(-1, LogstashWriter.DEFAULT_CHUNK_SIZE);
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).isSendFailed();
+
+    assertEquals("Errors were written", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void performAllLinesCustomChunkSize() throws Exception {
+    notifier = new MockLogstashNotifier(-1, false, mockWriter);
+    notifier.setChunkSize(50);
+
+    // Unit under test
+    boolean result = notifier.perform(mockBuild, mockLauncher, mockListener);
+
+    // Verify results
+    assertTrue("Build should not be marked as failure", result);
+
+    verify(mockListener).getLogger();
+    verify(mockWriter).writeBuildLog(-1, 50);
+    verify(mockWriter).isConnectionBroken();
 
     assertEquals("Errors were written", "", errorBuffer.toString());
   }
@@ -295,7 +330,7 @@ public class LogstashNotifierTest {
     // Initialize mocks
     when(mockWriter.isConnectionBroken()).thenReturn(false);
 
-    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt());
+    Mockito.doNothing().when(mockWriter).writeBuildLog(anyInt(), anyInt());
 
     notifier = new MockLogstashNotifier(0, true, mockWriter);
 
@@ -306,8 +341,9 @@ public class LogstashNotifierTest {
     assertTrue("Build should not be marked as failure", result);
 
     verify(mockListener).getLogger();
-    verify(mockWriter).writeBuildLog(0);
-    verify(mockWriter, times(2)).isConnectionBroken();
+    verify(mockWriter).writeBuildLog(0, LogstashWriter.DEFAULT_CHUNK_SIZE);
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).isSendFailed();
 
     assertEquals("Errors were written", "", errorBuffer.toString());
   }
@@ -322,4 +358,82 @@ public class LogstashNotifierTest {
     // Verify results
     assertEquals("External synchronization between builds is not required", BuildStepMonitor.NONE, synchronizationMonitor);
   }
+
+  @Test
+  public void performUnavailableIndexerBufferedDoFailBuild() throws Exception {
+    // Unit under test
+    boolean result = performWithUnavailableIndexer(OutagePolicy.BUFFER);
+
+    // Verify results
+    assertFalse("Build should be marked as failure", result);
+    verify(mockListener).getLogger();
+    assertThat("Error was not written", errorBuffer.toString(), containsString("Log lines are buffered"));
+  }
+
+  @Test
+  public void performUnavailableIndexerSpilledDoFailBuild() throws Exception {
+    Jenkins jenkins = PowerMockito.mock(Jenkins.class);
+    PowerMockito.mockStatic(Jenkins.class);
+    when(Jenkins.getInstance()).thenReturn(jenkins);
+    when(jenkins.getRootDir()).thenReturn(temporaryFolder.getRoot());
+
+    // Unit under test
+    boolean result = performWithUnavailableIndexer(OutagePolicy.SPILL);
+
+    // Verify results
+    assertFalse("Build should be marked as failure", result);
+    verify(mockListener).getLogger();
+    assertThat("Error was not written", errorBuffer.toString(), containsString("Log lines are buffered"));
+  }
+
+  /**
+   * Sends the log of a build with a real writer to an indexer that fails every push.
+   */
+  private boolean performWithUnavailableIndexer(OutagePolicy policy) throws Exception {
+    when(logstashConfiguration.getOutagePolicy()).thenReturn(policy);
+    when(logstashConfiguration.getDateFormatter()).thenCallRealMethod();
+    LogstashIndexerDao dao = new AbstractLogstashIndexerDao() {
+      @Override
+      public void push(String data) throws IOException {
+        throw new IOException("BOOM!");
+      }
+
+      @Override
+      public String getDescription() {
+        return "unavailable-" + policy;
+      }
+    };
+    BuildData buildData = mock(BuildData.class);
+    when(buildData.toJsonBytes()).thenReturn("{}".getBytes(StandardCharsets.UTF_8));
+    AbstractBuild<?, ?> build = mock(AbstractBuild.class);
+    when(build.getLogReader()).thenReturn(new StringReader("line 1\n"));
+
+    LogstashNotifier notifier = new LogstashNotifier(-1, true) {
+      @Override
+      LogstashWriter getLogStashWriter(Run<?, ?> run, OutputStream errorStream, TaskListener listener) {
+        return new LogstashWriter(run, errorStream, listener, StandardCharsets.UTF_8) {
+          @Override
+          LogstashIndexerDao getIndexerDao() {
+            return dao;
+          }
+
+          @Override
+          BuildData getBuildData() {
+            return buildData;
+          }
+
+          @Override
+          String getJenkinsUrl() {
+            return "http://my-jenkins-url";
+          }
+
+          @Override
+          LogstashJobProperty getJobProperty() {
+            return null;
+          }
+        };
+      }
+    };
+    return notifier.perform(build, mockLauncher, mockListener);
+  }
 }
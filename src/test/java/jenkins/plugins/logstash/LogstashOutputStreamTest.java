@@ -3,9 +3,11 @@ package jenkins.plugins.logstash;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 
@@ -31,13 +33,14 @@ public class LogstashOutputStreamTest {
   @Before
   public void before() throws Exception {
     buffer = new ByteArrayOutputStream();
-    Mockito.doNothing().when(mockWriter).write(anyString());
+    Mockito.doNothing().when(mockWriter).write(anyString(), isNull());
     when(mockWriter.isConnectionBroken()).thenReturn(false);
     when(mockWriter.getCharset()).thenReturn(Charset.defaultCharset());
   }
 
   @After
   public void after() throws Exception {
+    verify(mockWriter).newAggregator();
     verifyNoMoreInteractions(mockWriter);
     buffer.close();
   }
@@ -62,7 +65,25 @@ public class LogstashOutputStreamTest {
     // Verify results
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
-    verify(mockWriter).write(msg);
+    verify(mockWriter).write(msg, null);
+    verify(mockWriter).getCharset();
+  }
+
+  @Test
+  public void eolRemovesNotesAndColors() throws Exception {
+    LogstashOutputStream los = new LogstashOutputStream(buffer, mockWriter);
+    String msg = "\u001B[8mha:AAAAWB+LCAAAAAAAAP9b85aBtbiIQSmjNKU4P0+vIKc0PTOvWK8kMze1uCQxtyC1SC8ExvbLL0llgABGJgZGLwaO4tKknIJin8yy1HLnPE8fXr/k7AIwlEGZgSG0q9H+b76iZKdJP3Dx5+vLjeEWQCEAjHXWgmUAAAA=\u001B[0m"
+        + "  \u001B[1;31mred\u001B[0m test \r\n";
+    byte[] bytes = msg.getBytes(Charset.defaultCharset());
+    buffer.reset();
+
+    // Unit under test
+    los.eol(bytes, bytes.length);
+
+    // Verify results
+    assertEquals("Results don't match", msg, buffer.toString());
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).write("  red test", null);
     verify(mockWriter).getCharset();
   }
 
@@ -103,7 +124,7 @@ public class LogstashOutputStreamTest {
     }
 
     //Verify calls were made to the dao logging twice, not three times.
-    verify(mockWriter, times(2)).write(msg);
+    verify(mockWriter, times(2)).write(msg, null);
     verify(mockWriter, times(3)).isConnectionBroken();
     verify(mockWriter, times(2)).getCharset();
   }
@@ -122,4 +143,21 @@ public class LogstashOutputStreamTest {
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
   }
+
+  @Test
+  public void closeClosesWriterWhenDelegateFails() throws Exception {
+    OutputStream delegate = mock(OutputStream.class);
+    doThrow(new IOException("BOOM!")).when(delegate).close();
+    LogstashOutputStream los = new LogstashOutputStream(delegate, mockWriter);
+
+    // Unit under test
+    try {
+      los.close();
+      fail("Failure of the delegate was not thrown");
+    } catch (IOException e) {
+      // Verify results
+      assertEquals("BOOM!", e.getMessage());
+    }
+    verify(mockWriter).close();
+  }
 }
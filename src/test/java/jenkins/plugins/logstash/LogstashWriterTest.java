@@ -2,13 +2,18 @@ package jenkins.plugins.logstash;
 
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyListOf;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -17,11 +22,18 @@ import static org.powermock.api.mockito.PowerMockito.when;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -45,6 +57,8 @@ import hudson.model.Result;
 import hudson.model.TaskListener;
 import hudson.tasks.test.AbstractTestResultAction;
 import jenkins.plugins.logstash.persistence.BuildData;
+import jenkins.plugins.logstash.persistence.EventBuffer;
+import jenkins.plugins.logstash.persistence.LogEvent;
 import jenkins.plugins.logstash.persistence.LogstashIndexerDao;
 import net.sf.json.JSONObject;
 
@@ -52,12 +66,27 @@ import net.sf.json.JSONObject;
 @PowerMockIgnore({"javax.crypto.*"})
 @PrepareForTest(LogstashConfiguration.class)
 public class LogstashWriterTest {
+  private static final int BRANCHES = 32;
+  private static final int BRANCH_LINES = 1000;
+  // lower bound for the lines per second that the parallel branches send to a DAO that does no I/O,
+  // with a wide margin so the check does not fail on a slow or busy machine
+  private static final int MIN_LINES_PER_SECOND = 5000;
+
   // Extension of the unit under test that avoids making calls to getInstance() to get the DAO singleton
   static LogstashWriter createLogstashWriter(final AbstractBuild<?, ?> testBuild,
                                              OutputStream error,
                                              final String url,
                                              final LogstashIndexerDao indexer,
                                              final BuildData data) {
+    return createLogstashWriter(testBuild, error, url, indexer, data, new BuildProgress());
+  }
+
+  static LogstashWriter createLogstashWriter(final AbstractBuild<?, ?> testBuild,
+                                             OutputStream error,
+                                             final String url,
+                                             final LogstashIndexerDao indexer,
+                                             final BuildData data,
+                                             final BuildProgress progress) {
     return new LogstashWriter(testBuild, error, null, testBuild.getCharset()) {
       @Override
       LogstashIndexerDao getIndexerDao() {
@@ -76,16 +105,26 @@ public class LogstashWriterTest {
         }
       }
 
+      @Override
+      BuildProgress getBuildProgress() {
+        return progress;
+      }
+
       @Override
       String getJenkinsUrl() {
         return url;
       }
+
+      @Override
+      LogstashJobProperty getJobProperty() {
+        return null;
+      }
     };
   }
 
   ByteArrayOutputStream errorBuffer;
 
-  @Mock LogstashIndexerDao mockDao;
+  LogstashIndexerDao mockDao;
   @Mock AbstractBuild mockBuild;
   @Mock AbstractTestResultAction mockTestResultAction;
   @Mock Project mockProject;
@@ -102,6 +141,8 @@ public class LogstashWriterTest {
 
   @Before
   public void before() throws Exception {
+    // the default methods of the dao encode the payload with buildPayload and push it as string
+    mockDao = Mockito.mock(LogstashIndexerDao.class, Mockito.CALLS_REAL_METHODS);
 
     PowerMockito.mockStatic(LogstashConfiguration.class);
     when(LogstashConfiguration.getInstance()).thenReturn(logstashConfiguration);
@@ -177,6 +218,7 @@ public class LogstashWriterTest {
     verify(mockBuild).getEnvironments();
     verify(mockBuild).getEnvironment(null);
     verify(mockBuild).getCharset();
+    verify(mockBuild).isLogUpdated();
 
     verify(mockTestResultAction).getTotalCount();
     verify(mockTestResultAction).getSkipCount();
@@ -250,9 +292,317 @@ public class LogstashWriterTest {
     assertEquals("Results don't match", "", errorBuffer.toString());
 
     verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
+    verify(mockDao).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockBuild).getCharset();
+    verify(mockBuildData).updateResult();
+  }
+
+  @Test
+  public void writeAsynchronousSuccess() throws Exception {
+    when(logstashConfiguration.isAsynchronous()).thenReturn(true);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    String msg = "test";
+    errorBuffer.reset();
+
+    // Unit under test
+    writer.write(msg);
+
+    // Verify results
+    // The line is sent by a sender thread
+    verify(mockDao, timeout(5000)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
+    verify(mockBuild).getCharset();
+    verify(mockBuildData).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void writeBatchSuccess() throws Exception {
+    when(logstashConfiguration.getBatchMaxLines()).thenReturn(2);
+    when(logstashConfiguration.getBatchMaxDelay()).thenReturn(60000L);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+
+    // Unit under test
+    writer.write("line 1");
+    writer.write("line 2");
+    writer.write("line 3");
+    writer.close();
+
+    // Verify results
+    verify(mockDao, times(2)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(2)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(2)).push(any(EventBuffer.class));
+    assertEquals("Wrong first batch", Arrays.asList("line 1", "line 2"), logLinesCaptor.getAllValues().get(0));
+    assertEquals("Wrong last batch", Arrays.asList("line 3"), logLinesCaptor.getAllValues().get(1));
+    verify(mockDao, times(2)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, times(2)).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void finishSendsResult() throws Exception {
+    when(logstashConfiguration.getBatchMaxLines()).thenReturn(10);
+    when(logstashConfiguration.getBatchMaxDelay()).thenReturn(60000L);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+    writer.write("line 1");
+
+    // Unit under test
+    assertTrue("Lines not sent", writer.finish(1000).get(30, TimeUnit.SECONDS));
+
+    // Verify results
+    verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
     verify(mockDao).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    assertEquals("Wrong lines", Arrays.asList("line 1", "[logstash-plugin]: Finished: SUCCESS"), logLinesCaptor.getValue());
+    assertTrue("Writer still streaming", LogstashWriter.getStreamingWriters(mockBuild).isEmpty());
+    verify(mockBuild).getResult();
     verify(mockBuild).getCharset();
     verify(mockBuildData).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void finishSendsResultOncePerBuild() throws Exception {
+    BuildProgress progress = new BuildProgress();
+    LogstashWriter first = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData, progress);
+    LogstashWriter second = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData, progress);
+    errorBuffer.reset();
+
+    // Unit under test
+    assertTrue("Lines not sent", first.finish(1000).get(30, TimeUnit.SECONDS));
+    assertTrue("Lines not sent", second.finish(1000).get(30, TimeUnit.SECONDS));
+
+    // Verify results
+    verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
+    verify(mockDao).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    assertEquals("Wrong lines", Arrays.asList("[logstash-plugin]: Finished: SUCCESS"), logLinesCaptor.getValue());
+    verify(mockBuild).getResult();
+    verify(mockBuild, times(2)).getCharset();
+    verify(mockBuildData).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void finishSendsHeaderEvents() throws Exception {
+    when(logstashConfiguration.getEventSchema()).thenReturn(EventSchema.HEADER);
+    when(logstashConfiguration.getBatchMaxLines()).thenReturn(10);
+    when(logstashConfiguration.getBatchMaxDelay()).thenReturn(60000L);
+    when(mockBuildData.getBuildId()).thenReturn("parent/LogstashWriterTest#123456");
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+    writer.write("line 1");
+
+    // Unit under test
+    assertTrue("Lines not sent", writer.finish(1000).get(30, TimeUnit.SECONDS));
+
+    // Verify results
+    ArgumentCaptor<String> payloads = ArgumentCaptor.forClass(String.class);
+    verify(mockDao, times(2)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(2)).encodeHeader(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyLong());
+    verify(mockDao, times(2)).buildPayload(mockBuildData, "http://my-jenkins-url", Collections.<String>emptyList());
+    verify(mockDao).encodeLines(any(EventBuffer.class), eq("parent/LogstashWriterTest#123456"), eq(1L), logLinesCaptor.capture(), anyLong());
+    verify(mockDao, times(2)).push(any(EventBuffer.class));
+    verify(mockDao).pushAll(anyListOf(String.class));
+    verify(mockDao, times(3)).push(payloads.capture());
+    assertEquals("Wrong lines", Arrays.asList("line 1", "[logstash-plugin]: Finished: SUCCESS"), logLinesCaptor.getValue());
+
+    JSONObject header = JSONObject.fromObject(payloads.getAllValues().get(0));
+    assertEquals("Wrong build id", "parent/LogstashWriterTest#123456", header.getString("buildId"));
+    assertTrue("No build data", header.has("data"));
+    JSONObject lines = JSONObject.fromObject(payloads.getAllValues().get(1));
+    assertEquals("Wrong build id", "parent/LogstashWriterTest#123456", lines.getString("buildId"));
+    assertEquals("Wrong sequence", 1, lines.getInt("seq"));
+    assertFalse("Build data in line event", lines.has("data"));
+    JSONObject finalHeader = JSONObject.fromObject(payloads.getAllValues().get(2));
+    assertEquals("Wrong build id", "parent/LogstashWriterTest#123456", finalHeader.getString("buildId"));
+
+    verify(mockBuild).getResult();
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, times(3)).getBuildId();
+    verify(mockBuildData, times(2)).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void writeRateLimited() throws Exception {
+    when(logstashConfiguration.getBuildRateLimitEvents()).thenReturn(2);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+
+    // Unit under test
+    writer.write("line 1");
+    writer.write("line 2");
+    writer.write("line 3");
+    writer.write("line 4");
+    writer.close();
+
+    // Verify results
+    assertEquals("Results don't match",
+        "[logstash-plugin]: Log lines exceed the rate limit, lines above the limit are dropped.\n", errorBuffer.toString());
+    verify(mockDao, times(3)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao, times(3)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(3)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(3)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(3)).push(any(EventBuffer.class));
+    verify(mockDao, times(3)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    assertEquals("Wrong first line", Arrays.asList("line 1"), logLinesCaptor.getAllValues().get(0));
+    assertEquals("Wrong summary", Arrays.asList("[logstash-plugin]: 2 lines dropped by the rate limit"),
+        logLinesCaptor.getAllValues().get(2));
+    verify(mockBuild).getCharset();
+    verify(mockBuild).isLogUpdated();
+    verify(mockBuildData, times(3)).updateResult();
+  }
+
+  @Test
+  public void writeMultilineMergesStackTrace() throws Exception {
+    when(logstashConfiguration.isMultiline()).thenReturn(true);
+    when(logstashConfiguration.isMultilineIndented()).thenReturn(true);
+    when(logstashConfiguration.isMultilineStackTraces()).thenReturn(true);
+    when(logstashConfiguration.getMultilineTimeout()).thenReturn(60000L);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+
+    // Unit under test
+    writer.write("  java.io.IOException: BOOM!");
+    writer.write("\tat Foo.bar(Foo.java:1)");
+    writer.write("Caused by: java.lang.IllegalStateException");
+    writer.write("\t... 3 more");
+    writer.write("next line");
+    writer.close();
+
+    // Verify results
+    verify(mockDao, times(2)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(2)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(2)).push(any(EventBuffer.class));
+    verify(mockDao, times(2)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    assertEquals("Wrong first event",
+        Arrays.asList("java.io.IOException: BOOM!\n\tat Foo.bar(Foo.java:1)\nCaused by: java.lang.IllegalStateException\n\t... 3 more"),
+        logLinesCaptor.getAllValues().get(0));
+    assertEquals("Wrong last event", Arrays.asList("next line"), logLinesCaptor.getAllValues().get(1));
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, times(2)).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void writeMultilineKeepsStreamsApart() throws Exception {
+    when(logstashConfiguration.isMultiline()).thenReturn(true);
+    when(logstashConfiguration.isMultilineIndented()).thenReturn(true);
+    when(logstashConfiguration.getMultilineTimeout()).thenReturn(60000L);
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    MultilineAggregator branchA = writer.newAggregator();
+    MultilineAggregator branchB = writer.newAggregator();
+    errorBuffer.reset();
+
+    // Unit under test
+    // the branches write on the same thread, like the steps of a Pipeline
+    writer.write("branch a", branchA);
+    writer.write("  branch b", branchB);
+    writer.write("  continued a", branchA);
+    writer.close();
+
+    // Verify results
+    verify(mockDao, times(2)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(2)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(2)).push(any(EventBuffer.class));
+    verify(mockDao, times(2)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    assertTrue("Wrong event of first branch",
+        logLinesCaptor.getAllValues().contains(Arrays.asList("branch a\n  continued a")));
+    assertTrue("Wrong event of second branch", logLinesCaptor.getAllValues().contains(Arrays.asList("branch b")));
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, times(2)).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
+  }
+
+  @Test
+  public void writeFromParallelBranches() throws Exception {
+    writeFromParallelBranches(false);
+  }
+
+  @Test
+  public void writeAsynchronousFromParallelBranches() throws Exception {
+    writeFromParallelBranches(true);
+  }
+
+  private void writeFromParallelBranches(boolean asynchronous) throws Exception {
+    when(logstashConfiguration.isAsynchronous()).thenReturn(asynchronous);
+    when(logstashConfiguration.getBatchMaxLines()).thenReturn(50);
+    when(logstashConfiguration.getBatchMaxDelay()).thenReturn(60000L);
+    LogstashDispatcher.reconfigure(2, 2 * BRANCHES * BRANCH_LINES, false);
+    List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    LogstashIndexerDao dao = Mockito.mock(LogstashIndexerDao.class);
+    Mockito.doAnswer(invocation -> {
+      for (LogEvent event : invocation.<List<LogEvent>>getArgument(0)) {
+        sent.addAll(event.getLines());
+      }
+      return null;
+    }).when(dao).pushEvents(anyListOf(LogEvent.class));
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", dao, mockBuildData);
+    errorBuffer.reset();
+    ExecutorService branches = Executors.newFixedThreadPool(BRANCHES);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+
+    // Unit under test
+    for (int b = 0; b < BRANCHES; b++) {
+      final int branch = b;
+      futures.add(branches.submit(() -> {
+        start.await();
+        for (int i = 0; i < BRANCH_LINES; i++) {
+          writer.write("branch " + branch + " line " + i);
+        }
+        return null;
+      }));
+    }
+    long started = System.nanoTime();
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get(30, TimeUnit.SECONDS);
+    }
+    branches.shutdown();
+    assertTrue("Lines not sent", writer.finish(10000).get(30, TimeUnit.SECONDS));
+    long elapsed = System.nanoTime() - started;
+
+    // Verify results
+    double linesPerSecond = BRANCHES * BRANCH_LINES * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    assertTrue("Only " + (long) linesPerSecond + " lines per second", linesPerSecond >= MIN_LINES_PER_SECOND);
+    // every line is sent once and the lines of each branch stay in order
+    assertEquals(BRANCHES * BRANCH_LINES + 1, sent.size());
+    int[] next = new int[BRANCHES];
+    for (String line : sent.subList(0, BRANCHES * BRANCH_LINES)) {
+      String[] parts = line.split(" ");
+      int branch = Integer.parseInt(parts[1]);
+      assertEquals("Lines of branch " + branch + " out of order", next[branch]++, Integer.parseInt(parts[3]));
+    }
+    assertEquals("[logstash-plugin]: Finished: SUCCESS", sent.get(BRANCHES * BRANCH_LINES));
+    verify(mockBuild).getResult();
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, atLeastOnce()).updateResult();
+    assertEquals("Results don't match", "", errorBuffer.toString());
   }
 
   @Test
@@ -266,34 +616,84 @@ public class LogstashWriterTest {
     // Verify results
     // No error output
     assertEquals("Results don't match", "", errorBuffer.toString());
+    verify(mockBuild).getLogFile();
     verify(mockBuild).getLog(3);
     verify(mockBuild).getCharset();
 
     verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
     verify(mockDao).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
     verify(mockBuildData).updateResult();
   }
 
   @Test
-  public void writeSuccessConnectionBroken() throws Exception {
+  public void writeBuildLogAllLinesInChunks() throws Exception {
+    when(mockBuild.getLogReader()).thenReturn(new StringReader("line 1\nline 2\nline 3\n"));
+    LogstashWriter writer = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+    errorBuffer.reset();
+
+    // Unit under test
+    writer.writeBuildLog(-1, 2);
+
+    // Verify results
+    // No error output
+    assertEquals("Results don't match", "", errorBuffer.toString());
+    verify(mockBuild).getLogReader();
+    verify(mockBuild).getCharset();
+
+    verify(mockDao, times(2)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(2)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(2)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(2)).push(any(EventBuffer.class));
+    verify(mockDao, times(2)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockBuildData, times(2)).updateResult();
+
+    // the chunk list is reused, so only the last chunk can be checked
+    assertEquals("Wrong last chunk", Arrays.asList("line 3"), logLinesCaptor.getValue());
+  }
+
+  @Test
+  public void writeRetriesFailedPush() throws Exception {
     Mockito.doNothing().doThrow(new IOException("BOOM!")).doNothing().when(mockDao).push(anyString());
     LogstashWriter los = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
 
-
     String msg = "test";
-    String exMessage = "[logstash-plugin]: Failed to send log data: localhost:8080.\n" +
-      "[logstash-plugin]: No Further logs will be sent to localhost:8080.\n" +
-      "java.io.IOException: BOOM!";
-
     errorBuffer.reset();
 
     // Unit under test
     los.write(msg);
+    los.write(msg);
+    los.write(msg);
 
     // Verify results
     assertEquals("Results don't match", "", errorBuffer.toString());
+    assertFalse("Connection broken", los.isConnectionBroken());
+
+    // Verify the failed push was retried once, the indexer encodes the events for each push
+    verify(mockDao, times(4)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(4)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(4)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(4)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(4)).push(any(EventBuffer.class));
+    verify(mockDao, times(4)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockBuild).getCharset();
+    verify(mockBuildData, times(3)).updateResult();
+  }
+
+  @Test
+  public void writeSuccessConnectionBroken() throws Exception {
+    Mockito.doThrow(new IOException("BOOM!")).when(mockDao).push(anyString());
+    LogstashWriter los = createLogstashWriter(mockBuild, errorBuffer, "http://my-jenkins-url", mockDao, mockBuildData);
+
+    String msg = "test";
+    String exMessage = "[logstash-plugin]: Failed to send log data: localhost:8080.\n" +
+      "[logstash-plugin]: Log lines are dropped until localhost:8080 is available again.\n" +
+      "java.io.IOException: BOOM!";
 
-    // Break the dao connnection
     errorBuffer.reset();
 
     // Unit under test
@@ -303,7 +703,7 @@ public class LogstashWriterTest {
     assertTrue("Results don't match", errorBuffer.toString().startsWith(exMessage));
     assertTrue("Connection not broken", los.isConnectionBroken());
 
-    // Verify logs still write but on further calls are made to dao
+    // Verify lines are dropped while the circuit is open
     errorBuffer.reset();
     // Unit under test
     los.write(msg);
@@ -311,12 +711,16 @@ public class LogstashWriterTest {
     // Verify results
     assertEquals("Results don't match", "", errorBuffer.toString());
 
-    //Verify calls were made to the dao logging twice, not three times.
-    verify(mockDao, times(2)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
-    verify(mockDao, times(2)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
-    verify(mockDao, times(2)).getDescription();
+    //Verify the push was attempted three times and the second line was not sent
+    verify(mockDao, times(3)).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(3)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao, times(3)).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao, times(3)).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao, times(3)).push(any(EventBuffer.class));
+    verify(mockDao, times(3)).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
+    verify(mockDao, atLeast(2)).getDescription();
     verify(mockBuild).getCharset();
-    verify(mockBuildData, times(2)).updateResult();
+    verify(mockBuildData, times(1)).updateResult();
   }
 
   @Test
@@ -331,6 +735,7 @@ public class LogstashWriterTest {
     writer.writeBuildLog(3);
 
     // Verify results
+    verify(mockBuild).getLogFile();
     verify(mockBuild).getLog(3);
     verify(mockBuild).getCharset();
 
@@ -339,6 +744,10 @@ public class LogstashWriterTest {
       "java.io.IOException: Unable to read log file");
     verify(mockDao).push("{\"data\":{},\"message\":[\"test\"],\"source\":\"jenkins\",\"source_host\":\"http://my-jenkins-url\",\"@version\":1}");
     verify(mockDao).buildPayload(eq(mockBuildData), eq("http://my-jenkins-url"), logLinesCaptor.capture());
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class));
+    verify(mockDao).encodePayload(any(EventBuffer.class), eq(mockBuildData), eq("http://my-jenkins-url"), anyListOf(String.class), anyLong());
+    verify(mockDao).pushEvents(anyListOf(LogEvent.class));
+    verify(mockDao).push(any(EventBuffer.class));
     verify(mockBuildData).updateResult();
 
     List<String> actualLogLines = logLinesCaptor.getValue();
@@ -0,0 +1,79 @@
+package jenkins.plugins.logstash;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MultilineAggregatorTest
+{
+
+  @Test
+  public void stackTraceIsMergedIntoPrecedingLine()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(false, true, null, 100, 1000, 1000);
+    assertThat(aggregator.add("java.io.IOException: BOOM!", 0), nullValue());
+    assertThat(aggregator.add("at Foo.bar(Foo.java:1)", 0), nullValue());
+    assertThat(aggregator.add("  Suppressed: java.lang.Exception", 0), nullValue());
+    assertThat(aggregator.add("Caused by: java.lang.IllegalStateException", 0), nullValue());
+    assertThat(aggregator.add("... 3 more", 0), nullValue());
+    assertThat(aggregator.add("next line", 0),
+        equalTo("java.io.IOException: BOOM!\nat Foo.bar(Foo.java:1)\n  Suppressed: java.lang.Exception\n"
+            + "Caused by: java.lang.IllegalStateException\n... 3 more"));
+    assertThat(aggregator.take(), equalTo("next line"));
+    assertThat(aggregator.take(), nullValue());
+  }
+
+  @Test
+  public void indentedLinesAreContinuations()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(true, false, null, 100, 1000, 1000);
+    assertThat(aggregator.add("  first", 0), nullValue());
+    assertThat(aggregator.add("\tsecond", 0), nullValue());
+    assertThat(aggregator.add("at third", 0), equalTo("first\n\tsecond"));
+    assertThat(aggregator.take(), equalTo("at third"));
+  }
+
+  @Test
+  public void patternMatchesContinuations()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(false, false, Pattern.compile("^\\|"), 100, 1000, 1000);
+    assertThat(aggregator.add("table", 0), nullValue());
+    assertThat(aggregator.add("| row", 0), nullValue());
+    assertThat(aggregator.add("  indented", 0), equalTo("table\n| row"));
+  }
+
+  @Test
+  public void eventIsCompleteWhenMaxLinesReached()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(true, false, null, 2, 1000, 1000);
+    assertThat(aggregator.add("line 1", 0), nullValue());
+    assertThat(aggregator.add(" line 2", 0), nullValue());
+    assertThat(aggregator.add(" line 3", 0), equalTo("line 1\n line 2"));
+    assertThat(aggregator.take(), equalTo("line 3"));
+  }
+
+  @Test
+  public void eventIsCompleteWhenMaxBytesReached()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(true, false, null, 100, 10, 1000);
+    assertThat(aggregator.add("12345", 0), nullValue());
+    assertThat(aggregator.add(" 67890", 0), nullValue());
+    assertThat(aggregator.add(" 12345", 0), equalTo("12345\n 67890"));
+  }
+
+  @Test
+  public void eventExpiresAfterTimeout()
+  {
+    MultilineAggregator aggregator = new MultilineAggregator(true, false, null, 100, 1000, 1000);
+    assertThat(aggregator.add("line 1", 500), nullValue());
+    assertThat(aggregator.add(" line 2", 1000), nullValue());
+    assertThat(aggregator.takeIfExpired(1999), nullValue());
+    assertThat(aggregator.getFirstLineTime(), equalTo(500L));
+    assertThat(aggregator.takeIfExpired(2000), equalTo("line 1\n line 2"));
+    assertThat(aggregator.takeIfExpired(5000), nullValue());
+  }
+}
@@ -0,0 +1,56 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class PushExecutorTest {
+
+  @Test
+  public void platformExecutorRejectsWhenQueueIsFull() throws Exception {
+    ExecutorService executor = PushExecutor.newPlatformThreadExecutor(1);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // one running and the queued pushes
+      for (int i = 0; i <= PushExecutor.MAX_QUEUED_PUSHES; i++) {
+        executor.execute(() -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+      }
+
+      // Unit under test
+      try {
+        executor.execute(() -> {});
+        fail("Push was queued");
+      } catch (RejectedExecutionException e) {
+        // the sender pushes itself
+      }
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shutdownStopsExecutor() throws Exception {
+    ExecutorService executor = PushExecutor.get();
+
+    // Unit under test
+    PushExecutor.shutdown();
+
+    // Verify results
+    assertTrue(executor.isShutdown());
+    assertNotSame(executor, PushExecutor.get());
+    PushExecutor.shutdown();
+  }
+}
@@ -0,0 +1,84 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+  private static final long SECOND = 1000000000L;
+
+  @Test
+  public void limitEvents() throws Exception {
+    RateLimiter limiter = new RateLimiter(2, 0, 0);
+
+    // Unit under test and verify results
+    assertTrue(limiter.tryAcquire(10, 0));
+    assertTrue(limiter.tryAcquire(10, 0));
+    assertFalse(limiter.tryAcquire(10, 0));
+    // one event per half second
+    assertFalse(limiter.tryAcquire(10, SECOND / 4));
+    assertTrue(limiter.tryAcquire(10, SECOND / 2));
+    assertFalse(limiter.tryAcquire(10, SECOND / 2));
+  }
+
+  @Test
+  public void limitBytes() throws Exception {
+    RateLimiter limiter = new RateLimiter(0, 100, 0);
+
+    // Unit under test and verify results
+    assertTrue(limiter.tryAcquire(60, 0));
+    assertFalse(limiter.tryAcquire(60, 0));
+    assertTrue(limiter.tryAcquire(40, 0));
+    assertTrue(limiter.tryAcquire(60, SECOND * 6 / 10));
+  }
+
+  @Test
+  public void largeEventWaitsForFullBucket() throws Exception {
+    RateLimiter limiter = new RateLimiter(0, 100, 0);
+    assertTrue(limiter.tryAcquire(10, 0));
+
+    // Unit under test and verify results
+    assertFalse(limiter.tryAcquire(500, 0));
+    assertTrue(limiter.tryAcquire(500, SECOND));
+    // the bucket is in debt for the bytes above the limit
+    assertFalse(limiter.tryAcquire(1, SECOND * 3));
+    assertTrue(limiter.tryAcquire(1, SECOND * 6));
+  }
+
+  @Test
+  public void burstIsLimitedToOneSecond() throws Exception {
+    RateLimiter limiter = new RateLimiter(2, 0, 0);
+
+    // Unit under test and verify results
+    assertTrue(limiter.tryAcquire(1, SECOND * 10));
+    assertTrue(limiter.tryAcquire(1, SECOND * 10));
+    assertFalse(limiter.tryAcquire(1, SECOND * 10));
+  }
+
+  @Test
+  public void globalLimiterIsShared() throws Exception {
+    // Unit under test and verify results
+    assertNull(RateLimiter.global(0, 0));
+    RateLimiter limiter = RateLimiter.global(1000, 0);
+    assertSame(limiter, RateLimiter.global(1000, 0));
+    assertFalse(limiter == RateLimiter.global(2000, 0));
+    assertNull(RateLimiter.global(0, 0));
+  }
+
+  @Test
+  public void releaseGivesTokensBack() throws Exception {
+    RateLimiter limiter = new RateLimiter(1, 100, 0);
+    assertTrue(limiter.tryAcquire(60, 0));
+
+    // Unit under test
+    limiter.release(60);
+
+    // Verify results
+    assertTrue(limiter.tryAcquire(100, 0));
+    assertFalse(limiter.tryAcquire(1, 0));
+  }
+}
@@ -0,0 +1,155 @@
+package jenkins.plugins.logstash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jenkins.plugins.logstash.persistence.EventBuffer;
+
+public class SpillQueueTest {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+  private static final long DAY = 24 * 60 * 60 * 1000L;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File directory;
+
+  @Before
+  public void before() throws Exception {
+    directory = folder.newFolder("spill");
+  }
+
+  private static EventBuffer events(String... events) {
+    EventBuffer buffer = new EventBuffer();
+    for (String event : events) {
+      buffer.writeEvent(event);
+    }
+    return buffer;
+  }
+
+  private static EventBuffer peek(SpillQueue queue, int maxEvents) {
+    EventBuffer buffer = new EventBuffer();
+    queue.peek(buffer, maxEvents);
+    return buffer;
+  }
+
+  @Test
+  public void addPeekRemove() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+
+    // Unit under test
+    assertEquals(0, queue.add(events("{\"i\":1}", "{\"i\":2}", "{\"i\":3}")));
+
+    // Verify results
+    assertEquals(3, queue.size());
+    EventBuffer buffer = new EventBuffer();
+    long position = queue.peek(buffer, 2);
+    assertEquals(Arrays.asList("{\"i\":1}", "{\"i\":2}"), buffer.toStrings());
+
+    queue.remove(position);
+    // removing twice does nothing
+    queue.remove(position);
+    assertEquals(1, queue.size());
+    assertEquals(Collections.singletonList("{\"i\":3}"), peek(queue, 10).toStrings());
+  }
+
+  @Test
+  public void eventsSpanSegments() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+    char[] chars = new char[10000];
+    Arrays.fill(chars, 'x');
+    String event = new String(chars);
+
+    // Unit under test
+    for (int i = 0; i < 20; i++) {
+      queue.add(events(event));
+    }
+
+    // Verify results
+    assertTrue(directory.list().length > 1);
+    EventBuffer buffer = new EventBuffer();
+    queue.remove(queue.peek(buffer, 15));
+    assertEquals(15, buffer.getEventCount());
+    assertEquals(event, buffer.getEventString(14));
+    assertEquals(5, queue.size());
+    queue.remove(queue.peek(new EventBuffer(), 15));
+    assertTrue(queue.isEmpty());
+    assertEquals(1, directory.list().length);
+  }
+
+  @Test
+  public void sizeLimitDropsEvents() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, SEGMENT_SIZE, DAY);
+    char[] chars = new char[10000];
+    Arrays.fill(chars, 'x');
+    String event = new String(chars);
+
+    // Unit under test
+    int dropped = 0;
+    for (int i = 0; i < 10; i++) {
+      dropped += queue.add(events(event));
+    }
+
+    // Verify results
+    assertEquals(10 - queue.size(), dropped);
+    assertTrue(dropped > 0);
+  }
+
+  @Test
+  public void recoverAfterRestart() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+    queue.add(events("{\"i\":1}", "{\"i\":2}", "{\"i\":3}"));
+    queue.remove(queue.peek(new EventBuffer(), 1));
+
+    // Unit under test
+    SpillQueue recovered = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+
+    // Verify results
+    assertEquals(2, recovered.size());
+    assertEquals(Arrays.asList("{\"i\":2}", "{\"i\":3}"), peek(recovered, 10).toStrings());
+    recovered.add(events("{\"i\":4}"));
+    assertEquals(Arrays.asList("{\"i\":2}", "{\"i\":3}", "{\"i\":4}"), peek(recovered, 10).toStrings());
+  }
+
+  @Test
+  public void recoverIgnoresCorruptRecord() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+    queue.add(events("{\"i\":1}", "{\"i\":2}"));
+    File segment = directory.listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      // the second record starts after the header and the first record
+      file.seek(16 + 8 + 7 + 8 + 2);
+      file.write('X');
+    }
+
+    // Unit under test
+    SpillQueue recovered = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, DAY);
+
+    // Verify results
+    assertEquals(Collections.singletonList("{\"i\":1}"), peek(recovered, 10).toStrings());
+  }
+
+  @Test
+  public void expiredSegmentsAreDropped() throws Exception {
+    SpillQueue queue = new SpillQueue(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, 100);
+    queue.add(events("{\"i\":1}"));
+    Thread.sleep(200);
+
+    // Unit under test
+    queue.add(events("{\"i\":2}"));
+
+    // Verify results
+    assertEquals(Collections.singletonList("{\"i\":2}"), peek(queue, 10).toStrings());
+  }
+}
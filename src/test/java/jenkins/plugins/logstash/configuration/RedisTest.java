@@ -52,4 +52,11 @@ public class RedisTest
     indexer.setKey("newKey");
     assertThat(indexer.equals(indexer2), is(false));
   }
+
+  @Test
+  public void poolSizeChangeIsNotEqual()
+  {
+    indexer.setMaxTotal(20);
+    assertThat(indexer.equals(indexer2), is(false));
+  }
 }
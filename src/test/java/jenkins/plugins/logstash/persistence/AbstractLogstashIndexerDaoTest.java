@@ -4,8 +4,10 @@ import static net.sf.json.test.JSONAssert.assertEquals;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import net.sf.json.JSONObject;
 
@@ -38,6 +40,7 @@ public class AbstractLogstashIndexerDaoTest {
     when(logstashConfiguration.getDateFormatter()).thenCallRealMethod();
 
     when(mockBuildData.toJson()).thenReturn(JSONObject.fromObject("{}"));
+    when(mockBuildData.toJsonBytes()).thenReturn("{}".getBytes(StandardCharsets.UTF_8));
     when(mockBuildData.getTimestamp()).thenReturn("2000-01-01");
   }
 
@@ -77,6 +80,69 @@ public class AbstractLogstashIndexerDaoTest {
     assertEquals("Results don't match", JSONObject.fromObject(TWO_LINE_STRING), result);
   }
 
+  @Test
+  public void encodePayloadSuccessTwoLines() throws Exception {
+    AbstractLogstashIndexerDao dao = getInstance();
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    dao.encodePayload(events, mockBuildData, "http://localhost:8080/jenkins", Arrays.asList("LINE 1", "LINE 2"));
+
+    // Verify results
+    JSONObject result = JSONObject.fromObject(events.getEventString(0));
+    result.remove("@timestamp");
+    assertEquals("Results don't match", JSONObject.fromObject(TWO_LINE_STRING), result);
+  }
+
+  @Test
+  public void encodePayloadMatchesBuildPayload() throws Exception {
+    AbstractLogstashIndexerDao dao = getInstance();
+    EventBuffer events = new EventBuffer();
+    List<String> lines = Arrays.asList("quote \" backslash \\ tab \t", "unicode \u00e4\u20ac\ud83d\ude00", "control \u0001");
+
+    // Unit under test
+    dao.encodePayload(events, mockBuildData, "http://localhost:8080/jenkins", lines);
+
+    // Verify results
+    JSONObject expected = dao.buildPayload(mockBuildData, "http://localhost:8080/jenkins", lines);
+    expected.remove("@timestamp");
+    JSONObject result = JSONObject.fromObject(events.getEventString(0));
+    result.remove("@timestamp");
+    assertEquals("Results don't match", expected, result);
+  }
+
+  @Test
+  public void encodeHeaderSuccess() throws Exception {
+    when(mockBuildData.getBuildId()).thenReturn("parent/job#1");
+    AbstractLogstashIndexerDao dao = getInstance();
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    dao.encodeHeader(events, mockBuildData, "http://localhost:8080/jenkins", 0);
+
+    // Verify results
+    JSONObject expected = JSONObject.fromObject(EMPTY_STRING);
+    expected.put("buildId", "parent/job#1");
+    JSONObject result = JSONObject.fromObject(events.getEventString(0));
+    result.remove("@timestamp");
+    assertEquals("Results don't match", expected, result);
+  }
+
+  @Test
+  public void encodeLinesSuccessTwoLines() throws Exception {
+    AbstractLogstashIndexerDao dao = getInstance();
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    dao.encodeLines(events, "parent/job#1", 42, Arrays.asList("LINE 1", "quote \" LINE 2"), 0);
+
+    // Verify results
+    JSONObject result = JSONObject.fromObject(events.getEventString(0));
+    result.remove("@timestamp");
+    assertEquals("Results don't match",
+        JSONObject.fromObject("{\"buildId\":\"parent/job#1\",\"seq\":42,\"message\":[\"LINE 1\",\"quote \\\" LINE 2\"]}"), result);
+  }
+
   private AbstractLogstashIndexerDao getInstance() {
     return new AbstractLogstashIndexerDao() {
       @Override
@@ -377,6 +377,55 @@ public class BuildDataTest {
       verifyTestResultActions();
   }
 
+  @Test
+  public void toJsonIsCachedUntilResultChanges() throws Exception
+  {
+      when(mockBuild.getResult()).thenReturn(null);
+      when(mockBuild.getAction(AbstractTestResultAction.class)).thenReturn(null);
+
+      BuildData buildData = new BuildData(mockBuild, mockDate, mockListener);
+
+      // Unit under test
+      JSONObject first = buildData.toJson();
+      Assert.assertSame("JSON is not cached", first, buildData.toJson());
+      Assert.assertFalse("Result must not be set", first.has("result"));
+
+      when(mockBuild.getResult()).thenReturn(Result.FAILURE);
+      Assert.assertTrue("Changed result not detected", buildData.updateResult());
+      Assert.assertFalse("Nothing changed", buildData.updateResult());
+      Assert.assertEquals("Wrong result", "FAILURE", buildData.toJson().getString("result"));
+
+      verify(mockProject).getName();
+      verify(mockProject).getFullName();
+
+      verify(mockBuild).getId();
+      verify(mockBuild, times(3)).getResult();
+      verify(mockBuild, times(2)).getParent();
+      verify(mockBuild).getDisplayName();
+      verify(mockBuild).getFullDisplayName();
+      verify(mockBuild).getDescription();
+      verify(mockBuild, times(3)).getStartTimeInMillis();
+      verify(mockBuild).getUrl();
+      verify(mockBuild, times(3)).getAction(AbstractTestResultAction.class);
+      verify(mockBuild).getExecutor();
+      verify(mockBuild).getNumber();
+      verify(mockBuild).getTimestamp();
+      verify(mockBuild, times(4)).getRootBuild();
+      verify(mockBuild).getBuildVariables();
+      verify(mockBuild).getSensitiveBuildVariables();
+      verify(mockBuild).getEnvironments();
+      verify(mockBuild).getEnvironment(mockListener);
+
+      verify(mockRootProject).getName();
+      verify(mockRootProject).getFullName();
+
+      verify(mockRootBuild, times(2)).getProject();
+      verify(mockRootBuild).getDisplayName();
+      verify(mockRootBuild).getNumber();
+
+      verify(mockDate).getTime();
+  }
+
   @Test
   public void fullName() throws Exception
   {
@@ -404,4 +453,77 @@ public class BuildDataTest {
       verifyMocks();
       verifyTestResultActions();
   }
+
+  @Test
+  public void updateResultRefreshesDuration() throws Exception
+  {
+      when(mockBuild.getStartTimeInMillis()).thenReturn(System.currentTimeMillis() - 5000);
+      BuildData buildData = new BuildData(mockBuild, mockDate, mockListener);
+      JSONObject first = buildData.toJson();
+
+      // Unit under test
+      Assert.assertTrue("Duration not refreshed", buildData.updateResult());
+
+      // Verify results
+      Assert.assertTrue("Wrong buildDuration", buildData.getBuildDuration() >= 5000);
+      Assert.assertNotSame("JSON not rendered again", first, buildData.toJson());
+      Assert.assertFalse("Duration refreshed within its resolution", buildData.updateResult());
+
+      verify(mockProject).getName();
+      verify(mockProject).getFullName();
+
+      verify(mockBuild).getId();
+      verify(mockBuild, times(2)).getResult();
+      verify(mockBuild, times(2)).getParent();
+      verify(mockBuild).getDisplayName();
+      verify(mockBuild).getFullDisplayName();
+      verify(mockBuild).getDescription();
+      verify(mockBuild, times(3)).getStartTimeInMillis();
+      verify(mockBuild).getUrl();
+      verify(mockBuild, times(3)).getAction(AbstractTestResultAction.class);
+      verify(mockBuild).getExecutor();
+      verify(mockBuild).getNumber();
+      verify(mockBuild).getTimestamp();
+      verify(mockBuild, times(4)).getRootBuild();
+      verify(mockBuild).getBuildVariables();
+      verify(mockBuild).getSensitiveBuildVariables();
+      verify(mockBuild).getEnvironments();
+      verify(mockBuild).getEnvironment(mockListener);
+
+      verify(mockExecutor).getOwner();
+
+      verify(mockRootProject).getName();
+      verify(mockRootProject).getFullName();
+
+      verify(mockRootBuild, times(2)).getProject();
+      verify(mockRootBuild).getDisplayName();
+      verify(mockRootBuild).getNumber();
+
+      verify(mockDate).getTime();
+      verifyTestResultActions();
+  }
+
+  @Test
+  public void forNodeCopiesDataWithHostOfNode() throws Exception
+  {
+      BuildData buildData = new BuildData(mockBuild, mockDate, mockListener);
+      when(mockNode.getDisplayName()).thenReturn("agent-1");
+      when(mockNode.getLabelString()).thenReturn("linux");
+
+      // Unit under test
+      BuildData copy = buildData.forNode(mockNode);
+
+      // Verify results
+      Assert.assertEquals("Incorrect buildHost", "agent-1", copy.getBuildHost());
+      Assert.assertEquals("Incorrect buildLabel", "linux", copy.getBuildLabel());
+      Assert.assertEquals("Incorrect buildHost", "master", buildData.getBuildHost());
+      Assert.assertEquals("Wrong JSON", "agent-1", copy.toJson().getString("buildHost"));
+      Assert.assertEquals("Wrong JSON", "master", buildData.toJson().getString("buildHost"));
+
+      verify(mockComputer).getNode();
+      verify(mockNode, times(2)).getDisplayName();
+      verify(mockNode, times(2)).getLabelString();
+      verifyMocks();
+      verifyTestResultActions();
+  }
 }
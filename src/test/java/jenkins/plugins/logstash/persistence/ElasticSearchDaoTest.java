@@ -22,9 +22,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -169,7 +172,30 @@ public class ElasticSearchDaoTest {
     verify(mockHttpClient).execute(any(HttpPost.class));
     verify(mockStatusLine, atLeastOnce()).getStatusCode();
     verify(mockResponse).close();
+  }
+
+  @Test
+  public void pushReusesHttpClient() throws Exception {
+    String json = "{ 'foo': 'bar' }";
+    dao = createDao("http://localhost:8200/jenkins/logstash", "", "");
+
+    when(mockStatusLine.getStatusCode()).thenReturn(201);
+
+    // Unit under test
+    dao.push(json);
+    dao.push(json);
+
+    verify(mockClientBuilder).build();
+    verify(mockHttpClient, times(2)).execute(any(HttpPost.class));
+    verify(mockResponse, times(2)).close();
+
+    dao.close();
     verify(mockHttpClient).close();
+
+    // a push after close creates a new client
+    dao.push(json);
+    verify(mockClientBuilder, times(2)).build();
+    verify(mockHttpClient, times(3)).execute(any(HttpPost.class));
   }
 
   @Test(expected = IOException.class)
@@ -189,13 +215,106 @@ public class ElasticSearchDaoTest {
       verify(mockHttpClient).execute(any(HttpPost.class));
       verify(mockStatusLine, atLeastOnce()).getStatusCode();
       verify(mockResponse).close();
-      verify(mockHttpClient).close();
       assertTrue("wrong error message",
         e.getMessage().contains("Something bad happened.") && e.getMessage().contains("HTTP error code: 500"));
         throw e;
     }
 
   }
+  @Test
+  public void bulkUriSuccess() throws Exception {
+    dao = createDao("http://localhost:8200/jenkins/logstash/", "", "");
+
+    assertEquals("Wrong bulk uri", new URI("http://localhost:8200/jenkins/logstash/_bulk"), dao.getBulkUri());
+  }
+
+  @Test
+  public void pushAllBulkSuccess() throws Exception {
+    dao = createDao("http://localhost:8200/jenkins", "", "");
+    dao.setBulk(true);
+
+    when(mockStatusLine.getStatusCode()).thenReturn(200);
+    when(mockResponse.getEntity()).thenReturn(new StringEntity("{\"took\":3,\"errors\":false,\"items\":[]}", ContentType.APPLICATION_JSON));
+
+    // Unit under test
+    dao.pushAll(Arrays.asList("{\"a\":1}", "{\"b\":2}"));
+
+    // Verify results
+    ArgumentCaptor<HttpPost> post = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClientBuilder).build();
+    verify(mockHttpClient).execute(post.capture());
+    verify(mockResponse).close();
+
+    assertEquals("Wrong uri", new URI("http://localhost:8200/jenkins/_bulk"), post.getValue().getURI());
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    post.getValue().getEntity().writeTo(stream);
+    assertEquals("Wrong content", "{\"index\":{}}\n{\"a\":1}\n{\"index\":{}}\n{\"b\":2}\n", stream.toString(CharEncoding.UTF_8));
+  }
+
+  @Test
+  public void pushEventsBulkSuccess() throws Exception {
+    dao = createDao("http://localhost:8200/jenkins", "", "");
+    dao.setBulk(true);
+    EventBuffer events = new EventBuffer();
+    events.writeEvent("{\"a\":1}");
+    events.writeEvent("{\"b\":2}");
+
+    when(mockStatusLine.getStatusCode()).thenReturn(200);
+    when(mockResponse.getEntity()).thenReturn(new StringEntity("{\"took\":3,\"errors\":false,\"items\":[]}", ContentType.APPLICATION_JSON));
+
+    // Unit under test
+    dao.push(events);
+
+    // Verify results
+    ArgumentCaptor<HttpPost> post = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClientBuilder).build();
+    verify(mockHttpClient).execute(post.capture());
+    verify(mockResponse).close();
+
+    assertEquals("Wrong uri", new URI("http://localhost:8200/jenkins/_bulk"), post.getValue().getURI());
+    String expected = "{\"index\":{}}\n{\"a\":1}\n{\"index\":{}}\n{\"b\":2}\n";
+    assertEquals("Wrong content length", expected.length(), post.getValue().getEntity().getContentLength());
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    post.getValue().getEntity().writeTo(stream);
+    assertEquals("Wrong content", expected, stream.toString(CharEncoding.UTF_8));
+  }
+
+  @Test
+  public void pushAllBulkReportsRejectedItems() throws Exception {
+    dao = createDao("http://localhost:8200/jenkins", "", "");
+    dao.setBulk(true);
+
+    when(mockStatusLine.getStatusCode()).thenReturn(200);
+    when(mockResponse.getEntity()).thenReturn(new StringEntity("{\"errors\":true,\"items\":["
+        + "{\"index\":{\"status\":201}},"
+        + "{\"index\":{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}]}", ContentType.APPLICATION_JSON));
+
+    // Unit under test
+    try {
+      dao.pushAll(Arrays.asList("{\"a\":1}", "{\"b\":2}"));
+      fail("Rejected items not reported");
+    } catch (RejectedEventsException e) {
+      assertEquals("Wrong rejected items", Arrays.asList("{\"b\":2}"), e.getEvents());
+    }
+
+    // Verify results, the items are not retried by the dao
+    verify(mockClientBuilder).build();
+    verify(mockHttpClient).execute(any(HttpPost.class));
+    verify(mockResponse).close();
+  }
+
+  @Test
+  public void bulkItemsToRetry() throws Exception {
+    String response = "{\"errors\":true,\"items\":["
+        + "{\"index\":{\"status\":201}},"
+        + "{\"index\":{\"status\":400,\"error\":{\"type\":\"mapper_parsing_exception\"}}},"
+        + "{\"index\":{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}]}";
+
+    // Unit under test
+    assertEquals("Wrong items to retry", Arrays.asList("c"), dao.getRetryableItems(Arrays.asList("a", "b", "c"), response));
+    assertEquals("No items to retry", Collections.emptyList(), dao.getRetryableItems(Arrays.asList("a"), "{\"errors\":false}"));
+  }
+
   @Test
   public void getHttpPostSuccessWithUserInput() throws Exception {
     String json = "{ 'foo': 'bar' }";
@@ -0,0 +1,109 @@
+package jenkins.plugins.logstash.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class EventBufferTest {
+
+  @Test
+  public void writeStringEscapes() throws Exception {
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    events.beginEvent();
+    events.writeString("a\"b\\c\nd\re\tf\u0001g/");
+    events.endEvent();
+
+    // Verify results
+    assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\\u0001g/\"", events.getEventString(0));
+  }
+
+  @Test
+  public void writeStringEncodesUtf8() throws Exception {
+    String value = "\u00e4\u20ac\ud83d\ude00";
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    events.beginEvent();
+    events.writeString(value);
+    events.endEvent();
+
+    // Verify results
+    byte[] expected = ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+    assertEquals(expected.length, events.getEventLength(0));
+    assertEquals(Arrays.toString(expected),
+        Arrays.toString(Arrays.copyOfRange(events.getBuffer(), events.getEventOffset(0), events.getEventOffset(0) + events.getEventLength(0))));
+  }
+
+  @Test
+  public void writeStringReplacesUnpairedSurrogate() throws Exception {
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    events.beginEvent();
+    events.writeString("a\ud83db");
+    events.endEvent();
+
+    // Verify results
+    assertEquals("\"a?b\"", events.getEventString(0));
+  }
+
+  @Test
+  public void writeLong() throws Exception {
+    EventBuffer events = new EventBuffer();
+
+    // Unit under test
+    events.beginEvent();
+    events.writeLong(0);
+    events.writeByte(',');
+    events.writeLong(-1234567890123L);
+    events.writeByte(',');
+    events.writeLong(Long.MIN_VALUE);
+    events.endEvent();
+
+    // Verify results
+    assertEquals("0,-1234567890123," + Long.MIN_VALUE, events.getEventString(0));
+  }
+
+  @Test
+  public void multipleEvents() throws Exception {
+    EventBuffer events = new EventBuffer();
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      large.append("0123456789");
+    }
+
+    // Unit under test
+    for (int i = 0; i < 20; i++) {
+      events.writeEvent("{\"i\":" + i + "}");
+    }
+    events.writeEvent(large.toString());
+
+    // Verify results
+    assertEquals(21, events.getEventCount());
+    assertEquals("{\"i\":0}", events.getEventString(0));
+    assertEquals("{\"i\":19}", events.getEventString(19));
+    assertEquals(large.toString(), events.getEventString(20));
+    assertEquals(events.toStrings().get(5), events.getEventString(5));
+  }
+
+  @Test
+  public void acquireReusesReleasedBuffer() throws Exception {
+    EventBuffer events = EventBuffer.acquire();
+    events.writeEvent("{}");
+    events.release();
+
+    // Unit under test
+    EventBuffer reused = EventBuffer.acquire();
+
+    // Verify results
+    assertSame(events, reused);
+    assertEquals(0, reused.getEventCount());
+    reused.release();
+  }
+}
@@ -1,6 +1,21 @@
 package jenkins.plugins.logstash.persistence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -44,4 +59,125 @@ public class LogstashDaoTest {
     assertEquals("Wrong host name", "localhost", dao.getHost());
     assertEquals("Wrong port", 5672, dao.getPort());
   }
+
+  @Test
+  public void pushReusesConnection() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      dao = createDao("localhost", server.getLocalPort());
+
+      // Unit under test
+      dao.push("{\"a\":1}");
+      dao.pushAll(Arrays.asList("{\"b\":2}", "{\"c\":3}"));
+      dao.push("{\"d\":4}");
+      dao.close();
+
+      // Verify results
+      server.setSoTimeout(5000);
+      try (Socket client = server.accept()) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("{\"a\":1}", reader.readLine());
+        assertEquals("{\"b\":2}", reader.readLine());
+        assertEquals("{\"c\":3}", reader.readLine());
+        assertEquals("{\"d\":4}", reader.readLine());
+      }
+
+      server.setSoTimeout(100);
+      thrown.expect(SocketTimeoutException.class);
+      server.accept();
+    }
+  }
+
+  @Test
+  public void pushSendsLineBeforeReturning() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      dao = createDao("localhost", server.getLocalPort());
+
+      // Unit under test
+      dao.push("{\"a\":1}");
+
+      // Verify results, the connection is still open
+      server.setSoTimeout(5000);
+      try (Socket client = server.accept()) {
+        client.setSoTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+        assertEquals("{\"a\":1}", reader.readLine());
+      } finally {
+        dao.close();
+      }
+    }
+  }
+
+  @Test
+  public void pushReconnectsWhenNothingWasWritten() throws Exception {
+    List<FailingSocket> sockets = new ArrayList<>();
+    dao = createDao(sockets);
+    dao.push("{\"a\":1}");
+    sockets.get(0).failAfter = 0;
+
+    // Unit under test
+    dao.push("{\"b\":2}");
+
+    // Verify results
+    assertEquals(2, sockets.size());
+    assertEquals("{\"b\":2}\n", sockets.get(1).written.toString("UTF-8"));
+  }
+
+  @Test
+  public void pushFailsAfterPartialWrite() throws Exception {
+    List<FailingSocket> sockets = new ArrayList<>();
+    dao = createDao(sockets);
+    dao.push("{\"a\":1}");
+    FailingSocket socket = sockets.get(0);
+    socket.failAfter = socket.written.size() + 1;
+    // more than the buffer of the connection, so the events are written in parts
+    String event = "{\"a\":\"" + String.join("", Collections.nCopies(100000, "x")) + "\"}";
+
+    // Unit under test
+    try {
+      dao.push(event);
+      fail("Push did not fail");
+    } catch (IOException e) {
+      // the events are not sent again on a new connection
+    }
+
+    // Verify results
+    assertEquals(1, sockets.size());
+  }
+
+  private LogstashDao createDao(List<FailingSocket> sockets) {
+    return new LogstashDao("localhost", 5000) {
+      @Override
+      Socket createSocket() {
+        FailingSocket socket = new FailingSocket();
+        sockets.add(socket);
+        return socket;
+      }
+    };
+  }
+
+  /**
+   * A connection that fails once a number of bytes was written to it.
+   */
+  private static class FailingSocket extends Socket {
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    int failAfter = Integer.MAX_VALUE;
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          if (written.size() + len > failAfter) {
+            throw new IOException("Connection reset");
+          }
+          written.write(b, off, len);
+        }
+      };
+    }
+  }
 }
@@ -187,4 +187,52 @@ public class LogzioDaoTest {
         assertTrue(expectedJson1.equals(sentJson1));
         assertTrue(expectedJson2.equals(sentJson2));
     }
+
+    @Test
+    public void pushEventsMatchesPush(){
+        when(mockBuildData.toString()).thenReturn(data);
+        List<String> lines = Arrays.asList("LINE 1", "LINE 2");
+        EventBuffer events = new EventBuffer();
+        dao.encodePayload(events, mockBuildData, "http://localhost:8080/jenkins", lines, 946684800000L);
+        dao.push(events.getEventString(0));
+
+        // Unit under test
+        dao.pushEvents(Collections.singletonList(new LogEvent(mockBuildData, "http://localhost:8080/jenkins", lines, 946684800000L)));
+
+        // Verify results
+        verify(logzioSender, times(4)).send(sendArgument.capture());
+        List<JsonObject> sent = sendArgument.getAllValues();
+        assertEquals(sent.get(0), sent.get(2));
+        assertEquals(sent.get(1), sent.get(3));
+        assertEquals("LINE 2", sent.get(3).get("message").getAsString());
+    }
+
+    @Test
+    public void pushHeaderEventsMatchesPush(){
+        when(mockBuildData.toString()).thenReturn(data);
+        when(mockBuildData.getBuildId()).thenReturn("parent/job#1");
+        List<String> lines = Arrays.asList("LINE 1", "LINE 2");
+        EventBuffer events = new EventBuffer();
+        dao.encodeHeader(events, mockBuildData, "http://localhost:8080/jenkins", 946684800000L);
+        dao.encodeLines(events, "parent/job#1", 1, lines, 946684800000L);
+        for (String event : events.toStrings()) {
+            dao.push(event);
+        }
+
+        // Unit under test
+        dao.pushEvents(Arrays.asList(LogEvent.header(mockBuildData, "http://localhost:8080/jenkins", 946684800000L),
+            LogEvent.lines(mockBuildData, lines, 946684800000L, 1)));
+
+        // Verify results
+        verify(logzioSender, times(6)).send(sendArgument.capture());
+        List<JsonObject> sent = sendArgument.getAllValues();
+        assertEquals(sent.get(0), sent.get(3));
+        assertEquals(sent.get(1), sent.get(4));
+        assertEquals(sent.get(2), sent.get(5));
+        assertEquals("", sent.get(3).get("message").getAsString());
+        assertEquals("parent/job#1", sent.get(3).get("buildId").getAsString());
+        assertEquals("LINE 2", sent.get(5).get("message").getAsString());
+        assertEquals("1", sent.get(5).get("seq").getAsString());
+        assertTrue(!sent.get(5).has("a_b"));
+    }
 }
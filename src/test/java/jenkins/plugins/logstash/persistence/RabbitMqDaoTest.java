@@ -165,8 +165,6 @@ public class RabbitMqDaoTest {
       // Verify results
       verify(mockPool).newConnection();
       verify(mockConnection).createChannel();
-      verify(mockConnection).isOpen();
-      verify(mockConnection).close();
       verify(mockChannel).queueDeclarePassive("logstash");
       verify(mockChannel).basicPublish("", "logstash", null, "{}".getBytes());
       verify(mockChannel).isOpen();
@@ -187,12 +185,8 @@ public class RabbitMqDaoTest {
     // Verify results
     verify(mockPool).newConnection();
     verify(mockConnection).createChannel();
-    verify(mockConnection).isOpen();
-    verify(mockConnection).close();
     verify(mockChannel).queueDeclarePassive("logstash");
     verify(mockChannel).basicPublish("", "logstash", null, json.getBytes());
-    verify(mockChannel).isOpen();
-    verify(mockChannel).close();
   }
 
   @Test
@@ -206,12 +200,8 @@ public class RabbitMqDaoTest {
     // Verify results
     verify(mockPool).newConnection();
     verify(mockConnection).createChannel();
-    verify(mockConnection).isOpen();
-    verify(mockConnection).close();
     verify(mockChannel).queueDeclarePassive("logstash");
     verify(mockChannel).basicPublish("", "logstash", null, json.getBytes());
-    verify(mockChannel).isOpen();
-    verify(mockChannel).close();
   }
 
   @Test
@@ -226,12 +216,52 @@ public class RabbitMqDaoTest {
     // Verify results
     verify(mockPool).newConnection();
     verify(mockConnection, times(2)).createChannel();
-    verify(mockConnection).isOpen();
-    verify(mockConnection).close();
     verify(mockChannel).queueDeclarePassive("logstash");
     verify(mockChannel).queueDeclare("logstash", true, false, false, null);
     verify(mockChannel).basicPublish("", "logstash", null, json.getBytes());
+    verify(mockChannel).isOpen();
+    verify(mockChannel).close();
+  }
+
+  @Test
+  public void pushReusesConnectionAndChannel() throws Exception {
+    String json = "{ 'foo': 'bar' }";
+
+    // Unit under test
+    dao.push(json);
+    dao.push(json);
+
+    // Verify results
+    verify(mockPool).newConnection();
+    verify(mockConnection).isOpen();
+    verify(mockConnection).createChannel();
+    verify(mockChannel).queueDeclarePassive("logstash");
+    verify(mockChannel).isOpen();
+    verify(mockChannel, times(2)).basicPublish("", "logstash", null, json.getBytes());
+
+    dao.close();
+    verify(mockConnection, times(2)).isOpen();
+    verify(mockConnection).close();
     verify(mockChannel, times(2)).isOpen();
-    verify(mockChannel, times(2)).close();
+    verify(mockChannel).close();
+  }
+
+  @Test
+  public void pushReconnectsAfterConnectionLoss() throws Exception {
+    String json = "{ 'foo': 'bar' }";
+    dao.push(json);
+    when(mockConnection.isOpen()).thenReturn(false);
+    when(mockChannel.isOpen()).thenReturn(false);
+
+    // Unit under test
+    dao.push(json);
+
+    // Verify results
+    verify(mockPool, times(2)).newConnection();
+    verify(mockConnection).isOpen();
+    verify(mockConnection, times(2)).createChannel();
+    verify(mockChannel, times(2)).queueDeclarePassive("logstash");
+    verify(mockChannel).isOpen();
+    verify(mockChannel, times(2)).basicPublish("", "logstash", null, json.getBytes());
   }
 }
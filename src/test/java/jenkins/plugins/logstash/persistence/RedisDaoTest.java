@@ -1,7 +1,8 @@
 package jenkins.plugins.logstash.persistence;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Mockito.doThrow;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -16,9 +17,18 @@ import org.mockito.junit.MockitoJUnitRunner;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RedisDaoTest {
@@ -97,9 +107,9 @@ public class RedisDaoTest {
   }
 
   @Test(expected = IOException.class)
-  public void pushFailUnauthorized() throws Exception {
+  public void pushFailCantConnect() throws Exception {
     // Initialize mocks
-    when(mockJedis.auth("password")).thenThrow(new JedisConnectionException("Unauthorized"));
+    when(mockPool.getResource()).thenThrow(new JedisConnectionException("Connection refused"));
 
     // Unit under test
     try {
@@ -107,31 +117,48 @@ public class RedisDaoTest {
     } catch (IOException e) {
       // Verify results
       verify(mockPool).getResource();
-      verify(mockPool).returnBrokenResource(mockJedis);
-      verify(mockJedis).auth("password");
       assertEquals("wrong error message",
-        "IOException: redis.clients.jedis.exceptions.JedisConnectionException: Unauthorized", ExceptionUtils.getMessage(e));
+        "IOException: redis.clients.jedis.exceptions.JedisConnectionException: Connection refused", ExceptionUtils.getMessage(e));
       throw e;
     }
   }
 
   @Test(expected = IOException.class)
-  public void pushFailCantConnect() throws Exception {
-    // Initialize mocks
-    doThrow(new JedisConnectionException("Connection refused")).when(mockJedis).connect();
+  public void pushFailUnauthorized() throws Exception {
+    // a server that rejects the password, the pool of the dao authenticates each new connection
+    try (ServerSocket server = new ServerSocket(0)) {
+      List<String> commands = new CopyOnWriteArrayList<>();
+      Thread redis = new Thread(() -> {
+        try (Socket client = server.accept()) {
+          BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+          String line;
+          while ((line = reader.readLine()) != null) {
+            commands.add(line);
+            if (line.equals("password")) {
+              client.getOutputStream().write("-ERR invalid password\r\n".getBytes(StandardCharsets.UTF_8));
+              client.getOutputStream().flush();
+            }
+          }
+        } catch (IOException e) {
+          // the dao closed the connection
+        }
+      });
+      redis.start();
+      dao = new RedisDao("localhost", server.getLocalPort(), "logstash", "password", new JedisPoolConfig());
 
-    // Unit under test
-    try {
-      dao.push("");
-    } catch (IOException e) {
-      // Verify results
-      verify(mockPool).getResource();
-      verify(mockPool).returnBrokenResource(mockJedis);
-      verify(mockJedis).auth("password");
-      verify(mockJedis).connect();
-      assertEquals("wrong error message",
-        "IOException: redis.clients.jedis.exceptions.JedisConnectionException: Connection refused", ExceptionUtils.getMessage(e));
-      throw e;
+      // Unit under test
+      try {
+        dao.push("{ 'foo': 'bar' }");
+      } catch (IOException e) {
+        // Verify results
+        redis.join(5000);
+        assertTrue("No AUTH sent", commands.contains("AUTH"));
+        assertFalse("Pushed without authentication", commands.contains("RPUSH"));
+        assertEquals("wrong error message",
+          "IOException: redis.clients.jedis.exceptions.JedisConnectionException: Could not get a resource from the pool",
+          ExceptionUtils.getMessage(e));
+        throw e;
+      }
     }
   }
 
@@ -149,8 +176,6 @@ public class RedisDaoTest {
       // Verify results
       verify(mockPool).getResource();
       verify(mockPool).returnBrokenResource(mockJedis);
-      verify(mockJedis).auth("password");
-      verify(mockJedis).connect();
       verify(mockJedis).rpush("logstash", json);
       assertEquals("wrong error message",
         "IOException: redis.clients.jedis.exceptions.JedisConnectionException: Push failed", ExceptionUtils.getMessage(e));
@@ -171,10 +196,7 @@ public class RedisDaoTest {
     // Verify results
     verify(mockPool).getResource();
     verify(mockPool).returnResource(mockJedis);
-    verify(mockJedis).auth("password");
-    verify(mockJedis).connect();
     verify(mockJedis).rpush("logstash", json);
-    verify(mockJedis).disconnect();
   }
 
   @Test
@@ -191,8 +213,23 @@ public class RedisDaoTest {
     // Verify results
     verify(mockPool).getResource();
     verify(mockPool).returnResource(mockJedis);
-    verify(mockJedis).connect();
     verify(mockJedis).rpush("logstash", json);
-    verify(mockJedis).disconnect();
+  }
+
+  @Test
+  public void pushAllSuccess() throws Exception {
+    String json1 = "{ 'foo': 'bar' }";
+    String json2 = "{ 'bar': 'foo' }";
+
+    // Initialize mocks
+    when(mockJedis.rpush("logstash", json1, json2)).thenReturn(2L);
+
+    // Unit under test
+    dao.pushAll(Arrays.asList(json1, json2));
+
+    // Verify results
+    verify(mockPool).getResource();
+    verify(mockPool).returnResource(mockJedis);
+    verify(mockJedis).rpush("logstash", json1, json2);
   }
 }
@@ -47,6 +47,15 @@ public class SyslogDaoTest {
     verify(mockUdpSyslogMessageSender, times(1)).setMessageFormat(MessageFormat.RFC_3164);
   }
 
+  // The sender is not configured again for further messages.
+  @Test
+  public void syslogConfigOnce() throws Exception {
+    dao.push(data);
+    verify(mockUdpSyslogMessageSender, times(2)).sendMessage(" @cee: " + data);
+    verify(mockUdpSyslogMessageSender, times(1)).setSyslogServerHostname(host);
+    verify(mockUdpSyslogMessageSender, times(1)).setMessageFormat(MessageFormat.RFC_3164);
+  }
+
   SyslogDao createDao(String host, int port, String key, String username, String password) {
     return new SyslogDao(mockUdpSyslogMessageSender, host, port);
   }
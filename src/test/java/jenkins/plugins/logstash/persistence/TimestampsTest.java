@@ -0,0 +1,35 @@
+package jenkins.plugins.logstash.persistence;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.lang.time.FastDateFormat;
+import org.junit.Test;
+
+public class TimestampsTest {
+
+  private static final long TIME = 1520720520000L;
+
+  private static void assertSameAsFormatter(String pattern) {
+    FastDateFormat formatter = FastDateFormat.getInstance(pattern);
+    Timestamps.Second second = new Timestamps.Second(formatter, TIME / 1000);
+    for (long millis = TIME; millis < TIME + 1000; millis += 7) {
+      assertEquals(formatter.format(millis), second.format(millis));
+    }
+    assertEquals(formatter.format(TIME + 999), second.format(TIME + 999));
+  }
+
+  @Test
+  public void milliSecondFormat() throws Exception {
+    assertSameAsFormatter("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+  }
+
+  @Test
+  public void secondFormat() throws Exception {
+    assertSameAsFormatter("yyyy-MM-dd'T'HH:mm:ssZ");
+  }
+
+  @Test
+  public void unusualFormat() throws Exception {
+    assertSameAsFormatter("S yyyy-MM-dd'T'HH:mm:ss");
+  }
+}